@@ -0,0 +1,60 @@
+package benchmark;
+
+import server.ChatMessage;
+import server.ChatServer;
+import server.ClientHandler;
+import server.ClientRegistry;
+import server.EncodedMessage;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Client without a socket, exposing the protected message path of
+ * {@link ClientHandler} to the benchmarks. What the server queues for it is
+ * discarded by {@link #drain()} instead of being written to a connection.
+ */
+public class BenchClient extends ClientHandler {
+
+    /**
+     * Constructs a client of a server.
+     *
+     * @param server   server the client belongs to
+     * @param clients  registry of connected clients
+     * @param logQueue queue of messages to log
+     */
+    public BenchClient(ChatServer server, ClientRegistry clients, LinkedBlockingQueue<ChatMessage> logQueue) {
+        super(null, server, clients, new LinkedBlockingQueue<>(), logQueue);
+    }
+
+    /**
+     * Marks the connection ready, as the transport does after accepting it.
+     */
+    public void connect() {
+        onConnect();
+    }
+
+    /**
+     * Processes a line as if it was received from the connection.
+     *
+     * @param line line without terminator
+     * @return false if the client asked to quit
+     */
+    public boolean line(String line) throws InterruptedException {
+        return handleLine(line);
+    }
+
+    /**
+     * Discards everything queued for this client.
+     *
+     * @return number of discarded messages
+     */
+    public int drain() {
+        int count = 0;
+        EncodedMessage message;
+        while ((message = outbound.poll()) != null) {
+            message.release();
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,125 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.BroadcastWorker;
+import server.ChatMessage;
+import server.ChatServer;
+import server.ClientHandler;
+import server.ClientRegistry;
+import server.EncodedMessage;
+import server.Metrics;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one server-wide broadcast, by number of recipients.
+ * <p>
+ * {@code printWriterPerClient} is the behaviour before messages were encoded
+ * once: every client encodes the string into its own writer.
+ * {@code encodeOnce} is the loop of {@link BroadcastWorker}: one encoding,
+ * shared with the outbound queue of every client. {@code broadcastWorker}
+ * runs the real worker thread and includes the hand-over through the
+ * broadcast queue. Queued messages are discarded, not written to sockets.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BroadcastFanoutBenchmark {
+
+    /** Broadcasts per invocation of {@link #broadcastWorker()}. */
+    private static final int BATCH = 64;
+
+    /** Number of connected clients. */
+    @Param({"10", "500"})
+    public int recipients;
+
+    public String message = "alice: Ahoj všichni, jak se máte? Tohle je běžná zpráva do chatu.";
+
+    private PrintWriter[] writers;
+
+    private ClientRegistry clients;
+
+    private LinkedBlockingQueue<String> broadcastQueue;
+
+    private Metrics.Metric broadcasts;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        ChatServer.OUTBOUND_QUEUE_CAPACITY = 4 * BATCH;
+        writers = new PrintWriter[recipients];
+        for (int i = 0; i < recipients; i++) {
+            writers[i] = new PrintWriter(OutputStream.nullOutputStream(), true);
+        }
+
+        ChatServer server = new ChatServer();
+        clients = server.getClients();
+        LinkedBlockingQueue<ChatMessage> logQueue = new LinkedBlockingQueue<>();
+        for (int i = 0; i < recipients; i++) {
+            BenchClient client = new BenchClient(server, clients, logQueue);
+            clients.add(client);
+            client.connect();
+            client.line("user" + i);
+        }
+        drain();
+
+        broadcastQueue = new LinkedBlockingQueue<>();
+        Thread worker = new Thread(new BroadcastWorker(clients, broadcastQueue), "BroadcastWorker");
+        worker.setDaemon(true);   // runs until the fork exits
+        worker.start();
+        broadcasts = Metrics.get("server_broadcasts_total");
+    }
+
+    @Setup(Level.Invocation)
+    public void drain() {
+        for (ClientHandler client : clients) {
+            ((BenchClient) client).drain();
+        }
+    }
+
+    @Benchmark
+    public void printWriterPerClient() {
+        for (PrintWriter writer : writers) {
+            writer.println(message);
+        }
+    }
+
+    @Benchmark
+    public void encodeOnce() {
+        EncodedMessage encoded = EncodedMessage.of(message);
+        for (ClientHandler client : clients) {
+            client.send(encoded);
+        }
+        encoded.release();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void broadcastWorker() throws InterruptedException {
+        long target = Metrics.valueOf(broadcasts) + BATCH;
+        for (int i = 0; i < BATCH; i++) {
+            broadcastQueue.put(message);
+        }
+        while (Metrics.valueOf(broadcasts) < target) {
+            Thread.yield();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ChatServer;
+import server.ClientHandler;
+import server.ClientRegistry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connect/disconnect storm: all clients are added, then removed in random
+ * order, against the former CopyOnWriteArrayList client list and the
+ * {@link ClientRegistry}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ClientRegistryBenchmark {
+
+    /** Number of clients connecting and disconnecting. */
+    @Param({"1000", "10000"})
+    public int clients;
+
+    private List<ClientHandler> handlers;
+
+    private List<ClientHandler> disconnectOrder;
+
+    @Setup
+    public void setup() {
+        ChatServer server = new ChatServer();
+        ClientRegistry registry = new ClientRegistry();
+        handlers = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            handlers.add(new ClientHandler(null, server, registry,
+                    new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>()));
+        }
+        disconnectOrder = new ArrayList<>(handlers);
+        Collections.shuffle(disconnectOrder, new Random(42));
+    }
+
+    @Benchmark
+    public List<ClientHandler> copyOnWriteList() {
+        List<ClientHandler> list = new CopyOnWriteArrayList<>();
+        for (ClientHandler handler : handlers) {
+            list.add(handler);
+        }
+        for (ClientHandler handler : disconnectOrder) {
+            list.remove(handler);
+        }
+        return list;
+    }
+
+    @Benchmark
+    public ClientRegistry registry() {
+        ClientRegistry registry = new ClientRegistry();
+        for (ClientHandler handler : handlers) {
+            registry.add(handler);
+        }
+        for (ClientHandler handler : disconnectOrder) {
+            registry.remove(handler);
+        }
+        return registry;
+    }
+}
@@ -0,0 +1,175 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ChatMessage;
+import server.ChatServer;
+import server.ClientHandler;
+import server.ClientRegistry;
+import server.CommandRegistry;
+import server.WordFilter;
+
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-line cost of command dispatch and of the normal message path.
+ * <p>
+ * Compares the former chain of equals/startsWith checks with the
+ * {@link CommandRegistry} lookup, over a mix of lines and for a chat message
+ * alone, and measures {@code ClientHandler.handleLine} for a chat message and
+ * for a command. Both lookups are folded into an int the same way, so neither
+ * side pays for a Blackhole the other does not.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandDispatchBenchmark {
+
+    /** The most common line: a chat message, which is no command. */
+    private static final String CHAT_LINE = "hello everybody, how is it going?";
+
+    private static final String[] LINES = {
+            CHAT_LINE, "/who", "/join dev", "/history 5",
+            "/banwords", "/help", "/quit", "/unknown command"
+    };
+
+    /** {@link #CHAT_LINE} in a field, so that the JIT cannot fold the lookups of a constant. */
+    private String chatLine = CHAT_LINE;
+
+    private CommandRegistry commands;
+
+    private BenchClient client;
+
+    private LinkedBlockingQueue<ChatMessage> logQueue;
+
+    private ChatServer server;
+
+    private int calls;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        commands = ClientHandler.builtInCommands();
+        ChatServer.RATE_LIMIT_PER_SEC = 0;
+        ChatServer.GLOBAL_RATE_LIMIT_PER_SEC = 0;
+        server = new ChatServer();
+        server.setWordFilter(new WordFilter(Set.of("badword", "worse"), true));
+        logQueue = new LinkedBlockingQueue<>();
+        ClientRegistry clients = server.getClients();
+        client = new BenchClient(server, clients, logQueue);
+        clients.add(client);
+        client.connect();
+        client.line("bench");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int ifChain() {
+        int found = 0;
+        for (String line : LINES) {
+            String command = legacyDispatch(line);
+            found += command == null ? 0 : command.length();
+        }
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(8)
+    public int table() {
+        int found = 0;
+        for (String line : LINES) {
+            CommandRegistry.Entry entry = commands.find(line);
+            found += entry == null ? 0 : entry.name().length();
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int ifChainChatLine() {
+        String command = legacyDispatch(chatLine);
+        return command == null ? 0 : command.length();
+    }
+
+    @Benchmark
+    public int tableChatLine() {
+        CommandRegistry.Entry entry = commands.find(chatLine);
+        return entry == null ? 0 : entry.name().length();
+    }
+
+    @Benchmark
+    public boolean handleChatMessage() throws InterruptedException {
+        discardQueued();
+        return client.line(CHAT_LINE);
+    }
+
+    @Benchmark
+    public boolean handleWho() throws InterruptedException {
+        discardQueued();
+        return client.line("/who");
+    }
+
+    /**
+     * Empties the queues the message path fills now and then, as the workers would.
+     */
+    private void discardQueued() {
+        if ((++calls & 1023) == 0) {
+            logQueue.clear();
+            server.getRooms().getShards().forEach(LinkedBlockingQueue::clear);
+            client.drain();
+        }
+    }
+
+    /**
+     * The command checks as they were before the dispatch table; returns the command found.
+     */
+    private static String legacyDispatch(String message) {
+        if (message.equalsIgnoreCase("/quit")) {
+            return "/quit";
+        }
+        if (message.equals("/who")) {
+            return "/who";
+        }
+        if (message.startsWith("/name ")) {
+            return "/name";
+        }
+        if (message.startsWith("/msg ")) {
+            return "/msg";
+        }
+        if (message.startsWith("/join ")) {
+            return "/join";
+        }
+        if (message.equals("/leave")) {
+            return "/leave";
+        }
+        if (message.equals("/history") || message.startsWith("/history ")) {
+            return "/history";
+        }
+        if (message.equals("/rooms")) {
+            return "/rooms";
+        }
+        if (message.equals("/banwords")) {
+            return "/banwords";
+        }
+        if (message.equalsIgnoreCase("/help")) {
+            return "/help";
+        }
+        if (message.equalsIgnoreCase("/banwords")) {
+            return "/banwords";
+        }
+        return null;
+    }
+}
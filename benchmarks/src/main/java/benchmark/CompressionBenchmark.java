@@ -0,0 +1,66 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.Frame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of compressing and decompressing a frame payload, by message size.
+ * Together with the compressed size (printed at setup) it tells from which
+ * size compression is worth it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressionBenchmark {
+
+    /** Approximate payload size (bytes). */
+    @Param({"64", "256", "1024", "8192"})
+    public int size;
+
+    /** Payload: chat-like text. */
+    private byte[] payload;
+
+    /** The payload compressed. */
+    private byte[] compressed;
+
+    @Setup
+    public void setup() {
+        String sentence = "Ahoj všichni, jak se máte? Tohle je úplně běžná zpráva do chatu. ";
+        StringBuilder text = new StringBuilder("alice: ");
+        for (int i = 0; text.length() < size; i++) {
+            text.append(sentence, 0, Math.min(sentence.length(), size - text.length())).append(i);
+        }
+        payload = text.toString().getBytes(StandardCharsets.UTF_8);
+        compressed = Frame.deflate(payload, 0, payload.length);
+        if (compressed == null) {
+            compressed = payload;
+        }
+        System.out.printf("%n%d bytes compress to %d bytes%n", payload.length, compressed.length);
+    }
+
+    @Benchmark
+    public byte[] deflate() {
+        return Frame.deflate(payload, 0, payload.length);
+    }
+
+    @Benchmark
+    public String inflate() {
+        return Frame.inflate(compressed, 0, compressed.length);
+    }
+}
@@ -0,0 +1,111 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ChatMessage;
+import server.ChatServer;
+import server.LoggerWorker;
+import server.MessageStore;
+import server.Metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cost of logging a chat message: bursts of messages are queued for a running
+ * {@link LoggerWorker} and the benchmark waits until all of them are appended.
+ * The worker writes the text log, the message store or both, with the commit
+ * mode given by {@code fsync}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoggerWorkerBenchmark {
+
+    /** Messages queued per invocation. */
+    private static final int BURST = 1000;
+
+    /** What the worker appends to: "log", "store" or "both". */
+    @Param({"log", "store", "both"})
+    public String target;
+
+    /** Whether commits force the data to disk. */
+    @Param({"false"})
+    public boolean fsync;
+
+    private Path dir;
+
+    private MessageStore store;
+
+    private LinkedBlockingQueue<ChatMessage> logQueue;
+
+    private Thread worker;
+
+    private Metrics.Metric logged;
+
+    private ChatMessage[] messages;
+
+    @Setup
+    public void setup() throws IOException {
+        ChatServer.LOG_FSYNC = fsync;
+        dir = Files.createTempDirectory("chat-logger-bench");
+        Path logFile = target.equals("store") ? null : dir.resolve("chat.log");
+        store = target.equals("log") ? null : new MessageStore(dir.resolve("store"), 64L * 1024 * 1024);
+
+        logQueue = new LinkedBlockingQueue<>();
+        worker = new Thread(new LoggerWorker(logQueue, logFile, 256L * 1024 * 1024, store), "LoggerWorker");
+        worker.start();
+        logged = Metrics.get("log_messages_total");
+
+        messages = new ChatMessage[BURST];
+        for (int i = 0; i < BURST; i++) {
+            messages[i] = new ChatMessage("user" + (i % 100), "lobby",
+                    "message number " + i + " with some ordinary chat text");
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        worker.interrupt();
+        worker.join();
+        if (store != null) {
+            store.close();
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void append() {
+        long expected = Metrics.valueOf(logged) + BURST;
+        for (ChatMessage message : messages) {
+            logQueue.add(message);
+        }
+        while (Metrics.valueOf(logged) < expected) {
+            Thread.yield();
+        }
+    }
+}
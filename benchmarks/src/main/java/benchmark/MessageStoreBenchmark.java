@@ -0,0 +1,104 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ChatMessage;
+import server.MessageStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Appends to and queries of the message store. The store is filled with
+ * {@code records} messages from 1000 users before measuring; appends
+ * continue growing it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageStoreBenchmark {
+
+    /** Number of stored messages before measuring. */
+    @Param({"1000000"})
+    public int records;
+
+    private Path dir;
+
+    private MessageStore store;
+
+    private long appended;
+
+    @Setup
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("chat-store-bench");
+        store = new MessageStore(dir, 64L * 1024 * 1024);
+        for (int i = 0; i < records; i++) {
+            append(i);
+        }
+        store.commit();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        return append(records + appended++);
+    }
+
+    @Benchmark
+    public Object getBySeq() throws IOException {
+        return store.get(ThreadLocalRandom.current().nextInt(records));
+    }
+
+    @Benchmark
+    public List<?> findByTime() throws IOException {
+        long from = ThreadLocalRandom.current().nextInt(records - 100);
+        return store.findByTime(from, from + 99, 100);
+    }
+
+    @Benchmark
+    public List<?> findBySenderInWindow() throws IOException {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long from = random.nextInt(records - 10_000);
+        return store.findBySender("user" + random.nextInt(1000), from, from + 9_999, 100);
+    }
+
+    /**
+     * Appends a message with the given timestamp, committing every 1024 messages.
+     */
+    private long append(long i) throws IOException {
+        long seq = store.append(new ChatMessage(i, "user" + (i % 1000), "lobby",
+                "message number " + i + " with some ordinary chat text"));
+        if ((i & 1023) == 1023) {
+            store.commit();
+        }
+        return seq;
+    }
+}
@@ -0,0 +1,135 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.ChatMessage;
+import server.ChatServer;
+import server.ClientHandler;
+import server.ClientRegistry;
+import server.LatencyHistogram;
+import server.Metrics;
+import server.RoomBroadcastWorker;
+import server.WordFilter;
+
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What the metrics instrumentation costs on the message path.
+ * <p>
+ * One client sends chat messages through {@code handleLine} (rate limit,
+ * filter, enqueue) while room broadcast workers fan them out to the other
+ * members of the room. Comparing {@code sampling=0} (no latencies measured)
+ * with the default sampling gives the overhead of the instrumentation.
+ * Also measures a single histogram update.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetricsOverheadBenchmark {
+
+    /** Messages sent per invocation. */
+    private static final int BURST = 256;
+
+    /** One in how many operations has its latency measured, 0 for none. */
+    @Param({"0", "8", "1"})
+    public int sampling;
+
+    /** Members of the room besides the sender. */
+    @Param({"10", "100"})
+    public int members;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private long value;
+
+    private BenchClient sender;
+
+    private BenchClient[] receivers;
+
+    private Metrics.Metric broadcasts;
+
+    @Setup
+    public void setup() throws InterruptedException {
+        ChatServer.METRICS_LATENCY_SAMPLING = sampling;
+        ChatServer.RATE_LIMIT_PER_SEC = 0;
+        ChatServer.GLOBAL_RATE_LIMIT_PER_SEC = 0;
+        ChatServer.OUTBOUND_QUEUE_CAPACITY = Integer.MAX_VALUE;
+        ChatServer server = new ChatServer();
+        server.setWordFilter(new WordFilter(Set.of("badword", "worse"), true));
+        ClientRegistry clients = server.getClients();
+        LinkedBlockingQueue<ChatMessage> logQueue = new LinkedBlockingQueue<>();
+        receivers = new BenchClient[members];
+        for (int i = 0; i < members; i++) {
+            receivers[i] = connect(server, clients, logQueue, "member" + i);
+        }
+        sender = connect(server, clients, logQueue, "sender");
+
+        for (LinkedBlockingQueue<ChatMessage> shard : server.getRooms().getShards()) {
+            Thread worker = new Thread(new RoomBroadcastWorker(server.getRooms(), shard));
+            worker.setDaemon(true);
+            worker.start();
+        }
+        Thread logDrain = new Thread(() -> {
+            try {
+                while (true) {
+                    logQueue.take();
+                    logQueue.clear();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        });
+        logDrain.setDaemon(true);
+        logDrain.start();
+        broadcasts = Metrics.get("room_broadcasts_total");
+    }
+
+    @Benchmark
+    public void histogramRecord() {
+        histogram.record(value++ & 0xffff);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void sendToRoom() throws InterruptedException {
+        long expected = Metrics.valueOf(broadcasts) + BURST;
+        for (int i = 0; i < BURST; i++) {
+            sender.line("hello everybody, this is message " + i);
+        }
+        while (Metrics.valueOf(broadcasts) < expected) {
+            Thread.yield();
+        }
+        sender.drain();
+        for (BenchClient receiver : receivers) {
+            receiver.drain();
+        }
+    }
+
+    /**
+     * Connects a client and gives it a name, which puts it in the default room.
+     */
+    private static BenchClient connect(ChatServer server, ClientRegistry clients,
+                                       LinkedBlockingQueue<ChatMessage> logQueue, String name)
+            throws InterruptedException {
+        BenchClient client = new BenchClient(server, clients, logQueue);
+        clients.add(client);
+        client.connect();
+        client.line(name);
+        return client;
+    }
+}
@@ -0,0 +1,72 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import server.WordFilter;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking a chat message against the banned words, by size of the
+ * word list and with or without folding diacritics.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WordFilterBenchmark {
+
+    /** Number of banned words. */
+    @Param({"10", "1000"})
+    public int words;
+
+    /** Whether "ž" matches "z" and so on. */
+    @Param({"true", "false"})
+    public boolean foldDiacritics;
+
+    /** Ordinary message without banned words. */
+    public String clean = "Ahoj všichni, jak se máte? Tohle je úplně běžná zpráva do chatu, nic zvláštního.";
+
+    /** Message with a banned word near its end. */
+    public String banned;
+
+    private WordFilter filter;
+
+    @Setup
+    public void setup() {
+        Set<String> list = new HashSet<>();
+        for (int i = 0; i < words; i++) {
+            list.add("zakazane" + Integer.toString(i, 36));
+        }
+        filter = new WordFilter(list, foldDiacritics);
+        banned = clean + " zakazane" + Integer.toString(words - 1, 36) + "!";
+    }
+
+    @Benchmark
+    public boolean containsClean() {
+        return filter.containsBannedWord(clean);
+    }
+
+    @Benchmark
+    public boolean containsBanned() {
+        return filter.containsBannedWord(banned);
+    }
+
+    @Benchmark
+    public String maskBanned() {
+        return filter.mask(banned);
+    }
+}
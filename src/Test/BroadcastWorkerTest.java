@@ -0,0 +1,64 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.BroadcastWorker;
+import server.ChatServer;
+import server.ClientHandler;
+import server.ClientRegistry;
+import server.EncodedMessage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Unit test for the BroadcastWorker class.
+ * Ensures that a broadcast is encoded once and shared by all recipients.
+ */
+class BroadcastWorkerTest {
+
+    /**
+     * Client stub that records the encoded messages it receives.
+     */
+    private static class RecordingClient extends ClientHandler {
+
+        final LinkedBlockingQueue<EncodedMessage> received = new LinkedBlockingQueue<>();
+
+        RecordingClient(ClientRegistry clients) {
+            super(null, new ChatServer(), clients, new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>());
+        }
+
+        @Override
+        public void send(EncodedMessage msg) {
+            received.add(msg);
+        }
+    }
+
+    /**
+     * Tests that every client receives the same encoded instance.
+     */
+    @Test
+    void testEncodeOnce() throws Exception {
+        ClientRegistry clients = new ClientRegistry();
+        RecordingClient first = new RecordingClient(clients);
+        RecordingClient second = new RecordingClient(clients);
+        clients.add(first);
+        clients.add(second);
+
+        LinkedBlockingQueue<String> broadcastQueue = new LinkedBlockingQueue<>();
+        Thread thread = new Thread(new BroadcastWorker(clients, broadcastQueue));
+        thread.setDaemon(true);
+        thread.start();
+
+        broadcastQueue.put("alice: hello");
+
+        EncodedMessage a = first.received.poll(1, TimeUnit.SECONDS);
+        EncodedMessage b = second.received.poll(1, TimeUnit.SECONDS);
+
+        assertSame(a, b);
+        assertEquals("alice: hello\n", StandardCharsets.UTF_8.decode(a.buffer()).toString());
+    }
+}
@@ -2,25 +2,30 @@ package Test;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import server.ChatMessage;
 import server.ChatServer;
 import server.ClientHandler;
+import server.ClientRegistry;
+import server.TimeoutWatcher;
 
-import java.util.ArrayList;
-import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ClientHandlerTest {
 
     private ClientHandler handler;
-    private List<ClientHandler> clients;
+    private ClientRegistry clients;
     private LinkedBlockingQueue<String> broadcastQueue;
-    private LinkedBlockingQueue<String> logQueue;
+    private LinkedBlockingQueue<ChatMessage> logQueue;
 
     @BeforeEach
     void setup() {
-        clients = new ArrayList<>();
+        clients = new ClientRegistry();
         broadcastQueue = new LinkedBlockingQueue<>();
         logQueue = new LinkedBlockingQueue<>();
 
@@ -32,8 +37,13 @@ class ClientHandlerTest {
                 clients,
                 broadcastQueue,
                 logQueue
-        );
-
+        ) {
+            {
+                name = "OldName"; // client that already picked its name
+            }
+        };
+        clients.add(handler);
+        clients.claimName(handler, "OldName");
 
     }
 
@@ -44,4 +54,67 @@ class ClientHandlerTest {
         assertEquals("NewName", handler.getName());
         assertEquals("OldName is now known as NewName", broadcastQueue.take());
     }
+
+    @Test
+    void testIdleLegacyClientIsNotDropped() throws InterruptedException {
+        long intervalBefore = ChatServer.HEARTBEAT_INTERVAL_MS;
+        long timeoutBefore = ChatServer.HEARTBEAT_TIMEOUT_MS;
+        long inactivityBefore = ChatServer.INACTIVITY_LIMIT_MS;
+        ChatServer.INACTIVITY_LIMIT_MS = 60_000;
+        ChatServer.HEARTBEAT_INTERVAL_MS = 50;
+        ChatServer.HEARTBEAT_TIMEOUT_MS = 50;
+        TimeoutWatcher watcher = new TimeoutWatcher(logQueue);
+        Thread watcherThread = new Thread(watcher, "TestTimeoutWatcher");
+        watcherThread.setDaemon(true);
+        try {
+            watcherThread.start();
+
+            // a client that once answered a ping is held to the heartbeat, one that never did is not
+            var answering = new ClientHandler(null, new ChatServer(), clients, broadcastQueue, logQueue) {
+                void pong() throws InterruptedException {
+                    handleLine("/pong");
+                }
+            };
+            answering.pong();
+            watcher.register(handler);
+            watcher.register(answering);
+            Thread.sleep(500);
+
+            assertFalse(handler.isDisconnected());
+            assertTrue(answering.isDisconnected());
+        } finally {
+            watcherThread.interrupt();
+            ChatServer.HEARTBEAT_INTERVAL_MS = intervalBefore;
+            ChatServer.HEARTBEAT_TIMEOUT_MS = timeoutBefore;
+            ChatServer.INACTIVITY_LIMIT_MS = inactivityBefore;
+        }
+    }
+
+    @Test
+    void testSessionTokenOnlyWhenAsked() throws InterruptedException {
+        long graceBefore = ChatServer.RECONNECT_GRACE_MS;
+        ChatServer.RECONNECT_GRACE_MS = 60_000;
+        try {
+            ChatServer server = new ChatServer();
+            var legacy = new ClientHandler(null, server, clients, broadcastQueue, logQueue) {
+                void send(String line) throws InterruptedException {
+                    handleLine(line);
+                }
+            };
+            var resuming = new ClientHandler(null, server, clients, broadcastQueue, logQueue) {
+                void send(String line) throws InterruptedException {
+                    handleLine(line);
+                }
+            };
+            legacy.send("Legacy");
+            resuming.send("/session");
+            resuming.send("Resuming");
+
+            assertEquals("Resuming", resuming.getName());
+            assertNull(legacy.getSessionToken());
+            assertNotNull(resuming.getSessionToken());
+        } finally {
+            ChatServer.RECONNECT_GRACE_MS = graceBefore;
+        }
+    }
 }
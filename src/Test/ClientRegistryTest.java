@@ -0,0 +1,113 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ChatServer;
+import server.ClientHandler;
+import server.ClientRegistry;
+import server.EncodedMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the ClientRegistry class.
+ */
+class ClientRegistryTest {
+
+    private final ClientRegistry clients = new ClientRegistry();
+
+    private ClientHandler newClient() {
+        ClientHandler client = new ClientHandler(null, new ChatServer(), clients,
+                new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>());
+        clients.add(client);
+        return client;
+    }
+
+    @Test
+    void testLookupById() {
+        ClientHandler client = newClient();
+
+        assertSame(client, clients.findById(client.getId()));
+        assertEquals(1, clients.size());
+
+        clients.remove(client);
+        assertNull(clients.findById(client.getId()));
+        assertEquals(0, clients.size());
+    }
+
+    @Test
+    void testNamesAreUnique() {
+        ClientHandler alice = newClient();
+        ClientHandler other = newClient();
+
+        assertTrue(clients.claimName(alice, "Alice"));
+        assertFalse(clients.claimName(other, " alice "));
+        assertSame(alice, clients.findByName("ALICE"));
+    }
+
+    @Test
+    void testRename() {
+        ClientHandler alice = newClient();
+        ClientHandler bob = newClient();
+        clients.claimName(alice, "alice");
+        clients.claimName(bob, "bob");
+
+        assertFalse(clients.rename(alice, "alice", "Bob"));
+        assertTrue(clients.rename(alice, "alice", "carol"));
+
+        assertNull(clients.findByName("alice"));
+        assertSame(alice, clients.findByName("carol"));
+    }
+
+    @Test
+    void testReplaceHandsOverIdSlotAndName() {
+        ClientHandler previous = new ClientHandler(null, new ChatServer(), clients,
+                new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>()) {
+            {
+                name = "alice";
+            }
+        };
+        clients.add(previous);
+        clients.claimName(previous, "alice");
+        ClientHandler successor = newClient();
+
+        clients.replace(previous, successor);
+
+        assertNull(clients.findById(previous.getId()));
+        assertSame(successor, clients.findById(successor.getId()));
+        assertSame(successor, clients.findByName("alice"));
+        assertEquals(1, clients.size());
+    }
+
+    @Test
+    void testSendToDeliversOnlyToRecipientInOrder() {
+        List<String> received = new ArrayList<>();
+        ClientHandler bob = new ClientHandler(null, new ChatServer(), clients,
+                new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>()) {
+            @Override
+            public void send(EncodedMessage msg) {
+                received.add(msg.toString());
+            }
+        };
+        clients.add(bob);
+        clients.claimName(bob, "bob");
+        newClient();
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(clients.sendTo("Bob", EncodedMessage.of("m" + i)));
+        }
+        assertFalse(clients.sendTo("nobody", EncodedMessage.of("lost")));
+
+        assertEquals(100, received.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("m" + i, received.get(i));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package Test;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import server.ChatMessage;
+import server.ClientRegistry;
+import server.ClusterBus;
+import server.RoomRegistry;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the ClusterBus class: nodes on localhost exchanging events.
+ */
+class ClusterBusTest {
+
+    /** A node without clients: its room shard and broadcast queue are inspected directly. */
+    private static final class Node {
+        final RoomRegistry rooms = new RoomRegistry(1);
+        final LinkedBlockingQueue<String> broadcastQueue = new LinkedBlockingQueue<>();
+        final ClusterBus bus;
+
+        Node(String id) throws Exception {
+            bus = new ClusterBus(id, 0, 1000, new ClientRegistry(), rooms, broadcastQueue);
+        }
+
+        ChatMessage nextRoomMessage() throws InterruptedException {
+            return rooms.getShards().get(0).poll(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private final List<Node> nodes = new ArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        for (Node node : nodes) {
+            node.bus.close();
+        }
+    }
+
+    /**
+     * Starts nodes that all know each other.
+     */
+    private List<Node> cluster(int count) throws Exception {
+        List<Node> started = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            started.add(new Node("node" + i));
+        }
+        for (Node node : started) {
+            List<InetSocketAddress> peers = new ArrayList<>();
+            for (Node other : started) {
+                if (other != node) {
+                    peers.add(InetSocketAddress.createUnresolved("localhost", other.bus.getPort()));
+                }
+            }
+            node.bus.start(peers);
+        }
+        nodes.addAll(started);
+        return started;
+    }
+
+    @Test
+    void testMessagesReachAllNodesInOrder() throws Exception {
+        List<Node> cluster = cluster(3);
+        Node a = cluster.get(0);
+
+        for (int i = 0; i < 500; i++) {
+            a.bus.publish(new ChatMessage("alice", "lobby", "message " + i));
+        }
+        a.bus.announce("alice joined the chat.");
+
+        for (Node other : cluster.subList(1, 3)) {
+            for (int i = 0; i < 500; i++) {
+                ChatMessage msg = other.nextRoomMessage();
+                assertNotNull(msg);
+                assertEquals("alice: message " + i, msg.getLine());
+            }
+            assertEquals("alice joined the chat.", other.broadcastQueue.poll(5, TimeUnit.SECONDS));
+        }
+        // Nothing comes back to the sender
+        assertTrue(a.rooms.getShards().get(0).isEmpty());
+        assertTrue(a.broadcastQueue.isEmpty());
+    }
+
+    @Test
+    void testRemoteNames() throws Exception {
+        List<Node> cluster = cluster(2);
+        Node a = cluster.get(0);
+        Node b = cluster.get(1);
+
+        a.bus.userJoined("Alice");
+        a.bus.userJoined("Bob");
+        a.bus.userRenamed("Bob", "Robert");
+        a.bus.userLeft("Alice");
+        a.bus.announce("done");
+        assertEquals("done", b.broadcastQueue.poll(5, TimeUnit.SECONDS));
+
+        assertTrue(b.bus.isRemoteUser("robert"));
+        assertFalse(b.bus.isRemoteUser("bob"));
+        assertFalse(b.bus.isRemoteUser("alice"));
+        assertEquals(1, b.bus.getRemoteUserCount());
+        assertFalse(a.bus.isRemoteUser("robert"));
+    }
+
+    @Test
+    void testDuplicatesDiscardedAndResumeAfterReconnect() throws Exception {
+        Node b = new Node("b");
+        nodes.add(b);
+        b.bus.start(List.of());
+
+        try (Socket socket = new Socket("localhost", b.bus.getPort())) {
+            assertEquals(0, handshake(socket, 42));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            for (long seq : new long[]{1, 2, 2, 1, 3}) {
+                ClusterBus.write(out, new ClusterBus.Event(ClusterBus.ROOM, seq, 0, "x", "lobby", "m" + seq));
+            }
+            out.flush();
+            assertEquals("x: m1", b.nextRoomMessage().getLine());
+            assertEquals("x: m2", b.nextRoomMessage().getLine());
+            assertEquals("x: m3", b.nextRoomMessage().getLine());
+        }
+
+        // Same node again: it is told where to continue, and a resent event is discarded
+        try (Socket socket = new Socket("localhost", b.bus.getPort())) {
+            assertEquals(3, handshake(socket, 42));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            ClusterBus.write(out, new ClusterBus.Event(ClusterBus.ROOM, 3, 0, "x", "lobby", "m3"));
+            ClusterBus.write(out, new ClusterBus.Event(ClusterBus.ROOM, 4, 0, "x", "lobby", "m4"));
+            out.flush();
+            assertEquals("x: m4", b.nextRoomMessage().getLine());
+            assertNull(b.rooms.getShards().get(0).poll(100, TimeUnit.MILLISECONDS));
+        }
+
+        // Restarted node (new epoch) numbers from 1 again
+        try (Socket socket = new Socket("localhost", b.bus.getPort())) {
+            assertEquals(0, handshake(socket, 43));
+        }
+    }
+
+    /**
+     * Introduces a fake node "x" with the given epoch.
+     *
+     * @return the last event number the bus has seen from it
+     */
+    private static long handshake(Socket socket, long epoch) throws Exception {
+        DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+        out.writeUTF(ClusterBus.MAGIC);
+        out.writeUTF("x");
+        out.writeLong(epoch);
+        out.flush();
+        return new DataInputStream(socket.getInputStream()).readLong();
+    }
+}
@@ -0,0 +1,67 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ClientHandler;
+import server.CommandRegistry;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Unit tests for the command dispatch table.
+ */
+class CommandRegistryTest {
+
+    @Test
+    void testFindByFirstToken() {
+        CommandRegistry commands = ClientHandler.builtInCommands();
+
+        CommandRegistry.Entry entry = commands.find("/join   dev ");
+        assertNotNull(entry);
+        assertEquals("/join", entry.name());
+        assertEquals("dev", entry.arguments("/join   dev "));
+
+        assertEquals("/who", commands.find("/WHO").name());
+        assertEquals("", commands.find("/who").arguments("/who"));
+        assertEquals("", commands.find("/who everybody").arguments("/who everybody"));
+        assertEquals("5", commands.find("/history").arguments("/history 5 "));
+    }
+
+    @Test
+    void testUnknownCommand() {
+        CommandRegistry commands = ClientHandler.builtInCommands();
+
+        assertNull(commands.find("/whoami"));
+        assertNull(commands.find("/wh"));
+        assertNull(commands.find("hello /who"));
+        assertNull(commands.find(""));
+    }
+
+    /**
+     * Registering a name again replaces the command, also in /help.
+     */
+    @Test
+    void testRegisterReplaces() {
+        CommandRegistry commands = new CommandRegistry();
+        commands.register("/ping", "/ping", "first", (client, args) -> true);
+        commands.register("/PING", "/ping", "second", (client, args) -> false);
+
+        assertEquals(1, commands.getEntries().size());
+        assertEquals("second", commands.find("/ping").description());
+    }
+
+    /**
+     * The table grows when more commands are registered than fit in it.
+     */
+    @Test
+    void testManyCommands() {
+        CommandRegistry commands = new CommandRegistry();
+        for (int i = 0; i < 100; i++) {
+            commands.register("/c" + i, "/c" + i, "command " + i, (client, args) -> true);
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals("command " + i, commands.find("/c" + i + " x").description());
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ChatServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Load test comparing platform and virtual thread mode of the chat server.
+ * Opens many idle connections and reports connection count, live threads
+ * and heap used per connection.
+ * <p>
+ * The number of connections can be changed with -Dloadtest.connections=N.
+ * Client sockets live in the same JVM, so the heap figure is an upper bound;
+ * for clean numbers run each test method in its own JVM.
+ * </p>
+ */
+class ConnectionLoadTest {
+
+    /** Number of connections opened per run. */
+    private static final int CONNECTIONS = Integer.getInteger("loadtest.connections", 2000);
+
+    @Test
+    void testPlatformThreads() throws Exception {
+        runLoad("platform");
+    }
+
+    @Test
+    void testVirtualThreads() throws Exception {
+        runLoad("virtual");
+    }
+
+    /**
+     * Starts a server in the given thread mode, connects CONNECTIONS clients
+     * and prints the measured resources.
+     */
+    private void runLoad(String threadMode) throws Exception {
+        ChatServer.PORT = freePort();
+        ChatServer.INACTIVITY_LIMIT_MS = 5 * 60 * 1000;
+        ChatServer.LOG_MAX_SIZE = 5_000_000;
+        ChatServer.TRANSPORT = "classic";
+        ChatServer.THREAD_MODE = threadMode;
+
+        Thread serverThread = new Thread(() -> new ChatServer().start(), "LoadTestServer");
+        serverThread.setDaemon(true);
+        serverThread.start();
+        waitForServer(ChatServer.PORT);
+
+        long heapBefore = usedHeap();
+        int threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        List<Socket> sockets = new ArrayList<>();
+        for (int i = 0; i < CONNECTIONS; i++) {
+            Socket socket = new Socket("127.0.0.1", ChatServer.PORT);
+            new PrintWriter(socket.getOutputStream(), true).println("load-" + i);
+            sockets.add(socket);
+        }
+
+        // Ask the last client how many users the server sees
+        Socket probe = sockets.get(sockets.size() - 1);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(probe.getInputStream()));
+        PrintWriter writer = new PrintWriter(probe.getOutputStream(), true);
+        String online = null;
+        long deadline = System.currentTimeMillis() + 30_000;
+        while (System.currentTimeMillis() < deadline) {
+            writer.println("/who");
+            String line;
+            while ((line = reader.readLine()) != null && !line.startsWith("Users online: ")) {
+                // skip join broadcasts
+            }
+            online = line;
+            if (("Users online: " + CONNECTIONS).equals(online)) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+
+        long heapAfter = usedHeap();
+        int threadsAfter = ManagementFactory.getThreadMXBean().getThreadCount();
+
+        System.out.printf("%s threads: %d connections, %d live threads (+%d), %d bytes heap per connection%n",
+                threadMode, CONNECTIONS, threadsAfter, threadsAfter - threadsBefore,
+                (heapAfter - heapBefore) / CONNECTIONS);
+
+        assertEquals("Users online: " + CONNECTIONS, online);
+
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+        // Let the handlers exit so the next run starts from a clean heap
+        Thread.sleep(1000);
+    }
+
+    /**
+     * Returns used heap after a GC.
+     */
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Finds a currently unused local port.
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Waits until the server accepts connections.
+     */
+    private static void waitForServer(int port) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            try {
+                new Socket("127.0.0.1", port).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(50);
+            }
+        }
+    }
+}
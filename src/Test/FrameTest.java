@@ -0,0 +1,101 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ChatServer;
+import server.EncodedMessage;
+import server.Frame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the binary frame protocol.
+ */
+class FrameTest {
+
+    @Test
+    void testFrameLayout() {
+        ByteBuffer frame = Frame.encode(Frame.SESSION, "tökén").buffer();
+
+        assertEquals(Frame.SESSION, frame.get());
+        assertEquals(0, frame.get());
+        assertTrue(frame.getInt() > 0);
+        int length = frame.getInt();
+        assertEquals(frame.remaining(), length);
+
+        byte[] payload = new byte[length];
+        frame.get(payload);
+        assertEquals("tökén", new String(payload, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A line is converted to a frame once, without its line terminator.
+     */
+    @Test
+    void testLineAsFrame() {
+        EncodedMessage line = EncodedMessage.of("alice: hi");
+        EncodedMessage frame = line.asFrame();
+
+        assertSame(frame, line.asFrame());
+        assertSame(frame, frame.asFrame());
+        assertEquals(Frame.HEADER_SIZE + "alice: hi".length(), frame.length());
+        assertEquals(Frame.TEXT, frame.buffer().get(0));
+        assertEquals("alice: hi", line.toString());
+        assertEquals("alice: hi", frame.toString());
+    }
+
+    @Test
+    void testTextFormOfControlFrames() {
+        assertEquals("/ping", Frame.toLine(Frame.PING, null));
+        assertEquals("/disconnect", Frame.toLine(Frame.DISCONNECT, null));
+        assertEquals("/session abc", Frame.toLine(Frame.SESSION, "abc"));
+    }
+
+    /**
+     * A long line is compressed once and keeps the sequence number of the plain frame;
+     * a short one is sent as it is.
+     */
+    @Test
+    void testCompressedFrame() {
+        int threshold = ChatServer.COMPRESSION_THRESHOLD;
+        ChatServer.COMPRESSION_THRESHOLD = 64;
+        try {
+            String text = "alice: " + "the quick brown fox jumps over the lazy dog, ".repeat(20);
+            EncodedMessage line = EncodedMessage.of(text);
+            EncodedMessage compressed = line.asCompressedFrame();
+
+            assertSame(compressed, line.asCompressedFrame());
+            ByteBuffer frame = compressed.buffer();
+            assertEquals(Frame.TEXT, frame.get());
+            assertEquals(Frame.COMPRESSED, frame.get());
+            assertEquals(line.asFrame().buffer().getInt(2), frame.getInt());
+            int length = frame.getInt();
+            assertTrue(length < text.length() / 4, "compressed to " + length);
+            byte[] payload = new byte[length];
+            frame.get(payload);
+            assertEquals(text, Frame.inflate(payload, 0, length));
+            assertEquals(text, compressed.toString());
+
+            EncodedMessage shortLine = EncodedMessage.of("bob: hi");
+            assertSame(shortLine.asFrame(), shortLine.asCompressedFrame());
+        } finally {
+            ChatServer.COMPRESSION_THRESHOLD = threshold;
+        }
+    }
+
+    @Test
+    void testInvalidCompressedPayload() {
+        byte[] payload = "žluťoučký kůň ".repeat(100).getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = Frame.deflate(payload, 0, payload.length);
+
+        assertEquals("žluťoučký kůň ".repeat(100), Frame.inflate(compressed, 0, compressed.length));
+        assertNull(Frame.inflate(compressed, 0, compressed.length / 2));
+        assertNull(Frame.inflate(new byte[]{1, 2, 3, 4, 5}, 0, 5));
+        assertNull(Frame.deflate(new byte[]{1, 2, 3}, 0, 3));
+    }
+}
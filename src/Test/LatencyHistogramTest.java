@@ -0,0 +1,83 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.LatencyHistogram;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the LatencyHistogram class.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000L * 1001 / 2 * 1000, histogram.getSum());
+        assertEquals(1_000_000, histogram.getMax());
+        assertWithin(500_000, histogram.getPercentile(0.5));
+        assertWithin(990_000, histogram.getPercentile(0.99));
+        assertEquals(1_000_000, histogram.getPercentile(1.0));
+    }
+
+    /**
+     * Small values are exact, large ones within the bucket width.
+     */
+    @Test
+    void testPrecision() {
+        for (long value : new long[]{0, 1, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE / 3}) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(value);
+            histogram.record(Long.MAX_VALUE);
+            long reported = histogram.getPercentile(0.5);
+            if (value < 32) {
+                assertEquals(value, reported);
+            } else {
+                assertWithin(value, reported);
+            }
+        }
+    }
+
+    @Test
+    void testEmptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(0.99));
+
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(0.99));
+    }
+
+    @Test
+    void testConcurrentRecording() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100_000; j++) {
+                    histogram.record(j);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        assertEquals(400_000, histogram.getCount());
+        assertEquals(99_999, histogram.getMax());
+    }
+
+    /**
+     * Asserts that a reported value is not below the expected one and at most 1/16 above it.
+     */
+    private static void assertWithin(long expected, long reported) {
+        assertTrue(reported >= expected && reported <= expected + expected / 16,
+                "expected about " + expected + " but was " + reported);
+    }
+}
@@ -1,10 +1,12 @@
 package Test;
 
 import org.junit.jupiter.api.Test;
+import server.ChatMessage;
 import server.LoggerWorker;
 
 import java.io.File;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -20,7 +22,7 @@ class LoggerWorkerTest {
      */
     @Test
     void testLogging() throws Exception {
-        LinkedBlockingQueue<String> logQueue = new LinkedBlockingQueue<>();
+        LinkedBlockingQueue<ChatMessage> logQueue = new LinkedBlockingQueue<>();
         LoggerWorker logger = new LoggerWorker(logQueue);
 
         // Start the LoggerWorker in a daemon thread
@@ -29,7 +31,9 @@ class LoggerWorkerTest {
         thread.start();
 
         String msg = "Test log message";
-        logQueue.put(msg);
+        logQueue.put(ChatMessage.event(null, msg));
+        // stamped with the time it was created, not the time it is written
+        logQueue.put(new ChatMessage(1_000_000_000_000L, null, null, "Queued long ago"));
 
         // Wait briefly for the logger to write the message
         Thread.sleep(100);
@@ -38,5 +42,32 @@ class LoggerWorkerTest {
         File logFile = new File("logs/chat.log");
         String content = new String(Files.readAllBytes(logFile.toPath()));
         assertTrue(content.contains(msg));
+        assertTrue(content.matches("(?s).*\\[2001-09-0\\d [0-9:]{8}] Queued long ago.*"), content);
+    }
+
+    /**
+     * Tests that the log is rotated into a compressed segment once it exceeds the maximum size.
+     */
+    @Test
+    void testRotation() throws Exception {
+        Path dir = Files.createTempDirectory("chat-log");
+        Path logFile = dir.resolve("chat.log");
+
+        LinkedBlockingQueue<ChatMessage> logQueue = new LinkedBlockingQueue<>();
+        LoggerWorker logger = new LoggerWorker(logQueue, logFile, 1000);
+
+        Thread thread = new Thread(logger);
+        thread.setDaemon(true);
+        thread.start();
+
+        for (int i = 0; i < 50; i++) {
+            logQueue.put(ChatMessage.event(null, "Rotated log message number " + i));
+        }
+
+        // Wait briefly for the logger to write and rotate
+        Thread.sleep(300);
+
+        assertTrue(Files.exists(dir.resolve("chat.log.1.gz")));
+        assertTrue(Files.size(logFile) <= 1000);
     }
 }
@@ -0,0 +1,77 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ChatMessage;
+import server.MessageHistory;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the MessageHistory class.
+ */
+class MessageHistoryTest {
+
+    @Test
+    void testKeepsMostRecentMessages() {
+        MessageHistory history = new MessageHistory(3);
+        for (int i = 1; i <= 5; i++) {
+            history.add(new ChatMessage("alice", "lobby", "m" + i));
+        }
+
+        List<ChatMessage> all = history.recent(10);
+        assertEquals(3, all.size());
+        assertEquals("m3", all.get(0).getText());
+        assertEquals("m5", all.get(2).getText());
+
+        List<ChatMessage> last = history.recent(2);
+        assertEquals(2, last.size());
+        assertEquals("m4", last.get(0).getText());
+    }
+
+    @Test
+    void testZeroCapacityKeepsNothing() {
+        MessageHistory history = new MessageHistory(0);
+        history.add(new ChatMessage("alice", "lobby", "hi"));
+
+        assertTrue(history.recent(10).isEmpty());
+    }
+
+    /**
+     * Readers running next to the writer must always see messages in order.
+     */
+    @Test
+    void testConcurrentReadersSeeOrderedMessages() throws Exception {
+        MessageHistory history = new MessageHistory(64);
+        AtomicReference<String> error = new AtomicReference<>();
+
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 200_000; i++) {
+                history.add(new ChatMessage("alice", "lobby", Integer.toString(i)));
+            }
+        });
+        Thread reader = new Thread(() -> {
+            while (writer.isAlive()) {
+                int previous = -1;
+                for (ChatMessage msg : history.recent(64)) {
+                    int value = Integer.parseInt(msg.getText());
+                    if (value <= previous) {
+                        error.set(value + " after " + previous);
+                    }
+                    previous = value;
+                }
+            }
+        });
+        writer.start();
+        reader.start();
+        writer.join();
+        reader.join();
+
+        assertNull(error.get());
+        assertEquals("199999", history.recent(1).get(0).getText());
+    }
+}
@@ -0,0 +1,79 @@
+package Test;
+
+import client.MessageListModel;
+import org.junit.jupiter.api.Test;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the MessageListModel class.
+ */
+class MessageListModelTest {
+
+    @Test
+    void testOneEventPerBatch() {
+        try (MessageListModel model = new MessageListModel(1000)) {
+            List<ListDataEvent> events = new ArrayList<>();
+            model.addListDataListener(new ListDataListener() {
+                @Override
+                public void intervalAdded(ListDataEvent e) {
+                    events.add(e);
+                }
+
+                @Override
+                public void intervalRemoved(ListDataEvent e) {
+                    events.add(e);
+                }
+
+                @Override
+                public void contentsChanged(ListDataEvent e) {
+                    events.add(e);
+                }
+            });
+
+            model.addAll(List.of("a", "b", "c"));
+            model.addAll(List.of());
+            model.addAll(List.of("d"));
+
+            assertEquals(2, events.size());
+            assertEquals(ListDataEvent.INTERVAL_ADDED, events.get(0).getType());
+            assertEquals(0, events.get(0).getIndex0());
+            assertEquals(2, events.get(0).getIndex1());
+            assertEquals(3, events.get(1).getIndex0());
+            assertEquals(4, model.getSize());
+            assertEquals("d", model.getElementAt(3));
+        }
+    }
+
+    @Test
+    void testOldLinesPagedOutAndReadBack() {
+        try (MessageListModel model = new MessageListModel(1000)) {
+            int total = 20_000;
+            List<String> batch = new ArrayList<>();
+            for (int i = 0; i < total; i++) {
+                batch.add("line " + i + " žluťoučký kůň");
+                if (batch.size() == 97) {
+                    model.addAll(batch);
+                    batch.clear();
+                }
+            }
+            model.addAll(batch);
+
+            assertEquals(total, model.getSize());
+            assertTrue(model.getInMemoryCount() <= 1000);
+            for (int i : new int[]{0, 1, 255, 256, 9_999, total - 1001, total - 1000, total - 1}) {
+                assertEquals("line " + i + " žluťoučký kůň", model.getElementAt(i));
+            }
+            // Scrolling through everything from the top
+            for (int i = 0; i < total; i++) {
+                assertEquals("line " + i + " žluťoučký kůň", model.getElementAt(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ChatMessage;
+import server.MessageStore;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the MessageStore class.
+ */
+class MessageStoreTest {
+
+    private static ChatMessage message(long timestamp, String sender, String text) {
+        return new ChatMessage(timestamp, sender, "lobby", text);
+    }
+
+    @Test
+    void testQueriesBySeqTimeAndSender() throws Exception {
+        Path dir = Files.createTempDirectory("chat-store");
+        try (MessageStore store = new MessageStore(dir, 1 << 20)) {
+            for (int i = 0; i < 1000; i++) {
+                store.append(message(1000 + i, i % 2 == 0 ? "alice" : "bob", "m" + i));
+            }
+            assertNull(store.get(0));
+            store.commit();
+
+            assertEquals("m0", store.get(0).message().getText());
+            assertEquals("m777", store.get(777).message().getText());
+            assertEquals(1777, store.get(777).message().getTimestamp());
+            assertNull(store.get(1000));
+
+            List<MessageStore.StoredMessage> range = store.findByTime(1500, 1509, 100);
+            assertEquals(10, range.size());
+            assertEquals(500, range.get(0).seq());
+
+            List<MessageStore.StoredMessage> bob = store.findBySender("BOB", 1500, 1509, 3);
+            assertEquals(3, bob.size());
+            assertEquals("m501", bob.get(0).message().getText());
+            assertEquals("bob", bob.get(0).message().getSender());
+        }
+    }
+
+    @Test
+    void testRollsSegmentsAndReopens() throws Exception {
+        Path dir = Files.createTempDirectory("chat-store");
+        try (MessageStore store = new MessageStore(dir, 4096)) {
+            for (int i = 0; i < 500; i++) {
+                store.append(message(i, "alice", "message number " + i));
+            }
+            store.commit();
+            assertTrue(store.getSegmentCount() > 1);
+        }
+
+        try (MessageStore store = new MessageStore(dir, 4096)) {
+            assertEquals(500, store.getNextSeq());
+            assertEquals("message number 321", store.get(321).message().getText());
+            assertEquals(500, store.findByTime(0, 1000, 1000).size());
+
+            store.append(message(1000, "alice", "after reopen"));
+            store.commit();
+            assertEquals("after reopen", store.get(500).message().getText());
+        }
+    }
+
+    @Test
+    void testRefusesTooLongSender() throws Exception {
+        Path dir = Files.createTempDirectory("chat-store");
+        try (MessageStore store = new MessageStore(dir, 1 << 20)) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> store.append(message(1, "x".repeat(40_000), "too long")));
+
+            store.append(message(2, "alice", "fine"));
+            store.commit();
+            assertEquals(1, store.getNextSeq());
+            assertEquals("fine", store.get(0).message().getText());
+        }
+    }
+
+    @Test
+    void testDeletesOldestSegments() throws Exception {
+        Path dir = Files.createTempDirectory("chat-store");
+        try (MessageStore store = new MessageStore(dir, 4096, 3)) {
+            for (int i = 0; i < 500; i++) {
+                store.append(message(i, "alice", "message number " + i));
+            }
+            store.commit();
+
+            assertEquals(3, store.getSegmentCount());
+            try (var files = Files.list(dir)) {
+                assertEquals(6, files.count());   // data and index file per segment
+            }
+            assertNull(store.get(0));
+            assertEquals("message number 499", store.get(499).message().getText());
+        }
+    }
+
+    /**
+     * A record cut off by a crash is dropped when the store is opened.
+     */
+    @Test
+    void testTruncatesPartialRecord() throws Exception {
+        Path dir = Files.createTempDirectory("chat-store");
+        try (MessageStore store = new MessageStore(dir, 1 << 20)) {
+            for (int i = 0; i < 40; i++) {
+                store.append(message(i, "alice", "m" + i));
+            }
+        }
+        Path segment = dir.resolve(String.format("%020d.dat", 0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        try (MessageStore store = new MessageStore(dir, 1 << 20)) {
+            assertEquals(39, store.getNextSeq());
+            assertEquals("m38", store.get(38).message().getText());
+            assertNull(store.get(39));
+        }
+    }
+
+    /**
+     * Queries running while the logger appends see every committed record,
+     * also while the index grows and segments are rolled over.
+     */
+    @Test
+    void testConcurrentAppendAndFind() throws Exception {
+        Path dir = Files.createTempDirectory("chat-store");
+        try (MessageStore store = new MessageStore(dir, 256 * 1024)) {
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 20_000; i++) {
+                        store.append(message(i, "alice", "m" + i));
+                        if (i % 7 == 0) {
+                            store.commit();
+                        }
+                    }
+                    store.commit();
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            }, "StoreWriter");
+            writer.start();
+
+            while (writer.isAlive()) {
+                long last = store.getNextSeq() - 1;
+                if (last < 0) {
+                    continue;
+                }
+                assertEquals("m" + last, store.get(last).message().getText());
+                List<MessageStore.StoredMessage> found = store.findByTime(last, last, 1);
+                assertEquals(1, found.size());
+                assertEquals(last, found.get(0).seq());
+            }
+            assertNull(failure.get());
+            assertEquals(20_000, store.getNextSeq());
+            assertTrue(store.getSegmentCount() > 1);
+        }
+    }
+}
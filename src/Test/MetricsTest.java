@@ -0,0 +1,48 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.Metrics;
+import server.MetricsHttpEndpoint;
+import server.MetricsMBean;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the metrics registry and its exports.
+ */
+class MetricsTest {
+
+    @Test
+    void testRegistryAndText() {
+        Metrics.counter("test_events_total", "Test events").add(3);
+        assertSame(Metrics.counter("test_events_total", "Test events"), Metrics.counter("test_events_total", "x"));
+        Metrics.gauge("test_depth", "Test depth", () -> 7);
+        Metrics.histogram("test_latency_ns", "Test latency").record(100);
+
+        String text = MetricsHttpEndpoint.render();
+
+        assertTrue(text.contains("# TYPE test_events_total counter\ntest_events_total 3\n"), text);
+        assertTrue(text.contains("# HELP test_depth Test depth\n# TYPE test_depth gauge\ntest_depth 7\n"), text);
+        assertTrue(text.contains("test_latency_ns{quantile=\"0.99\"} 100\n"), text);
+        assertTrue(text.contains("test_latency_ns_count 1\n"), text);
+    }
+
+    @Test
+    void testMBean() throws Exception {
+        Metrics.gauge("test_mbean_gauge", "Test gauge", () -> 42);
+        Metrics.histogram("test_mbean_ns", "Test latency").record(5);
+        MetricsMBean.register();
+
+        MBeanServer mbeans = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(MetricsMBean.OBJECT_NAME);
+        assertEquals(42L, mbeans.getAttribute(name, "test_mbean_gauge"));
+        assertEquals(1L, mbeans.getAttribute(name, "test_mbean_ns_count"));
+        assertEquals(5L, mbeans.getAttribute(name, "test_mbean_ns_p99"));
+    }
+}
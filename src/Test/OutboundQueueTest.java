@@ -0,0 +1,63 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.OutboundQueue;
+import server.OutboundQueue.OverflowPolicy;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the overflow policies of OutboundQueue.
+ */
+class OutboundQueueTest {
+
+    @Test
+    void testDropOldest() throws InterruptedException {
+        OutboundQueue<String> queue = new OutboundQueue<>(2, OverflowPolicy.DROP_OLDEST);
+
+        assertTrue(queue.offer("a"));
+        assertTrue(queue.offer("b"));
+        assertTrue(queue.offer("c"));
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("b", queue.take());
+        assertEquals("c", queue.take());
+    }
+
+    @Test
+    void testDropNewest() throws InterruptedException {
+        OutboundQueue<String> queue = new OutboundQueue<>(2, OverflowPolicy.DROP_NEWEST);
+
+        queue.offer("a");
+        queue.offer("b");
+        assertTrue(queue.offer("c"));
+
+        assertEquals(1, queue.getDroppedCount());
+        assertEquals("a", queue.take());
+        assertEquals("b", queue.take());
+    }
+
+    @Test
+    void testDisconnect() {
+        OutboundQueue<String> queue = new OutboundQueue<>(1, OverflowPolicy.DISCONNECT);
+
+        assertTrue(queue.offer("a"));
+        assertFalse(queue.offer("b"));
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    void testCloseDrainsRemaining() throws InterruptedException {
+        OutboundQueue<String> queue = new OutboundQueue<>(4, OverflowPolicy.DROP_OLDEST);
+
+        queue.offer("a");
+        queue.close();
+        queue.offer("b");
+
+        assertEquals("a", queue.take());
+        assertNull(queue.take());
+    }
+}
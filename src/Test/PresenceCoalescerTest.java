@@ -0,0 +1,170 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ChatMessage;
+import server.ChatServer;
+import server.PresenceCoalescer;
+import server.TimeoutWatcher;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Joins and leaves beyond the threshold of a window are announced as one
+ * summary line instead of one line each.
+ */
+class PresenceCoalescerTest {
+
+    /** Number of users joining and leaving at once. */
+    private static final int USERS = 10;
+
+    @Test
+    void testBurstsAreSummarized() throws Exception {
+        Path logFile = Files.createTempFile("chat-presence", ".log");
+        int portBefore = ChatServer.PORT;
+        long inactivityBefore = ChatServer.INACTIVITY_LIMIT_MS;
+        long logMaxSizeBefore = ChatServer.LOG_MAX_SIZE;
+        String logFileBefore = ChatServer.LOG_FILE;
+        String transportBefore = ChatServer.TRANSPORT;
+        String threadModeBefore = ChatServer.THREAD_MODE;
+        long windowBefore = ChatServer.PRESENCE_WINDOW_MS;
+        int thresholdBefore = ChatServer.PRESENCE_THRESHOLD;
+        ChatServer.PORT = freePort();
+        ChatServer.INACTIVITY_LIMIT_MS = 5 * 60 * 1000;
+        ChatServer.LOG_MAX_SIZE = 5_000_000;
+        ChatServer.LOG_FILE = logFile.toString();
+        ChatServer.TRANSPORT = "classic";
+        ChatServer.THREAD_MODE = "platform";
+        ChatServer.PRESENCE_WINDOW_MS = 3000;
+        ChatServer.PRESENCE_THRESHOLD = 2;
+        ChatServer server = new ChatServer();
+        try {
+            Thread serverThread = new Thread(server::start, "PresenceTestServer");
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            try (Socket observer = connect()) {
+                BufferedReader observerIn = reader(observer);
+                writer(observer).println("observer");
+                assertEquals("observer joined the chat.", skipUntil(observerIn, "observer joined"));
+
+                // The first two joins of the window are announced on their own, the rest is held back
+                List<Socket> users = new ArrayList<>();
+                for (int i = 0; i < USERS; i++) {
+                    Socket user = connect();
+                    users.add(user);
+                    writer(user).println("u" + i);
+                    // every user sees its own join right away, even when it is held back
+                    assertEquals("u" + i + " joined the chat.", skipUntil(reader(user), "u" + i + " joined"));
+                }
+                assertEquals("u0 joined the chat.", observerIn.readLine());
+                assertEquals("9 users joined the chat: u1, u2, u3, u4, u5 and 4 more.", observerIn.readLine());
+
+                // While the burst goes on, the next window is summarized as a whole
+                for (Socket user : users) {
+                    user.close();
+                }
+                String line = observerIn.readLine();
+                assertTrue(line.startsWith(USERS + " users left the chat: "), line);
+                assertTrue(line.endsWith(" and 5 more."), line);
+            }
+        } finally {
+            server.shutdown();
+            ChatServer.PRESENCE_WINDOW_MS = windowBefore;
+            ChatServer.PRESENCE_THRESHOLD = thresholdBefore;
+            ChatServer.PORT = portBefore;
+            ChatServer.INACTIVITY_LIMIT_MS = inactivityBefore;
+            ChatServer.LOG_MAX_SIZE = logMaxSizeBefore;
+            ChatServer.LOG_FILE = logFileBefore;
+            ChatServer.TRANSPORT = transportBefore;
+            ChatServer.THREAD_MODE = threadModeBefore;
+            Files.deleteIfExists(logFile);
+        }
+    }
+
+    @Test
+    void testHeldBackEventsCollapseToTheirNetEffect() throws Exception {
+        TimeoutWatcher watcher = new TimeoutWatcher(new LinkedBlockingQueue<ChatMessage>());
+        Thread watcherThread = new Thread(watcher, "TestTimeoutWatcher");
+        watcherThread.setDaemon(true);
+        watcherThread.start();
+        try {
+            LinkedBlockingQueue<String> broadcastQueue = new LinkedBlockingQueue<>();
+            PresenceCoalescer presence = new PresenceCoalescer(watcher, null, broadcastQueue, 50, 0);
+
+            // a rename and its reverse cancel out, a join and a rename are a join under the final name
+            assertTrue(presence.holdRenamed("a", "b"));
+            assertTrue(presence.holdRenamed("b", "a"));
+            assertTrue(presence.holdJoined("c"));
+            assertTrue(presence.holdRenamed("c", "d"));
+            assertTrue(presence.holdLeft("e"));
+            assertTrue(presence.holdRenamed("f", "g"));
+            assertTrue(presence.holdJoined("h"));
+
+            assertEquals("2 users joined the chat: d, h.", broadcastQueue.poll(5, TimeUnit.SECONDS));
+            assertEquals("1 user left the chat: e.", broadcastQueue.poll(5, TimeUnit.SECONDS));
+            assertEquals("1 user changed their names: f to g.", broadcastQueue.poll(5, TimeUnit.SECONDS));
+            assertNull(broadcastQueue.poll(200, TimeUnit.MILLISECONDS));
+        } finally {
+            watcherThread.interrupt();
+        }
+    }
+
+    /**
+     * Connects to the server, waiting until it accepts connections.
+     */
+    private Socket connect() throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new Socket("127.0.0.1", ChatServer.PORT);
+            } catch (ConnectException e) {
+                if (i == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static String skipUntil(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && !line.startsWith(prefix)) {
+            // skip
+        }
+        return line;
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        socket.setSoTimeout(10_000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds a currently unused local port.
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.RateLimiter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the RateLimiter class. Time is passed in explicitly.
+ */
+class RateLimiterTest {
+
+    private static final long MS = 1_000_000;
+
+    @Test
+    void testBurstThenRate() {
+        RateLimiter limiter = new RateLimiter(10, 3);   // one token per 100 ms
+        long now = 1_000 * MS;
+
+        assertEquals(0, limiter.tryAcquire(now));
+        assertEquals(0, limiter.tryAcquire(now));
+        assertEquals(0, limiter.tryAcquire(now));
+        assertEquals(100 * MS, limiter.tryAcquire(now));
+        assertEquals(1, limiter.getThrottledCount());
+
+        assertEquals(50 * MS, limiter.tryAcquire(now + 50 * MS));
+        assertEquals(0, limiter.tryAcquire(now + 100 * MS));
+        assertEquals(100 * MS, limiter.tryAcquire(now + 100 * MS));
+    }
+
+    /**
+     * A full bucket holds only the burst, however long the limiter was idle.
+     */
+    @Test
+    void testIdleDoesNotAccumulate() {
+        RateLimiter limiter = new RateLimiter(10, 2);
+        long now = 60_000 * MS;
+
+        assertEquals(0, limiter.tryAcquire(now));
+        assertEquals(0, limiter.tryAcquire(now));
+        assertTrue(limiter.tryAcquire(now) > 0);
+    }
+
+    /**
+     * Reserving always takes the token and tells how long to wait for it.
+     */
+    @Test
+    void testReserve() {
+        RateLimiter limiter = new RateLimiter(10, 1);
+        long now = 1_000 * MS;
+
+        assertEquals(0, limiter.reserve(now));
+        assertEquals(100 * MS, limiter.reserve(now));
+        assertEquals(200 * MS, limiter.reserve(now));
+        assertEquals(200 * MS, limiter.tryAcquire(now + 100 * MS));
+        assertEquals(0, limiter.tryAcquire(now + 300 * MS));
+    }
+
+    /**
+     * Concurrent callers never get more tokens than the burst.
+     */
+    @Test
+    void testConcurrentCallers() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(1, 1000);
+        long now = System.nanoTime();
+        AtomicInteger granted = new AtomicInteger();
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    if (limiter.tryAcquire(now) == 0) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+
+        assertEquals(1000, granted.get());
+        assertEquals(80_000 - 1000, limiter.getThrottledCount());
+    }
+}
@@ -0,0 +1,126 @@
+package Test;
+
+import client.ReconnectingConnection;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the ReconnectingConnection class.
+ */
+class ReconnectingConnectionTest {
+
+    @Test
+    void testBackoffGrowsUpToMaximum() {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            long ceiling = Math.min(1000, 50L << Math.min(attempt, 30));
+            for (int i = 0; i < 100; i++) {
+                long delay = ReconnectingConnection.backoff(attempt, 50, 1000);
+                assertTrue(delay >= 0 && delay <= ceiling, "attempt " + attempt + ": " + delay);
+            }
+        }
+        assertEquals(List.of(InetSocketAddress.createUnresolved("a", 1), InetSocketAddress.createUnresolved("b", 2)),
+                ReconnectingConnection.parseServers(" a:1, b:2 ,"));
+    }
+
+    @Test
+    void testFailoverResumesAndFlushesOfflineMessages() throws Exception {
+        LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>();
+        // The first server is closed halfway through, so it is not a resource of the try block
+        ServerSocket first = new ServerSocket(0);
+        try (ServerSocket second = new ServerSocket(0)) {
+            List<InetSocketAddress> servers = List.of(
+                    InetSocketAddress.createUnresolved("localhost", first.getLocalPort()),
+                    InetSocketAddress.createUnresolved("localhost", second.getLocalPort()));
+            ReconnectingConnection connection = new ReconnectingConnection(servers, "alice", 20, 100, 3, 0,
+                    new ReconnectingConnection.Listener() {
+                        @Override
+                        public void onLine(String line) {
+                            events.add(line);
+                        }
+
+                        @Override
+                        public void onStatus(String status) {
+                            events.add("* " + status);
+                        }
+
+                        @Override
+                        public void onClosed() {
+                            events.add("closed");
+                        }
+                    });
+            connection.start();
+
+            try (Socket socket = first.accept()) {
+                BufferedReader in = reader(socket);
+                PrintWriter out = writer(socket);
+                assertEquals("/session", in.readLine());
+                assertEquals("alice", in.readLine());
+                out.println("/session token1");
+                out.println("alice joined the chat.");
+                assertEquals("alice joined the chat.", next(events, "alice"));
+                connection.send("hello");
+                assertEquals("hello", in.readLine());
+            }
+            first.close();
+            next(events, "* Connection lost");
+
+            for (int i = 1; i <= 5; i++) {
+                connection.send("m" + i);
+            }
+            assertEquals(3, connection.getOutboxSize());
+
+            // The first server is gone: the client moves on to the second one and resumes
+            try (Socket socket = second.accept()) {
+                BufferedReader in = reader(socket);
+                PrintWriter out = writer(socket);
+                assertEquals("/session", in.readLine());
+                assertEquals("/resume token1", in.readLine());
+                out.println("SERVER: Welcome back, alice. 0 missed messages follow.");
+                assertEquals("m3", in.readLine());
+                assertEquals("m4", in.readLine());
+                assertEquals("m5", in.readLine());
+                next(events, "* 2 messages typed while offline were dropped");
+                assertTrue(connection.isOnline());
+
+                out.println("/disconnect");
+                assertEquals("closed", next(events, "closed"));
+            }
+        } finally {
+            first.close();
+        }
+    }
+
+    private static BufferedReader reader(Socket socket) throws Exception {
+        socket.setSoTimeout(5000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static PrintWriter writer(Socket socket) throws Exception {
+        return new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Waits for the next event starting with the prefix, skipping others.
+     */
+    private static String next(LinkedBlockingQueue<String> events, String prefix) throws InterruptedException {
+        while (true) {
+            String event = events.poll(5, TimeUnit.SECONDS);
+            if (event == null || event.startsWith(prefix)) {
+                return event;
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ChatMessage;
+import server.ChatServer;
+import server.ClientHandler;
+import server.ClientRegistry;
+import server.Room;
+import server.RoomRegistry;
+
+import java.util.concurrent.LinkedBlockingQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the RoomRegistry class.
+ */
+class RoomRegistryTest {
+
+    private ClientHandler newClient() {
+        return new ClientHandler(null, new ChatServer(), new ClientRegistry(),
+                new LinkedBlockingQueue<>(), new LinkedBlockingQueue<>());
+    }
+
+    @Test
+    void testEmptyRoomIsRemoved() {
+        RoomRegistry rooms = new RoomRegistry(2);
+        ClientHandler client = newClient();
+
+        Room dev = rooms.join("Dev", client);
+        assertEquals("dev", dev.getName());
+        assertEquals(1, rooms.get("dev").size());
+
+        rooms.leave(dev, client);
+        assertNull(rooms.get("dev"));
+    }
+
+    @Test
+    void testDefaultRoomIsKept() {
+        RoomRegistry rooms = new RoomRegistry(2);
+        ClientHandler client = newClient();
+
+        Room lobby = rooms.join(RoomRegistry.DEFAULT_ROOM, client);
+        rooms.leave(lobby, client);
+
+        assertNotNull(rooms.get(RoomRegistry.DEFAULT_ROOM));
+    }
+
+    @Test
+    void testOfferRefusesWhenShardIsFull() {
+        RoomRegistry rooms = new RoomRegistry(1, 2);
+
+        assertTrue(rooms.offer(new ChatMessage("alice", "lobby", "one")));
+        assertTrue(rooms.offer(new ChatMessage("alice", "lobby", "two")));
+        assertFalse(rooms.offer(new ChatMessage("alice", "lobby", "three")));
+        assertEquals(2, rooms.getShards().get(0).size());
+    }
+}
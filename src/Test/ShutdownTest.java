@@ -0,0 +1,153 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.ChatServer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Graceful shutdown of a running server: every message accepted before the
+ * shutdown is delivered and logged, then the clients are told and disconnected.
+ */
+class ShutdownTest {
+
+    /** Number of messages sent right before the shutdown. */
+    private static final int MESSAGES = 500;
+
+    @Test
+    void testClassicTransport() throws Exception {
+        runShutdown("classic");
+    }
+
+    @Test
+    void testNioTransport() throws Exception {
+        runShutdown("nio");
+    }
+
+    private void runShutdown(String transport) throws Exception {
+        Path logFile = Files.createTempFile("chat-shutdown", ".log");
+        int portBefore = ChatServer.PORT;
+        long inactivityBefore = ChatServer.INACTIVITY_LIMIT_MS;
+        long logMaxSizeBefore = ChatServer.LOG_MAX_SIZE;
+        String logFileBefore = ChatServer.LOG_FILE;
+        String transportBefore = ChatServer.TRANSPORT;
+        String threadModeBefore = ChatServer.THREAD_MODE;
+        ChatServer.PORT = freePort();
+        ChatServer.INACTIVITY_LIMIT_MS = 5 * 60 * 1000;
+        ChatServer.LOG_MAX_SIZE = 5_000_000;
+        ChatServer.LOG_FILE = logFile.toString();
+        ChatServer.TRANSPORT = transport;
+        ChatServer.THREAD_MODE = "platform";
+        try {
+            ChatServer server = new ChatServer();
+            Thread serverThread = new Thread(server::start, "ShutdownTestServer");
+            serverThread.setDaemon(true);
+            serverThread.start();
+
+            try (Socket alice = connect(); Socket bob = connect()) {
+                BufferedReader aliceIn = reader(alice);
+                BufferedReader bobIn = reader(bob);
+                PrintWriter aliceOut = writer(alice);
+                writer(bob).println("bob");
+                skipUntil(bobIn, "bob joined the chat.");
+                aliceOut.println("alice");
+                skipUntil(aliceIn, "alice joined the chat.");
+
+                for (int i = 0; i < MESSAGES; i++) {
+                    aliceOut.println("m" + i);
+                }
+                // Once the reply arrives, every message before it was accepted
+                aliceOut.println("/who");
+                skipUntil(aliceIn, "Users online: ");
+
+                server.shutdown();
+
+                List<String> received = new ArrayList<>();
+                String line;
+                while ((line = bobIn.readLine()) != null) {
+                    if (line.startsWith("alice: ")) {
+                        received.add(line);
+                    } else if (!line.equals("alice joined the chat.")) {
+                        assertEquals("SERVER: Server is shutting down.", line);
+                    }
+                }
+                assertEquals(MESSAGES, received.size());
+                assertEquals("alice: m" + (MESSAGES - 1), received.get(MESSAGES - 1));
+                assertEquals(-1, bob.getInputStream().read());
+            }
+
+            assertThrows(ConnectException.class, () -> new Socket("127.0.0.1", ChatServer.PORT));
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                assertFalse(thread.getName().startsWith("NioReactor-") && thread.isAlive(), thread.getName());
+            }
+            String log = Files.readString(logFile, StandardCharsets.UTF_8);
+            assertTrue(log.contains("alice: m" + (MESSAGES - 1)));
+            assertTrue(log.contains("alice disconnected (server shutdown)."));
+        } finally {
+            ChatServer.PORT = portBefore;
+            ChatServer.INACTIVITY_LIMIT_MS = inactivityBefore;
+            ChatServer.LOG_MAX_SIZE = logMaxSizeBefore;
+            ChatServer.LOG_FILE = logFileBefore;
+            ChatServer.TRANSPORT = transportBefore;
+            ChatServer.THREAD_MODE = threadModeBefore;
+            Files.deleteIfExists(logFile);
+        }
+    }
+
+    /**
+     * Connects to the server, waiting until it accepts connections.
+     */
+    private Socket connect() throws Exception {
+        for (int i = 0; ; i++) {
+            try {
+                return new Socket("127.0.0.1", ChatServer.PORT);
+            } catch (ConnectException e) {
+                if (i == 100) {
+                    throw e;
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    private static void skipUntil(BufferedReader in, String prefix) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null && !line.startsWith(prefix)) {
+            // skip
+        }
+    }
+
+    private static BufferedReader reader(Socket socket) throws IOException {
+        socket.setSoTimeout(10_000);
+        return new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+    }
+
+    private static PrintWriter writer(Socket socket) throws IOException {
+        return new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Finds a currently unused local port.
+     */
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.TimerWheel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the TimerWheel class.
+ */
+class TimerWheelTest {
+
+    @Test
+    void testExpiresOnTime() {
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        List<String> fired = new ArrayList<>();
+
+        wheel.schedule(ms(25), () -> fired.add("a"));
+        wheel.schedule(ms(500), () -> fired.add("b"));   // several revolutions away
+
+        wheel.advance(ms(20));
+        assertTrue(fired.isEmpty());
+
+        wheel.advance(ms(30));
+        assertEquals(List.of("a"), fired);
+
+        wheel.advance(ms(490));
+        assertEquals(List.of("a"), fired);
+
+        wheel.advance(ms(500));
+        assertEquals(List.of("a", "b"), fired);
+    }
+
+    @Test
+    void testCancel() {
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        List<String> fired = new ArrayList<>();
+
+        TimerWheel.Timeout timeout = wheel.schedule(ms(50), () -> fired.add("a"));
+        timeout.cancel();
+        wheel.advance(ms(100));
+
+        assertTrue(fired.isEmpty());
+    }
+
+    @Test
+    void testRescheduleFromTask() {
+        TimerWheel wheel = new TimerWheel(10, 8, 0);
+        List<Long> fired = new ArrayList<>();
+
+        wheel.schedule(ms(10), () -> {
+            fired.add(10L);
+            wheel.schedule(ms(40), () -> fired.add(40L));
+        });
+        wheel.advance(ms(100));
+
+        assertEquals(List.of(10L, 40L), fired);
+    }
+
+    @Test
+    void testClockOverflow() {
+        // System.nanoTime() may be anywhere in the range of long, including just before it overflows
+        long start = Long.MAX_VALUE - ms(15);
+        TimerWheel wheel = new TimerWheel(10, 8, start);
+        List<String> fired = new ArrayList<>();
+
+        wheel.schedule(start + ms(30), () -> fired.add("a"));
+        wheel.advance(start + ms(20));
+        assertTrue(fired.isEmpty());
+
+        wheel.advance(start + ms(30));
+        assertEquals(List.of("a"), fired);
+    }
+
+    /**
+     * Converts milliseconds to the wheel's nanosecond clock.
+     */
+    private static long ms(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,70 @@
+package Test;
+
+import org.junit.jupiter.api.Test;
+import server.WordFilter;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Unit tests for the WordFilter automaton.
+ */
+class WordFilterTest {
+
+    @Test
+    void testCaseInsensitive() {
+        WordFilter filter = new WordFilter(Set.of("idiot"), false);
+
+        assertTrue(filter.containsBannedWord("Ty jsi IDIOT!"));
+        assertFalse(filter.containsBannedWord("Ahoj"));
+    }
+
+    @Test
+    void testDiacriticFolding() {
+        WordFilter folding = new WordFilter(Set.of("sprosté"), true);
+        WordFilter exact = new WordFilter(Set.of("sprosté"), false);
+
+        assertTrue(folding.containsBannedWord("to je SPROSTE"));
+        assertTrue(folding.containsBannedWord("to je sprosté"));
+        assertFalse(exact.containsBannedWord("to je sproste"));
+    }
+
+    @Test
+    void testOverlappingMatches() {
+        WordFilter filter = new WordFilter(Set.of("he", "she", "hers"), false);
+
+        List<WordFilter.Match> matches = filter.findMatches("ushers");
+
+        assertEquals(3, matches.size());
+        assertEquals(new WordFilter.Match(1, 4, "she"), matches.get(0));
+        assertEquals(new WordFilter.Match(2, 4, "he"), matches.get(1));
+        assertEquals(new WordFilter.Match(2, 6, "hers"), matches.get(2));
+    }
+
+    @Test
+    void testMask() {
+        WordFilter filter = new WordFilter(Set.of("blbec", "sprosté"), true);
+
+        assertEquals("ty ***** a ******* slovo", filter.mask("ty Blbec a sproste slovo"));
+        assertEquals("ahoj", filter.mask("ahoj"));
+    }
+
+    @Test
+    void testFoldingIgnoresDefaultLocale() {
+        Locale before = Locale.getDefault();
+        Locale.setDefault(Locale.forLanguageTag("tr"));
+        try {
+            WordFilter filter = new WordFilter(Set.of("KILL", "İPTAL"), false);
+
+            assertTrue(filter.containsBannedWord("i will kill you"));
+            assertEquals("***** now", filter.mask("iptal now"));
+        } finally {
+            Locale.setDefault(before);
+        }
+    }
+}
@@ -2,21 +2,66 @@ package client;
 
 import javax.swing.*;
 import java.awt.*;
-import java.io.*;
-import java.net.Socket;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * A simple Swing-based chat client that connects to a TCP chat server.
  * The client displays incoming messages in a GUI window and allows the user
  * to send messages via a text field and a button.
+ * <p>
+ * Received lines are queued by the reader thread and added to the list on
+ * the Event Dispatch Thread in one batch per frame, however many arrive. The
+ * list only renders the visible rows and keeps the most recent lines in
+ * memory; older ones are paged out to a temporary file
+ * ({@link MessageListModel}).
+ * </p>
+ * <p>
+ * The servers to connect to are read from config/client.properties. A lost
+ * connection is re-established automatically, also to another server of the
+ * list; messages typed meanwhile are sent once the client is back
+ * ({@link ReconnectingConnection}).
+ * </p>
  */
 public class ChatClientGUI {
 
+    /** Interval (ms) at which received lines are added to the list, about one frame. */
+    private static final int FRAME_MS = 16;
+
+    /** Number of most recent lines kept in memory. */
+    private static final int LINES_IN_MEMORY = 5000;
+
+    /** Servers to connect to, in order of preference. */
+    public static List<InetSocketAddress> SERVERS = List.of(InetSocketAddress.createUnresolved("127.0.0.1", 12345));
+
+    /** Delay (ms) before the first reconnect attempt, doubled after every failed attempt. */
+    public static long RECONNECT_INITIAL_MS = 500;
+
+    /** Longest delay (ms) between reconnect attempts. */
+    public static long RECONNECT_MAX_MS = 30_000;
+
+    /** Maximum number of messages kept while offline; the oldest are dropped. */
+    public static int OUTBOX_CAPACITY = 100;
+
+    /** Smallest message (bytes) sent compressed; 0 keeps to the text protocol without compression. */
+    public static int COMPRESSION_THRESHOLD = 0;
+
     /** Main application window. */
     private JFrame frame;
 
-    /** Text area that displays received chat messages. */
-    private JTextArea chatArea;
+    /** List that displays received chat messages. */
+    private JList<String> chatList;
+
+    /** All received lines shown in {@link #chatList}. */
+    private final MessageListModel chatLines = new MessageListModel(LINES_IN_MEMORY);
+
+    /** Lines received but not yet shown, filled by the reader thread. */
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
 
     /** Text field where a user types outgoing messages. */
     private JTextField inputField;
@@ -24,21 +69,50 @@ public class ChatClientGUI {
     /** Button used to send a message. */
     private JButton sendButton;
 
-    /** Writer for sending data to the server. */
-    private PrintWriter writer;
-
-    /** The socket used to communicate with the server. */
-    private Socket socket;
+    /** Connection to the server. */
+    private ReconnectingConnection connection;
 
     /**
      * Application entry point.
      *
-     * @param args command-line arguments (unused)
+     * @param args optional server list ("host:port,host:port") overriding the configured one
      */
     public static void main(String[] args) {
+        loadConfig("config/client.properties");
+        if (args.length > 0) {
+            SERVERS = ReconnectingConnection.parseServers(args[0]);
+        }
         SwingUtilities.invokeLater(() -> new ChatClientGUI().start());
     }
 
+    /**
+     * Loads client configuration from a properties file; defaults are kept if it cannot be read.
+     *
+     * @param path path of the file
+     */
+    private static void loadConfig(String path) {
+        Properties props = new Properties();
+        try (FileInputStream fis = new FileInputStream(path)) {
+            props.load(fis);
+
+            List<InetSocketAddress> servers =
+                    ReconnectingConnection.parseServers(props.getProperty("servers", "127.0.0.1:12345"));
+            if (!servers.isEmpty()) {
+                SERVERS = servers;
+            }
+            RECONNECT_INITIAL_MS =
+                    Math.max(1, Long.parseLong(props.getProperty("reconnect_initial_ms", "500").trim()));
+            RECONNECT_MAX_MS =
+                    Long.parseLong(props.getProperty("reconnect_max_ms", "30000").trim());
+            OUTBOX_CAPACITY =
+                    Math.max(1, Integer.parseInt(props.getProperty("outbox_capacity", "100").trim()));
+            COMPRESSION_THRESHOLD =
+                    Math.max(0, Integer.parseInt(props.getProperty("compression_threshold", "0").trim()));
+        } catch (IOException e) {
+            System.out.println("Cannot load config file, using defaults.");
+        }
+    }
+
     /**
      * Initializes GUI, connects to the server, starts the listening thread,
      * and configures sending of messages.
@@ -46,58 +120,43 @@ public class ChatClientGUI {
     public void start() {
         setupGUI();
 
-        String host = "127.0.0.1";
-        int port = 12345;
-
         String name = JOptionPane.showInputDialog(frame, "Enter your name:");
         if (name == null || name.trim().isEmpty()) {
             name = "Anonymous";
         }
 
-        try {
-            socket = new Socket(host, port);
-            writer = new PrintWriter(socket.getOutputStream(), true);
-            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-            // Send username to server
-            writer.println(name);
-
-            /**
-             * Thread that continuously reads messages from the server.
-             * Handles server commands such as /disconnect.
-             */
-            new Thread(() -> {
-                String msg;
-                try {
-                    while ((msg = reader.readLine()) != null) {
-
-                        // Server requests that the client disconnects
-                        if (msg.equals("/disconnect")) {
-                            JOptionPane.showMessageDialog(frame,
-                                    "You have been disconnected from the server.",
-                                    "Disconnected",
-                                    JOptionPane.INFORMATION_MESSAGE);
-                            socket.close();
-                            frame.dispose();
-                            break;
-                        }
-
-                        chatArea.append(msg + "\n");
-                        chatArea.setCaretPosition(chatArea.getDocument().getLength());
-                    }
-                } catch (IOException e) {
-                    chatArea.append("Disconnected from server.\n");
-                }
-            }).start();
-
-            // Attach send listeners
-            sendButton.addActionListener(e -> sendMessage());
-            inputField.addActionListener(e -> sendMessage());
+        connection = new ReconnectingConnection(SERVERS, name, RECONNECT_INITIAL_MS, RECONNECT_MAX_MS,
+                OUTBOX_CAPACITY, COMPRESSION_THRESHOLD, new ReconnectingConnection.Listener() {
+            @Override
+            public void onLine(String line) {
+                pending.add(line);
+            }
 
-        } catch (IOException e) {
-            JOptionPane.showMessageDialog(frame, "Cannot connect to server: " + e.getMessage(),
-                    "Connection Error", JOptionPane.ERROR_MESSAGE);
-        }
+            @Override
+            public void onStatus(String status) {
+                pending.add("* " + status);
+            }
+
+            @Override
+            public void onClosed() {
+                // Server requests that the client disconnects
+                SwingUtilities.invokeLater(() -> {
+                    JOptionPane.showMessageDialog(frame,
+                            "You have been disconnected from the server.",
+                            "Disconnected",
+                            JOptionPane.INFORMATION_MESSAGE);
+                    frame.dispose();
+                    chatLines.close();
+                });
+            }
+        });
+
+        // Attach send listeners
+        sendButton.addActionListener(e -> sendMessage());
+        inputField.addActionListener(e -> sendMessage());
+
+        // Connecting may take a while if the first servers do not answer
+        Thread.ofVirtual().name("ChatConnect").start(connection::start);
     }
 
     /**
@@ -110,12 +169,23 @@ public class ChatClientGUI {
         frame.setSize(500, 400);
         frame.setLayout(new BorderLayout());
 
-        chatArea = new JTextArea();
-        chatArea.setEditable(false);
-        chatArea.setLineWrap(true);
-        chatArea.setWrapStyleWord(true);
-        JScrollPane scrollPane = new JScrollPane(chatArea);
+        // Fixed cell size: the list then never measures rows it does not show
+        chatList = new JList<>(chatLines);
+        chatList.setFixedCellHeight(chatList.getFontMetrics(chatList.getFont()).getHeight() + 2);
+        chatList.setFixedCellWidth(1);
+        // Rows do not wrap (that would need variable heights); a cut-off line is shown
+        // wrapped in its tooltip, and selected lines can be copied with Ctrl+C
+        DefaultListCellRenderer renderer = new DefaultListCellRenderer();
+        chatList.setCellRenderer((list, value, index, selected, focused) -> {
+            JLabel label = (JLabel) renderer.getListCellRendererComponent(list, value, index, selected, focused);
+            boolean cutOff = label.getFontMetrics(label.getFont()).stringWidth(value) > list.getWidth();
+            label.setToolTipText(cutOff ? wrapped(value, list.getWidth()) : null);
+            return label;
+        });
+        JScrollPane scrollPane = new JScrollPane(chatList,
+                ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS, ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
         frame.add(scrollPane, BorderLayout.CENTER);
+        new Timer(FRAME_MS, e -> showPending(scrollPane.getVerticalScrollBar())).start();
 
         JPanel panel = new JPanel(new BorderLayout());
         inputField = new JTextField();
@@ -127,6 +197,40 @@ public class ChatClientGUI {
         frame.setVisible(true);
     }
 
+    /**
+     * Returns a line as tooltip text wrapped to about the given width.
+     *
+     * @param line  line to show
+     * @param width width (pixels) to wrap at
+     * @return HTML tooltip text
+     */
+    private static String wrapped(String line, int width) {
+        String escaped = line.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        return "<html><p style='width: " + Math.max(200, width) + "px'>" + escaped + "</p></html>";
+    }
+
+    /**
+     * Adds the lines received since the last frame to the list in one batch.
+     * The list follows new lines only if it was scrolled to the bottom.
+     *
+     * @param scrollBar vertical scroll bar of the list
+     */
+    private void showPending(JScrollBar scrollBar) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<String> batch = new ArrayList<>();
+        String line;
+        while ((line = pending.poll()) != null) {
+            batch.add(line);
+        }
+        boolean atBottom = scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum();
+        chatLines.addAll(batch);
+        if (atBottom) {
+            chatList.ensureIndexIsVisible(chatLines.getSize() - 1);
+        }
+    }
+
     /**
      * Sends the text currently typed in the input field to the server.
      * If the user types "/quit", the command is also forwarded to the server
@@ -135,12 +239,12 @@ public class ChatClientGUI {
     private void sendMessage() {
         String msg = inputField.getText().trim();
         if (!msg.isEmpty()) {
-            writer.println(msg);
+            connection.send(msg);
             inputField.setText("");
 
             // Client requests to close connection
             if (msg.equalsIgnoreCase("/quit")) {
-                writer.println("/quit");
+                connection.send("/quit");
             }
         }
     }
@@ -0,0 +1,290 @@
+package client;
+
+import server.Frame;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Client side of the text chat protocol, shared by the GUI client and the
+ * load generator.
+ * <p>
+ * Connects, asks for a session token ("/session"), sends the user name and
+ * reads server lines on a thread of its own. Control lines are handled here: "/ping" is answered with
+ * "/pong", "/session &lt;token&gt;" is remembered for resuming and
+ * "/disconnect" ends the connection. Everything else is passed to the listener.
+ * </p>
+ * <p>
+ * With a compression threshold, the binary {@link Frame} protocol is spoken
+ * instead and compressed frames are accepted; lines of at least that many
+ * bytes are sent compressed if the server agreed to compression. The server
+ * must accept the binary protocol.
+ * </p>
+ */
+public final class ChatConnection implements Closeable {
+
+    /**
+     * Receives what the server sends. Called on the reader thread.
+     */
+    public interface Listener {
+
+        /**
+         * Called for every line to be shown to the user.
+         *
+         * @param line line without terminator
+         */
+        void onLine(String line);
+
+        /**
+         * Called when the server sends a token for resuming the session.
+         *
+         * @param token session token
+         */
+        default void onSession(String token) {
+        }
+
+        /**
+         * Called once when the connection ends.
+         *
+         * @param byServer true if the server sent "/disconnect", false if the connection dropped or was closed
+         */
+        void onDisconnected(boolean byServer);
+    }
+
+    /** The socket used to communicate with the server. */
+    private final Socket socket;
+
+    /** Writer for sending lines to the server, null in the binary protocol. */
+    private final PrintWriter writer;
+
+    /** Stream for sending frames to the server, null in the text protocol. Guarded by itself. */
+    private final DataOutputStream frames;
+
+    /** Smallest line (bytes) sent compressed, 0 in the text protocol. */
+    private final int compressThreshold;
+
+    /** Whether the server agreed to compression. */
+    private volatile boolean compressing;
+
+    /** Receiver of the server's lines. */
+    private final Listener listener;
+
+    /** Token for resuming the session after a dropped connection, null until received. */
+    private volatile String sessionToken;
+
+    /**
+     * Connects to a server, sends the user name and starts reading.
+     *
+     * @param host     server host
+     * @param port     server port
+     * @param name     user name (or "/resume &lt;token&gt;"), sent after asking for a session token
+     * @param listener receiver of the server's lines
+     * @throws IOException if the connection cannot be established
+     */
+    public ChatConnection(String host, int port, String name, Listener listener) throws IOException {
+        this(host, port, name, 0, listener);
+    }
+
+    /**
+     * Connects to a server, sends the user name and starts reading.
+     *
+     * @param host              server host
+     * @param port              server port
+     * @param name              user name (or "/resume &lt;token&gt;"), sent after asking for a session token
+     * @param compressThreshold smallest line (bytes) sent compressed, 0 for the text protocol without compression
+     * @param listener          receiver of the server's lines
+     * @throws IOException if the connection cannot be established
+     */
+    public ChatConnection(String host, int port, String name, int compressThreshold, Listener listener)
+            throws IOException {
+        this.socket = new Socket(host, port);
+        this.socket.setTcpNoDelay(true);
+        this.listener = listener;
+        this.compressThreshold = Math.max(0, compressThreshold);
+        if (this.compressThreshold > 0) {
+            this.writer = null;
+            this.frames = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            byte[] preamble = Frame.MAGIC.clone();
+            preamble[preamble.length - 1] = Frame.VERSION_DEFLATE;
+            frames.write(preamble);
+        } else {
+            this.writer = new PrintWriter(socket.getOutputStream(), true, StandardCharsets.UTF_8);
+            this.frames = null;
+        }
+
+        // Ask for a session token, then send username to server; binary clients get one anyway
+        if (writer != null) {
+            send("/session");
+        }
+        send(name);
+
+        Thread.ofVirtual().name("ChatConnection-" + host + ":" + port).start(this::readLoop);
+    }
+
+    /**
+     * Sends a line (a chat message or a command) to the server.
+     *
+     * @param line line without terminator
+     * @return false if the connection is known to be broken; the line may not have been sent
+     */
+    public boolean send(String line) {
+        if (frames != null) {
+            return sendFrame(Frame.TEXT, line);
+        }
+        writer.println(line);
+        return !writer.checkError();
+    }
+
+    /**
+     * Sends a frame, compressed if the server agreed to compression and the payload is large enough.
+     *
+     * @return false if the connection is broken
+     */
+    private boolean sendFrame(byte type, String payload) {
+        byte[] bytes = payload.getBytes(StandardCharsets.UTF_8);
+        byte flags = 0;
+        if (compressing && bytes.length >= compressThreshold) {
+            byte[] compressed = Frame.deflate(bytes, 0, bytes.length);
+            if (compressed != null) {
+                bytes = compressed;
+                flags = Frame.COMPRESSED;
+            }
+        }
+        synchronized (frames) {
+            try {
+                frames.writeByte(type);
+                frames.writeByte(flags);
+                frames.writeInt(0);
+                frames.writeInt(bytes.length);
+                frames.write(bytes);
+                frames.flush();
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Returns the token for resuming the session, null if the server sent none.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    /**
+     * Closes the connection.
+     */
+    @Override
+    public void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Reads from the server until the connection ends.
+     */
+    private void readLoop() {
+        boolean byServer = false;
+        try {
+            byServer = frames != null ? readFrames() : readLines();
+        } catch (IOException ignored) {
+        } finally {
+            close();
+            listener.onDisconnected(byServer);
+        }
+    }
+
+    /**
+     * Reads lines of the text protocol.
+     *
+     * @return true if the server sent "/disconnect", false if the connection ended
+     */
+    private boolean readLines() throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        String msg;
+        while ((msg = reader.readLine()) != null) {
+
+            // Server requests that the client disconnects
+            if (msg.equals("/disconnect")) {
+                return true;
+            }
+
+            // Server heartbeat, prove that we are still here
+            if (msg.equals("/ping")) {
+                writer.println("/pong");
+                continue;
+            }
+
+            // Token for resuming the session, not shown to the user
+            if (msg.startsWith("/session ")) {
+                sessionToken = msg.substring(9);
+                listener.onSession(sessionToken);
+                continue;
+            }
+
+            listener.onLine(msg);
+        }
+        return false;
+    }
+
+    /**
+     * Reads frames of the binary protocol.
+     *
+     * @return true if the server sent a {@link Frame#DISCONNECT} frame, false if the connection ended
+     */
+    private boolean readFrames() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        byte[] payload = new byte[1024];
+        while (true) {
+            int type = in.read();
+            if (type < 0) {
+                return false;
+            }
+            byte flags = in.readByte();
+            in.readInt();   // sequence number
+            int length = in.readInt();
+            if (length < 0 || length > Frame.MAX_PAYLOAD) {
+                return false;
+            }
+            if (length > payload.length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            in.readFully(payload, 0, length);
+            String text = (flags & Frame.COMPRESSED) != 0
+                    ? Frame.inflate(payload, 0, length)
+                    : new String(payload, 0, length, StandardCharsets.UTF_8);
+            if (text == null) {
+                return false;
+            }
+
+            switch (type) {
+                case Frame.DISCONNECT -> {
+                    return true;
+                }
+                case Frame.PING -> sendFrame(Frame.PONG, "");
+                case Frame.HELLO -> compressing = List.of(text.split(" ")).contains("deflate");
+                case Frame.SESSION -> {
+                    sessionToken = text;
+                    listener.onSession(text);
+                }
+                case Frame.TEXT -> listener.onLine(text);
+                default -> {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package client;
+
+import server.LatencyHistogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator: simulates many chat clients against a server and
+ * reports throughput and end-to-end latency.
+ * <p>
+ * Every simulated client speaks the same protocol as the GUI client
+ * ({@link ChatConnection}), joins one of several rooms and sends messages at a
+ * fixed average rate. A message carries its send time, so every client that
+ * receives it records the latency from sending to receiving. All clients run
+ * in this JVM on virtual threads and share one clock.
+ * </p>
+ * <p>
+ * Run with:
+ * </p>
+ * <pre>
+ * java -cp chat.jar client.LoadGenerator [--host 127.0.0.1] [--port 12345] [--clients 1000]
+ *      [--rooms 10] [--rate 1.0] [--warmup 5] [--duration 30] [--size 64] [--compress 0]
+ * </pre>
+ * <p>
+ * With "--compress &lt;bytes&gt;" the clients speak the binary protocol and
+ * accept compressed frames, sending messages of at least that size compressed.
+ * </p>
+ * <p>
+ * The last line printed is a machine-readable summary starting with "RESULT",
+ * so that runs can be scripted and compared. The exit code is 1 if not all
+ * clients could connect.
+ * </p>
+ */
+public class LoadGenerator {
+
+    /** Marks the messages of the load generator; followed by the send time (ns). */
+    private static final String MARKER = "lg:";
+
+    /** Latencies (ns) of all deliveries in the measurement window. */
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    /** Messages sent in the measurement window. */
+    private final LongAdder sent = new LongAdder();
+
+    /** Messages received in the measurement window. */
+    private final LongAdder received = new LongAdder();
+
+    /** Server notices (e.g. rate limit warnings) received in the measurement window. */
+    private final LongAdder notices = new LongAdder();
+
+    /** Connections that ended before the run was over. */
+    private final LongAdder dropped = new LongAdder();
+
+    /** Set while the measurement window is open. */
+    private volatile boolean measuring;
+
+    /** Set when the run is over. */
+    private volatile boolean stopped;
+
+    /**
+     * Command line entry point.
+     *
+     * @param args options, see the class description
+     */
+    public static void main(String[] args) throws Exception {
+        String host = "127.0.0.1";
+        int port = 12345;
+        int clients = 1000;
+        int rooms = 10;
+        double rate = 1.0;
+        int warmup = 5;
+        int duration = 30;
+        int size = 64;
+        int compress = 0;
+
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--host" -> host = value;
+                case "--port" -> port = Integer.parseInt(value);
+                case "--clients" -> clients = Integer.parseInt(value);
+                case "--rooms" -> rooms = Math.max(1, Integer.parseInt(value));
+                case "--rate" -> rate = Double.parseDouble(value);
+                case "--warmup" -> warmup = Integer.parseInt(value);
+                case "--duration" -> duration = Integer.parseInt(value);
+                case "--size" -> size = Integer.parseInt(value);
+                case "--compress" -> compress = Integer.parseInt(value);
+                default -> {
+                    System.err.println("Unknown option " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        boolean complete = new LoadGenerator().run(host, port, clients, rooms, rate, warmup, duration, size,
+                compress);
+        System.exit(complete ? 0 : 1);
+    }
+
+    /**
+     * Connects the clients, lets them send for the warm-up and measurement
+     * time and prints the results.
+     *
+     * @param host     server host
+     * @param port     server port
+     * @param clients  number of simulated clients
+     * @param rooms    number of rooms the clients are spread over
+     * @param rate     messages per second sent by each client
+     * @param warmup   time (s) before measuring
+     * @param duration measurement time (s)
+     * @param size     approximate message length (characters)
+     * @param compress smallest message (bytes) sent compressed, 0 for the text protocol
+     * @return false if not all clients could connect
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean run(String host, int port, int clients, int rooms, double rate,
+                       int warmup, int duration, int size, int compress) throws InterruptedException {
+        String run = Long.toString(System.currentTimeMillis() % 100_000, 36);
+        List<ChatConnection> connections = new ArrayList<>(clients);
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            try {
+                ChatConnection connection = new ChatConnection(host, port, "lg" + run + "-" + i, compress,
+                        new Receiver());
+                connection.send("/join load" + (i % rooms));
+                connections.add(connection);
+            } catch (IOException e) {
+                System.err.println("Client " + i + " cannot connect: " + e.getMessage());
+            }
+        }
+        System.out.printf("connected %d/%d clients in %.1f s%n",
+                connections.size(), clients, (System.nanoTime() - connectStart) / 1e9);
+
+        String padding = "x".repeat(Math.max(0, size - 24));
+        long intervalNanos = (long) (1e9 / rate);
+        List<Thread> senders = new ArrayList<>(connections.size());
+        for (ChatConnection connection : connections) {
+            senders.add(Thread.ofVirtual().start(() -> sendLoop(connection, intervalNanos, padding)));
+        }
+
+        TimeUnit.SECONDS.sleep(warmup);
+        measuring = true;
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(duration);
+        measuring = false;
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        stopped = true;
+        for (Thread sender : senders) {
+            sender.interrupt();
+        }
+        for (ChatConnection connection : connections) {
+            connection.close();
+        }
+        report(connections.size(), seconds);
+        return connections.size() == clients;
+    }
+
+    /**
+     * Sends messages at the given average interval, with random gaps so that
+     * clients do not send in lockstep.
+     */
+    private void sendLoop(ChatConnection connection, long intervalNanos, String padding) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(ThreadLocalRandom.current().nextLong(intervalNanos));
+            while (!stopped) {
+                connection.send(MARKER + System.nanoTime() + " " + padding);
+                if (measuring) {
+                    sent.increment();
+                }
+                long gap = intervalNanos / 2 + ThreadLocalRandom.current().nextLong(intervalNanos);
+                TimeUnit.NANOSECONDS.sleep(gap);
+            }
+        } catch (InterruptedException ignored) {
+            // run is over
+        }
+    }
+
+    /**
+     * Records the latency of every load generator message a client receives.
+     */
+    private class Receiver implements ChatConnection.Listener {
+
+        @Override
+        public void onLine(String line) {
+            long now = System.nanoTime();
+            if (!measuring) {
+                return;
+            }
+            int marker = line.indexOf(MARKER);
+            if (marker < 0) {
+                if (line.startsWith("SERVER:")) {
+                    notices.increment();
+                }
+                return;
+            }
+            int start = marker + MARKER.length();
+            int end = line.indexOf(' ', start);
+            try {
+                long sentAt = Long.parseLong(end < 0 ? line.substring(start) : line.substring(start, end));
+                latency.record(now - sentAt);
+                received.increment();
+            } catch (NumberFormatException ignored) {
+                // not ours
+            }
+        }
+
+        @Override
+        public void onDisconnected(boolean byServer) {
+            if (!stopped) {
+                dropped.increment();
+            }
+        }
+    }
+
+    /**
+     * Prints the results of the measurement window.
+     */
+    private void report(int clients, double seconds) {
+        long sentCount = sent.sum();
+        long receivedCount = received.sum();
+        System.out.printf("sent %,d messages (%,.0f/s), received %,d deliveries (%,.0f/s)%n",
+                sentCount, sentCount / seconds, receivedCount, receivedCount / seconds);
+        System.out.printf("latency p50 %.2f ms, p99 %.2f ms, p99.9 %.2f ms, max %.2f ms%n",
+                millis(latency.getPercentile(0.5)), millis(latency.getPercentile(0.99)),
+                millis(latency.getPercentile(0.999)), millis(latency.getMax()));
+        System.out.printf("server notices %d, dropped connections %d%n", notices.sum(), dropped.sum());
+        System.out.printf("RESULT clients=%d seconds=%.1f sent_per_s=%.0f received_per_s=%.0f"
+                        + " p50_us=%d p99_us=%d p999_us=%d max_us=%d notices=%d dropped=%d%n",
+                clients, seconds, sentCount / seconds, receivedCount / seconds,
+                latency.getPercentile(0.5) / 1000, latency.getPercentile(0.99) / 1000,
+                latency.getPercentile(0.999) / 1000, latency.getMax() / 1000, notices.sum(), dropped.sum());
+    }
+
+    /**
+     * Converts nanoseconds to milliseconds.
+     */
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+}
@@ -0,0 +1,209 @@
+package client;
+
+import javax.swing.AbstractListModel;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serial;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * List model of all chat lines received, keeping only the most recent ones in memory.
+ * <p>
+ * The newest {@code capacity} lines are kept in a ring. Older lines are paged
+ * out to a temporary file in pages of {@link #PAGE_SIZE} lines; only the file
+ * offset of each page stays in memory. A {@link javax.swing.JList} with a
+ * fixed cell height asks only for the rows it shows, so scrolling back reads
+ * a few pages from the file (the last ones read are cached) and the memory
+ * used does not grow with the number of lines.
+ * </p>
+ * <p>
+ * Like every Swing model it must only be used on the Event Dispatch Thread.
+ * Lines are added in batches, with one change event per batch.
+ * </p>
+ */
+public class MessageListModel extends AbstractListModel<String> implements Closeable {
+
+    /**
+     * Swing models are serializable; this one is never serialized, and its
+     * page file belongs to the running client, so the paging state is transient.
+     */
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    /** Number of lines per page of the page file. */
+    static final int PAGE_SIZE = 256;
+
+    /** Number of pages read back from the file that are kept in memory. */
+    private static final int CACHED_PAGES = 8;
+
+    /** Most recent lines; line i is at index i % length. */
+    private final String[] recent;
+
+    /** Number of lines added in total. */
+    private int size;
+
+    /** File holding the paged-out lines, created on first use. */
+    private transient File pageFile;
+
+    /** Stream appending to {@link #pageFile}. */
+    private transient OutputStream pageOut;
+
+    /** Bytes written to {@link #pageFile}. */
+    private long pageFileLength;
+
+    /** File offset of each page. */
+    private long[] pageOffsets = new long[64];
+
+    /** Number of lines paged out. */
+    private int pagedOut;
+
+    /** Pages read back from the file, least recently used first. */
+    private final transient Map<Integer, String[]> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+            return size() > CACHED_PAGES;
+        }
+    };
+
+    /**
+     * Constructs an empty model.
+     *
+     * @param capacity number of most recent lines kept in memory, at least {@link #PAGE_SIZE}
+     */
+    public MessageListModel(int capacity) {
+        this.recent = new String[Math.max(PAGE_SIZE, capacity)];
+    }
+
+    /**
+     * Adds lines at the end, paging out the oldest lines kept in memory.
+     *
+     * @param lines lines to add
+     */
+    public void addAll(List<String> lines) {
+        if (lines.isEmpty()) {
+            return;
+        }
+        int first = size;
+        for (String line : lines) {
+            if (size - pagedOut == recent.length) {
+                pageOut();
+            }
+            recent[size % recent.length] = line;
+            size++;
+        }
+        fireIntervalAdded(this, first, size - 1);
+    }
+
+    @Override
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        if (index >= pagedOut) {
+            return recent[index % recent.length];
+        }
+        String[] page = cache.get(index / PAGE_SIZE);
+        if (page == null) {
+            page = readPage(index / PAGE_SIZE);
+            cache.put(index / PAGE_SIZE, page);
+        }
+        return page[index % PAGE_SIZE];
+    }
+
+    /**
+     * Returns the number of lines held in memory, not counting cached pages.
+     */
+    public int getInMemoryCount() {
+        return size - pagedOut;
+    }
+
+    /**
+     * Deletes the page file.
+     */
+    @Override
+    public void close() {
+        try {
+            if (pageOut != null) {
+                pageOut.close();
+            }
+        } catch (IOException ignored) {
+        }
+        if (pageFile != null && !pageFile.delete()) {
+            pageFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Moves the oldest page of lines kept in memory to the page file. If the
+     * file cannot be written, the lines are replaced by a placeholder.
+     */
+    private void pageOut() {
+        int page = pagedOut / PAGE_SIZE;
+        if (page == pageOffsets.length) {
+            pageOffsets = Arrays.copyOf(pageOffsets, page * 2);
+        }
+        pageOffsets[page] = pageFileLength;
+        StringBuilder text = new StringBuilder(PAGE_SIZE * 64);
+        for (int i = pagedOut; i < pagedOut + PAGE_SIZE; i++) {
+            // received lines never contain a line break; replaced anyway so that a page stays PAGE_SIZE lines
+            text.append(recent[i % recent.length].replace('\n', ' ')).append('\n');
+            recent[i % recent.length] = null;
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            if (pageOut == null) {
+                pageFile = File.createTempFile("chat-lines", ".txt");
+                pageFile.deleteOnExit();
+                pageOut = new BufferedOutputStream(new FileOutputStream(pageFile), 64 * 1024);
+            }
+            pageOut.write(bytes);
+        } catch (IOException e) {
+            System.err.println("Cannot page out chat lines: " + e.getMessage());
+        }
+        pageFileLength += bytes.length;
+        pagedOut += PAGE_SIZE;
+    }
+
+    /**
+     * Reads a page back from the page file.
+     */
+    private String[] readPage(int page) {
+        String[] lines = new String[PAGE_SIZE];
+        try {
+            pageOut.flush();
+            long start = pageOffsets[page];
+            long end = page + 1 < pagedOut / PAGE_SIZE ? pageOffsets[page + 1] : pageFileLength;
+            byte[] bytes = new byte[(int) (end - start)];
+            try (RandomAccessFile file = new RandomAccessFile(pageFile, "r")) {
+                file.seek(start);
+                file.readFully(bytes);
+            }
+            List<String> read = new ArrayList<>(PAGE_SIZE);
+            int from = 0;
+            for (int i = 0; i < bytes.length; i++) {
+                if (bytes[i] == '\n') {
+                    read.add(new String(bytes, from, i - from, StandardCharsets.UTF_8));
+                    from = i + 1;
+                }
+            }
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                lines[i] = i < read.size() ? read.get(i) : "";
+            }
+        } catch (IOException | RuntimeException e) {
+            Arrays.fill(lines, "(line not available)");
+        }
+        return lines;
+    }
+}
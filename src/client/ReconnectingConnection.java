@@ -0,0 +1,406 @@
+package client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Connection to one of several chat servers that survives server restarts.
+ * <p>
+ * When the connection drops, it is re-established in the background, trying
+ * the servers in turn and waiting a random time between attempts: up to an
+ * initial delay that doubles with every failed attempt, up to a maximum
+ * ("full jitter"). Clients of a restarted server therefore come back spread
+ * out over time instead of all at once. If the server gave the client a
+ * session token, the session is resumed ("/resume &lt;token&gt;"), otherwise the
+ * name is sent again.
+ * </p>
+ * <p>
+ * Lines sent while there is no connection are kept in a bounded buffer (the
+ * oldest are dropped when it is full) and sent in order once the client is
+ * back in the chat.
+ * </p>
+ */
+public final class ReconnectingConnection implements Closeable {
+
+    /**
+     * Receives what the server sends and the state of the connection.
+     * Called on connection threads.
+     */
+    public interface Listener {
+
+        /**
+         * Called for every line to be shown to the user.
+         *
+         * @param line line without terminator
+         */
+        void onLine(String line);
+
+        /**
+         * Called when the connection is lost, re-established or cannot be re-established yet.
+         *
+         * @param status description for the user
+         */
+        void onStatus(String status);
+
+        /**
+         * Called once when the server ended the session ("/disconnect"); no reconnect follows.
+         */
+        void onClosed();
+    }
+
+    /** Servers to connect to, in order of preference. */
+    private final List<InetSocketAddress> servers;
+
+    /** Receiver of lines and status changes. */
+    private final Listener listener;
+
+    /** Delay (ms) before the first reconnect attempt, doubled after every failed attempt. */
+    private final long initialDelayMs;
+
+    /** Longest delay (ms) between reconnect attempts. */
+    private final long maxDelayMs;
+
+    /** Maximum number of lines kept while offline. */
+    private final int outboxCapacity;
+
+    /** Smallest line (bytes) sent compressed, 0 for the text protocol; see {@link ChatConnection}. */
+    private final int compressThreshold;
+
+    /** Lines waiting for the connection, oldest first. Guarded by this. */
+    private final ArrayDeque<String> outbox = new ArrayDeque<>();
+
+    /** Lines dropped from the full outbox since the last report. Guarded by this. */
+    private int outboxDropped;
+
+    /** Current name; a line typed while the server asks for a name becomes the new one. Guarded by this. */
+    private String name;
+
+    /** Whether the server refused the name and waits for another one. Guarded by this. */
+    private boolean nameRequested;
+
+    /** Token for resuming the session, null if the server sent none. */
+    private volatile String sessionToken;
+
+    /** Current connection, null while offline. Guarded by this. */
+    private ChatConnection connection;
+
+    /** Whether the client is in the chat on the current connection (name accepted or session resumed). Guarded by this. */
+    private boolean established;
+
+    /** Index of the server used or tried last. Guarded by this. */
+    private int serverIndex;
+
+    /** Set once the connection was closed for good. */
+    private volatile boolean closed;
+
+    /**
+     * Connects to the first reachable server. If none is reachable, keeps
+     * trying in the background.
+     *
+     * @param servers           servers to connect to, in order of preference
+     * @param name              user name
+     * @param initialDelayMs    delay (ms) before the first reconnect attempt
+     * @param maxDelayMs        longest delay (ms) between reconnect attempts
+     * @param outboxCapacity    maximum number of lines kept while offline
+     * @param compressThreshold smallest line (bytes) sent compressed, 0 for the text protocol
+     * @param listener          receiver of lines and status changes
+     */
+    public ReconnectingConnection(List<InetSocketAddress> servers, String name, long initialDelayMs,
+                                  long maxDelayMs, int outboxCapacity, int compressThreshold,
+                                  Listener listener) {
+        if (servers.isEmpty()) {
+            throw new IllegalArgumentException("No server to connect to");
+        }
+        this.servers = List.copyOf(servers);
+        this.name = name;
+        this.initialDelayMs = Math.max(1, initialDelayMs);
+        this.maxDelayMs = Math.max(this.initialDelayMs, maxDelayMs);
+        this.outboxCapacity = Math.max(1, outboxCapacity);
+        this.compressThreshold = compressThreshold;
+        this.listener = listener;
+    }
+
+    /**
+     * Parses a server list: "host:port" entries separated by commas.
+     *
+     * @param value server list
+     * @return server addresses, unresolved
+     */
+    public static List<InetSocketAddress> parseServers(String value) {
+        List<InetSocketAddress> servers = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Server must be host:port: " + entry);
+            }
+            servers.add(InetSocketAddress.createUnresolved(entry.substring(0, colon),
+                    Integer.parseInt(entry.substring(colon + 1).trim())));
+        }
+        return servers;
+    }
+
+    /**
+     * Returns the time to wait before a reconnect attempt: a random time up
+     * to the initial delay doubled for every earlier failed attempt, capped
+     * at the maximum.
+     *
+     * @param attempt        number of failed attempts so far
+     * @param initialDelayMs delay (ms) before the first attempt
+     * @param maxDelayMs     longest delay (ms)
+     * @return delay (ms)
+     */
+    public static long backoff(int attempt, long initialDelayMs, long maxDelayMs) {
+        long ceiling = initialDelayMs << Math.min(attempt, 30);
+        if (ceiling <= 0 || ceiling > maxDelayMs) {
+            ceiling = maxDelayMs;
+        }
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    /**
+     * Connects for the first time, in the background if no server is reachable right away.
+     */
+    public void start() {
+        if (!connectToAny()) {
+            reconnectLater();
+        }
+    }
+
+    /**
+     * Sends a line, or keeps it until the client is back in the chat. If the
+     * server refused the name, the line is sent right away as the new name.
+     *
+     * @param line line without terminator
+     */
+    public synchronized void send(String line) {
+        if (connection != null && nameRequested) {
+            name = line;
+            nameRequested = false;
+            connection.send(line);
+            return;
+        }
+        if (connection != null && established && outbox.isEmpty() && connection.send(line)) {
+            return;
+        }
+        if (outbox.size() == outboxCapacity) {
+            outbox.poll();
+            outboxDropped++;
+        }
+        outbox.add(line);
+    }
+
+    /**
+     * Returns true while connected and in the chat.
+     */
+    public synchronized boolean isOnline() {
+        return connection != null && established;
+    }
+
+    /**
+     * Returns the number of lines waiting for the connection.
+     */
+    public synchronized int getOutboxSize() {
+        return outbox.size();
+    }
+
+    /**
+     * Closes the connection for good.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        ChatConnection current;
+        synchronized (this) {
+            current = connection;
+            connection = null;
+        }
+        if (current != null) {
+            current.close();
+        }
+    }
+
+    /**
+     * Tries every server once, starting with the one used last.
+     *
+     * @return true if a connection was established
+     */
+    private boolean connectToAny() {
+        int start;
+        synchronized (this) {
+            start = serverIndex;
+        }
+        for (int i = 0; i < servers.size() && !closed; i++) {
+            int index = (start + i) % servers.size();
+            if (connect(index)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Connects to one server and sends the session token or the name.
+     *
+     * @return true if the server accepted the connection
+     */
+    private boolean connect(int index) {
+        InetSocketAddress server = servers.get(index);
+        String token = sessionToken;
+        String firstLine;
+        synchronized (this) {
+            serverIndex = index;
+            firstLine = token != null ? "/resume " + token : name;
+        }
+        ConnectionListener connectionListener = new ConnectionListener();
+        try {
+            ChatConnection opened = new ChatConnection(server.getHostString(), server.getPort(), firstLine,
+                    compressThreshold, connectionListener);
+            synchronized (this) {
+                connectionListener.owner = opened;
+                if (!closed) {
+                    connection = opened;
+                    established = false;
+                    nameRequested = false;
+                }
+            }
+            connectionListener.ready.countDown();
+            if (closed) {
+                opened.close();
+                return true;
+            }
+            listener.onStatus("Connected to " + server.getHostString() + ":" + server.getPort() + ".");
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Keeps trying to connect on a background thread, waiting a growing random time between rounds.
+     */
+    private void reconnectLater() {
+        Thread.ofVirtual().name("ChatReconnect").start(() -> {
+            int attempt = 0;
+            while (!closed) {
+                long delay = backoff(attempt++, initialDelayMs, maxDelayMs);
+                listener.onStatus(String.format("Not connected, next attempt in %.1f s.", delay / 1000.0));
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (connectToAny()) {
+                    return;
+                }
+            }
+        });
+    }
+
+    /**
+     * Marks the client as back in the chat and sends what was typed meanwhile.
+     */
+    private synchronized void onEstablished(ChatConnection from) {
+        if (from != connection || established) {
+            return;
+        }
+        established = true;
+        if (outboxDropped > 0) {
+            listener.onStatus(outboxDropped + " messages typed while offline were dropped.");
+            outboxDropped = 0;
+        }
+        while (!outbox.isEmpty()) {
+            if (!connection.send(outbox.peek())) {
+                return;
+            }
+            outbox.poll();
+        }
+    }
+
+    /**
+     * Reacts to one connection's lines. The reader thread may deliver lines
+     * before the connection's constructor returned, so each call first waits
+     * for the connection to be known.
+     */
+    private final class ConnectionListener implements ChatConnection.Listener {
+
+        /** Counted down once {@link #owner} is set. */
+        final CountDownLatch ready = new CountDownLatch(1);
+
+        /** The connection this listener belongs to. Guarded by the outer instance. */
+        ChatConnection owner;
+
+        /**
+         * Returns the connection this listener belongs to.
+         */
+        private ChatConnection owner() {
+            try {
+                ready.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            synchronized (ReconnectingConnection.this) {
+                return owner;
+            }
+        }
+
+        @Override
+        public void onLine(String line) {
+            ChatConnection self = owner();
+            String currentName;
+            synchronized (ReconnectingConnection.this) {
+                currentName = name;
+            }
+            if (line.startsWith("SERVER: Session cannot be resumed")) {
+                // session expired (or the server was restarted): join again under the name
+                sessionToken = null;
+                self.send(currentName);
+                listener.onStatus("Previous session expired, joining again as " + currentName + ".");
+                return;
+            }
+            listener.onLine(line);
+            if (line.endsWith("is already taken. Enter another name:")) {
+                synchronized (ReconnectingConnection.this) {
+                    nameRequested = self == connection;
+                }
+            } else if (line.startsWith("SERVER: Welcome back") || line.equals(currentName + " joined the chat.")) {
+                onEstablished(self);
+            }
+        }
+
+        @Override
+        public void onSession(String token) {
+            sessionToken = token;
+            onEstablished(owner());
+        }
+
+        @Override
+        public void onDisconnected(boolean byServer) {
+            ChatConnection self = owner();
+            synchronized (ReconnectingConnection.this) {
+                if (self != connection) {
+                    return;
+                }
+                connection = null;
+                established = false;
+                nameRequested = false;
+            }
+            if (byServer || closed) {
+                closed = true;
+                listener.onClosed();
+                return;
+            }
+            listener.onStatus("Connection lost.");
+            reconnectLater();
+        }
+    }
+}
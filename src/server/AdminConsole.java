@@ -0,0 +1,129 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * Reads administrator commands from the server's standard input.
+ */
+public class AdminConsole implements Runnable {
+
+    /** Server the commands act on. */
+    private final ChatServer server;
+
+    /**
+     * Constructs an AdminConsole.
+     *
+     * @param server server the commands act on
+     */
+    public AdminConsole(ChatServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Reads and executes commands until standard input is closed.
+     */
+    @Override
+    public void run() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
+            String command;
+            while ((command = reader.readLine()) != null) {
+                execute(command.trim());
+            }
+        } catch (IOException e) {
+            System.err.println("Admin console error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Executes one command.
+     *
+     * @param command command line
+     */
+    private void execute(String command) {
+        if (command.startsWith("find ")) {
+            find(command.substring(5).trim().split("\\s+"));
+            return;
+        }
+        switch (command) {
+            case "" -> {
+            }
+            case "reload-banwords" -> server.getBanwordsWatcher().reload();
+            case "drain" -> server.drain();
+            case "shutdown" -> {
+                server.shutdown();
+                System.exit(0);
+            }
+            case "metrics" -> System.out.print(MetricsHttpEndpoint.render());
+            case "cluster" -> {
+                ClusterBus cluster = server.getCluster();
+                if (cluster == null) {
+                    System.out.println("Not in a cluster (cluster_port=0)");
+                    return;
+                }
+                System.out.println("node " + cluster.getNodeId() + ", bus port " + cluster.getPort()
+                        + ", " + cluster.getRemoteUserCount() + " users on other nodes");
+                for (String peer : cluster.describePeers()) {
+                    System.out.println(" - " + peer);
+                }
+            }
+            case "stats" -> {
+                BanwordsWatcher watcher = server.getBanwordsWatcher();
+                System.out.printf("banwords: %d words, %d reloads, last rebuild %.2f ms, last swap %.2f ms%n",
+                        server.getWordFilter().getBannedWords().size(), watcher.getReloadCount(),
+                        watcher.getLastRebuildMillis(), watcher.getLastSwapLatencyMillis());
+                System.out.println("dropped outbound messages: " + OutboundQueue.getTotalDropped());
+                System.out.println("throttled messages: " + RateLimiter.getTotalThrottled());
+            }
+            case "help" -> {
+                System.out.println("reload-banwords - reload config/banwords.txt");
+                System.out.println("stats           - show server statistics");
+                System.out.println("metrics         - show all metrics");
+                System.out.println("cluster         - show the peers of this node");
+                System.out.println("find <user|*> [minutes] - show stored messages of the last minutes (default 60)");
+                System.out.println("drain           - refuse new connections, keep serving connected clients");
+                System.out.println("shutdown        - deliver queued messages, disconnect all clients and exit");
+                System.out.println("help            - show this help");
+            }
+            default -> System.out.println("Unknown command, type help");
+        }
+    }
+
+    /**
+     * Prints stored messages of a user (or of everybody for "*") from the last minutes.
+     *
+     * @param args user and optional number of minutes
+     */
+    private void find(String[] args) {
+        MessageStore store = server.getMessageStore();
+        if (store == null) {
+            System.out.println("Message store is not enabled (log_target=text)");
+            return;
+        }
+        try {
+            long minutes = args.length > 1 ? Long.parseLong(args[1]) : 60;
+            long to = System.currentTimeMillis();
+            long from = to - minutes * 60_000;
+
+            long start = System.nanoTime();
+            List<MessageStore.StoredMessage> found = "*".equals(args[0])
+                    ? store.findByTime(from, to, 100)
+                    : store.findBySender(args[0], from, to, 100);
+            double millis = (System.nanoTime() - start) / 1_000_000.0;
+
+            for (MessageStore.StoredMessage stored : found) {
+                System.out.println("#" + stored.seq() + " "
+                        + Instant.ofEpochMilli(stored.message().getTimestamp()) + " "
+                        + stored.message().getLine());
+            }
+            System.out.printf("%d messages (max 100) in %.3f ms%n", found.size(), millis);
+        } catch (NumberFormatException e) {
+            System.out.println("Usage: find <user|*> [minutes]");
+        } catch (IOException e) {
+            System.out.println("Message store error: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package server;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Worker thread that watches the banned words file and reloads the filter
+ * when it changes.
+ * <p>
+ * The new {@link WordFilter} is fully built in the background and then swapped
+ * into the server with a single volatile write, so client threads never block
+ * and never see a half-built list. A reload can also be triggered manually
+ * with {@link #reload()}.
+ * </p>
+ */
+public class BanwordsWatcher implements Runnable {
+
+    /** Time (ms) to wait for an editor to finish writing before reloading. */
+    private static final long SETTLE_DELAY = 200;
+
+    /** Number of successful reloads, as a metric. */
+    private static final LongAdder RELOADS =
+            Metrics.counter("banwords_reloads_total", "Successful reloads of the banned words file");
+
+    /** Time to build a new filter from the file. */
+    private static final LatencyHistogram REBUILD_NS =
+            Metrics.histogram("banwords_rebuild_ns", "Time to rebuild the banned words filter (ns)");
+
+    /** Time from starting a reload to the new filter being live. */
+    private static final LatencyHistogram SWAP_NS =
+            Metrics.histogram("banwords_swap_ns", "Time from starting a reload to the new filter being live (ns)");
+
+    /** Server whose filter is replaced. */
+    private final ChatServer server;
+
+    /** Path to the banned words file. */
+    private final Path file;
+
+    /** Number of successful reloads. */
+    private volatile long reloadCount;
+
+    /** Time (ms) the last rebuild of the automaton took. */
+    private volatile double lastRebuildMillis;
+
+    /** Time (ms) from starting the last reload to the new filter being live. */
+    private volatile double lastSwapLatencyMillis;
+
+    /**
+     * Constructs a BanwordsWatcher.
+     *
+     * @param server server whose filter is replaced
+     * @param file   banned words file
+     */
+    public BanwordsWatcher(ChatServer server, Path file) {
+        this.server = server;
+        this.file = file.toAbsolutePath();
+    }
+
+    /**
+     * Waits for changes of the file and reloads it.
+     */
+    @Override
+    public void run() {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            file.getParent().register(watcher,
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY);
+
+            while (true) {
+                WatchKey key = watcher.take();
+                boolean changed = containsFile(key);
+                key.reset();
+
+                if (changed) {
+                    // Editors often write in several steps; let them finish
+                    WatchKey more;
+                    while ((more = watcher.poll(SETTLE_DELAY, TimeUnit.MILLISECONDS)) != null) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+                    reload();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot watch banwords file: " + e.getMessage());
+        } catch (InterruptedException ignored) {
+            // Thread interrupted, exit gracefully
+        }
+    }
+
+    /**
+     * Returns true if the key has an event for the watched file.
+     */
+    private boolean containsFile(WatchKey key) {
+        boolean found = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (file.getFileName().equals(event.context())) {
+                found = true;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Rebuilds the filter from the file and swaps it in. If the file cannot be
+     * read, the current filter stays active.
+     *
+     * @return true if the new filter is active
+     */
+    public synchronized boolean reload() {
+        long start = System.nanoTime();
+        WordFilter filter;
+        try {
+            filter = new WordFilter(file);
+        } catch (IOException e) {
+            System.err.println("Failed to reload banwords file: " + e.getMessage());
+            return false;
+        }
+        long built = System.nanoTime();
+
+        server.setWordFilter(filter);
+        long swapped = System.nanoTime();
+
+        lastRebuildMillis = (built - start) / 1e6;
+        lastSwapLatencyMillis = (swapped - start) / 1e6;
+        reloadCount++;
+        REBUILD_NS.record(built - start);
+        SWAP_NS.record(swapped - start);
+        RELOADS.increment();
+
+        System.out.printf("Reloaded banned words: %d (rebuild %.2f ms, swap after %.2f ms)%n",
+                filter.getBannedWords().size(), lastRebuildMillis, lastSwapLatencyMillis);
+        return true;
+    }
+
+    /**
+     * Returns the number of successful reloads.
+     */
+    public long getReloadCount() {
+        return reloadCount;
+    }
+
+    /**
+     * Returns the time (ms) the last rebuild took.
+     */
+    public double getLastRebuildMillis() {
+        return lastRebuildMillis;
+    }
+
+    /**
+     * Returns the time (ms) from starting the last reload until the new filter was live.
+     */
+    public double getLastSwapLatencyMillis() {
+        return lastSwapLatencyMillis;
+    }
+}
@@ -0,0 +1,200 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Client connection of the classic transport: blocking socket streams, one
+ * thread reading the client's input and one writing its outbound queue.
+ * <p>
+ * The reading thread may block and sleep freely; a rate-limit pause simply
+ * sleeps, and TCP flow control slows the sender down meanwhile.
+ * </p>
+ */
+public class BlockingClientHandler extends ClientHandler implements Runnable {
+
+    /** Stream for sending messages to the client, used only by the writer thread. */
+    private OutputStream writer;
+
+    /** Thread draining {@link #outbound} to the socket, null until started. */
+    private volatile Thread writerThread;
+
+    /**
+     * Constructs a new BlockingClientHandler.
+     */
+    public BlockingClientHandler(
+            Socket socket,
+            ChatServer server,
+            ClientRegistry clients,
+            LinkedBlockingQueue<String> broadcastQueue,
+            LinkedBlockingQueue<ChatMessage> logQueue) {
+
+        super(socket, server, clients, broadcastQueue, logQueue);
+    }
+
+    /**
+     * Detects the protocol, starts the writer thread and handles the client's
+     * input until it quits or the connection drops.
+     */
+    @Override
+    public void run() {
+        boolean quit = false;
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            writer = new BufferedOutputStream(socket.getOutputStream());
+            binary = detectBinary(in);
+            writerThread = server.startThread(this::writeLoop, "ClientWriter-" + socket.getPort());
+
+            onConnect();
+
+            if (binary) {
+                quit = readFrames(new DataInputStream(in));
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+                String message;
+                while ((message = reader.readLine()) != null) {
+                    if (!handleLine(message)) {
+                        quit = true;
+                        break;
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+        } catch (InterruptedException e) {
+            quit = true;
+        } finally {
+            if (quit) {
+                disconnect();
+            } else {
+                connectionLost();
+            }
+        }
+    }
+
+    /**
+     * Drains the outbound queue to the socket. Messages are flushed when the
+     * queue runs empty, so bursts are written in as few packets as possible.
+     * Closes the socket once the queue is closed and drained.
+     */
+    private void writeLoop() {
+        try {
+            EncodedMessage msg;
+            while ((msg = outbound.take()) != null) {
+                try {
+                    msg.writeTo(writer);
+                } finally {
+                    msg.release();
+                }
+                if (outbound.isEmpty()) {
+                    writer.flush();
+                }
+            }
+            writer.flush();
+        } catch (IOException | InterruptedException ignored) {
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+            connectionLost();
+        }
+    }
+
+    /**
+     * Waits briefly for the binary protocol preamble. Anything else, or nothing
+     * within {@link ChatServer#PROTOCOL_DETECT_MS}, means the text protocol;
+     * the bytes read meanwhile are left in the stream. Also notes whether the
+     * client accepts compressed frames.
+     *
+     * @param in buffered input of the socket
+     * @return true if the client sent the binary preamble
+     * @throws IOException if reading fails
+     */
+    private boolean detectBinary(InputStream in) throws IOException {
+        if (ChatServer.PROTOCOL_DETECT_MS <= 0) {
+            return false;
+        }
+        in.mark(Frame.MAGIC.length);
+        socket.setSoTimeout((int) ChatServer.PROTOCOL_DETECT_MS);
+        try {
+            for (int i = 0; i < Frame.MAGIC.length - 1; i++) {
+                if (in.read() != (Frame.MAGIC[i] & 0xff)) {
+                    in.reset();
+                    return false;
+                }
+            }
+            int version = in.read();
+            if (version != Frame.MAGIC[Frame.MAGIC.length - 1] && version != Frame.VERSION_DEFLATE) {
+                in.reset();
+                return false;
+            }
+            compress = version == Frame.VERSION_DEFLATE && ChatServer.COMPRESSION_THRESHOLD > 0;
+            return true;
+        } catch (SocketTimeoutException e) {
+            in.reset();
+            return false;
+        } finally {
+            socket.setSoTimeout(0);
+        }
+    }
+
+    /**
+     * Reads and handles binary frames until the client quits or the connection drops.
+     *
+     * @param in input of the socket, positioned after the preamble
+     * @return true if the client quit or broke the protocol (e.g. sent a compressed frame without
+     *         having negotiated deflate), false if the connection dropped
+     */
+    private boolean readFrames(DataInputStream in) throws IOException, InterruptedException {
+        byte[] payload = new byte[1024];
+        while (true) {
+            int type = in.read();
+            if (type < 0) {
+                return false;
+            }
+            byte flags = in.readByte();
+            in.readInt();   // sequence number
+            int length = in.readInt();
+            if (length < 0 || length > Frame.MAX_PAYLOAD) {
+                return true;
+            }
+            if (length > payload.length) {
+                payload = new byte[Math.max(length, payload.length * 2)];
+            }
+            in.readFully(payload, 0, length);
+            boolean compressed = (flags & Frame.COMPRESSED) != 0;
+            if (compressed && !compress) {
+                // deflate was not negotiated: a protocol violation, not something to inflate
+                return true;
+            }
+            String text = compressed
+                    ? Frame.inflate(payload, 0, length)
+                    : new String(payload, 0, length, StandardCharsets.UTF_8);
+            if (text == null || !handleFrame((byte) type, text)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Closes the socket once all queued output has been written by the writer
+     * thread, or immediately if there is none or the client is a slow consumer.
+     */
+    @Override
+    protected void closeConnection() throws IOException {
+        outbound.close();
+        if (writerThread == null || slowConsumer) {
+            socket.close();
+        }
+    }
+}
@@ -1,16 +1,25 @@
 package server;
 
-import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Worker thread responsible for broadcasting messages to all connected clients.
- * Messages are taken from a shared queue and sent to each client in the list.
+ * Messages are taken from a shared queue, encoded once and the same encoded
+ * bytes are queued for each client in the list. The worker stops when it
+ * takes {@link #STOP}, after everything queued before it.
  */
 public class BroadcastWorker implements Runnable {
 
-    /** List of currently connected clients. */
-    private final List<ClientHandler> clients;
+    /** Number of server-wide announcements broadcast. */
+    private static final LongAdder BROADCASTS =
+            Metrics.counter("server_broadcasts_total", "Announcements broadcast to all clients");
+
+    /** Queued to stop the worker; recognized by identity, not by its text. */
+    public static final String STOP = new String("/stop");
+
+    /** Registry of currently connected clients. */
+    private final ClientRegistry clients;
 
     /** Queue holding messages to be broadcast to all clients. */
     private final LinkedBlockingQueue<String> broadcastQueue;
@@ -18,17 +27,17 @@ public class BroadcastWorker implements Runnable {
     /**
      * Constructs a BroadcastWorker.
      *
-     * @param clients        list of connected clients to broadcast messages to
+     * @param clients        registry of connected clients to broadcast messages to
      * @param broadcastQueue queue from which messages will be taken for broadcasting
      */
-    public BroadcastWorker(List<ClientHandler> clients, LinkedBlockingQueue<String> broadcastQueue) {
+    public BroadcastWorker(ClientRegistry clients, LinkedBlockingQueue<String> broadcastQueue) {
         this.clients = clients;
         this.broadcastQueue = broadcastQueue;
     }
 
     /**
-     * Continuously takes messages from the broadcast queue and sends them
-     * to all connected clients. If the thread is interrupted, it prints the stack trace.
+     * Continuously takes messages from the broadcast queue, encodes each one
+     * once and sends it to all connected clients. If the thread is interrupted, it prints the stack trace.
      */
     @Override
     public void run() {
@@ -36,11 +45,19 @@ public class BroadcastWorker implements Runnable {
             while (true) {
                 // Wait for a message to be available in the queue
                 String msg = broadcastQueue.take();
+                if (msg == STOP) {
+                    return;
+                }
 
-                // Send the message to all clients
+                // Encode once, share the bytes with all clients
+                EncodedMessage encoded = ChatServer.BROADCAST_DIRECT_BUFFERS
+                        ? EncodedMessage.direct(msg)
+                        : EncodedMessage.of(msg);
                 for (ClientHandler client : clients) {
-                    client.sendMessage(msg);
+                    client.send(encoded);
                 }
+                encoded.release();
+                BROADCASTS.increment();
             }
         } catch (InterruptedException e) {
             // Thread was interrupted; handle or log as needed
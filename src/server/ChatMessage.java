@@ -0,0 +1,145 @@
+package server;
+
+/**
+ * An immutable chat message addressed to a room, or a server event that is
+ * only logged (no room).
+ * <p>
+ * The display line and its encoded bytes are computed at most once and shared
+ * by every recipient.
+ * </p>
+ */
+public final class ChatMessage {
+
+    /** Creation time (ms since epoch). */
+    private final long timestamp;
+
+    /** Name of the sender, null for server notices. */
+    private final String sender;
+
+    /** Name of the target room, null for logged events. */
+    private final String room;
+
+    /** Message text. */
+    private final String text;
+
+    /** Time (System.nanoTime) the message was created, for latency metrics; 0 if not sampled. */
+    private final long createdNanos = Metrics.start();
+
+    /** Display line, computed lazily. */
+    private volatile String line;
+
+    /** Encoded display line, computed lazily. */
+    private volatile EncodedMessage encoded;
+
+    /**
+     * Constructs a message.
+     *
+     * @param sender name of the sender, null for server notices
+     * @param room   name of the target room
+     * @param text   message text
+     */
+    public ChatMessage(String sender, String room, String text) {
+        this(System.currentTimeMillis(), sender, room, text);
+    }
+
+    /**
+     * Constructs a message with a given creation time, e.g. when read back from storage.
+     *
+     * @param timestamp creation time (ms since epoch)
+     * @param sender    name of the sender, null for server notices
+     * @param room      name of the target room, null for logged events
+     * @param text      message text
+     */
+    public ChatMessage(long timestamp, String sender, String room, String text) {
+        this.timestamp = timestamp;
+        this.sender = sender;
+        this.room = room;
+        this.text = text;
+    }
+
+    /**
+     * Creates a server notice for a room.
+     *
+     * @param room room name
+     * @param text notice text
+     * @return the message
+     */
+    public static ChatMessage notice(String room, String text) {
+        return new ChatMessage(null, room, text);
+    }
+
+    /**
+     * Creates an event that is only logged, e.g. "alice connected.".
+     *
+     * @param user user the event is about, may be null
+     * @param text event text, logged as is
+     * @return the message
+     */
+    public static ChatMessage event(String user, String text) {
+        return new ChatMessage(user, null, text);
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns the time (System.nanoTime) the message was created, 0 if its latency is not sampled.
+     */
+    public long getCreatedNanos() {
+        return createdNanos;
+    }
+
+    /**
+     * Returns the line shown to clients, e.g. "alice: hi" in the default
+     * room or "[#dev] alice: hi" in other rooms. Events are shown as their text.
+     */
+    public String getLine() {
+        String result = line;
+        if (result == null) {
+            if (room == null) {
+                result = text;
+            } else {
+                StringBuilder sb = new StringBuilder();
+                if (!RoomRegistry.DEFAULT_ROOM.equals(room)) {
+                    sb.append("[#").append(room).append("] ");
+                }
+                if (sender != null) {
+                    sb.append(sender).append(": ");
+                }
+                result = sb.append(text).toString();
+            }
+            line = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the display line encoded for the wire, encoding it only once.
+     */
+    public EncodedMessage getEncoded() {
+        EncodedMessage result = encoded;
+        if (result == null) {
+            result = EncodedMessage.of(getLine());
+            encoded = result;
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return getLine();
+    }
+}
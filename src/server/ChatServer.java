@@ -1,18 +1,31 @@
 package server;
 
+import javax.management.JMException;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Properties;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A multi-threaded chat server that accepts client connections, broadcasts messages,
  * logs chat activity, monitors client inactivity and filters banned words.
+ * <p>
+ * The server shuts down gracefully on SIGTERM/SIGINT or the admin command
+ * "shutdown": it stops accepting connections and client messages, delivers
+ * and logs everything already accepted, tells the clients and closes their
+ * connections, all within {@link #SHUTDOWN_TIMEOUT_MS}. In drain mode (admin
+ * command "drain") it only refuses new connections, so that clients move to
+ * other nodes before this one is stopped.
+ * </p>
  */
 public class ChatServer {
 
@@ -22,56 +35,359 @@ public class ChatServer {
     /** Time limit (in milliseconds) for client inactivity before disconnecting. */
     public static long INACTIVITY_LIMIT_MS;
 
+    /** Resolution (ms) of the timeout watcher's timer wheel. */
+    public static long TIMEOUT_TICK_MS = 10;
+
+    /** Silence (ms) after which a client is pinged, 0 disables the heartbeat. */
+    public static long HEARTBEAT_INTERVAL_MS;
+
+    /** Time (ms) a client has to answer a ping before its connection is closed. */
+    public static long HEARTBEAT_TIMEOUT_MS = 10_000;
+
+    /** Time (ms) to wait for a binary protocol preamble before greeting a client in text, 0 serves only text. */
+    public static long PROTOCOL_DETECT_MS = 100;
+
+    /** Smallest frame payload (bytes) sent compressed to binary clients that accept it, 0 disables compression. */
+    public static int COMPRESSION_THRESHOLD = 0;
+
+    /** Number of recent messages kept per room. */
+    public static int HISTORY_SIZE = 100;
+
+    /** Number of recent messages sent to a client joining a room, 0 disables backfill. */
+    public static int HISTORY_BACKFILL = 10;
+
+    /** Where the logger writes: "text" (logs/chat.log), "store" (message store) or "both". */
+    public static String LOG_TARGET = "text";
+
+    /** Directory of the message store. */
+    public static String MESSAGE_STORE_DIR = "data/messages";
+
+    /** Size (bytes) at which a message store segment is rolled over. */
+    public static long MESSAGE_STORE_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    /** Number of message store segments kept, the oldest are deleted beyond it; 0 keeps all of them. */
+    public static int MESSAGE_STORE_MAX_SEGMENTS = 16;
+
+    /** Time (ms) a dropped client's session is kept for resumption, 0 disables resumption. */
+    public static long RECONNECT_GRACE_MS;
+
+    /** Maximum number of missed messages kept per detached session. */
+    public static int RECONNECT_BUFFER_MESSAGES = 256;
+
     /** Maximum size (in bytes) of the log file. */
     public static long LOG_MAX_SIZE;
 
-    /** Thread-safe list of currently connected clients. */
-    private final List<ClientHandler> clients = new CopyOnWriteArrayList<>();
+    /** Number of rotated log segments kept next to the log file. */
+    public static int LOG_MAX_SEGMENTS = 10;
+
+    /** Whether rotated log segments are gzip-compressed. */
+    public static boolean LOG_COMPRESS_ROTATED = true;
+
+    /** Uncommitted log bytes after which a batch is committed even under load. */
+    public static long LOG_FLUSH_BYTES = 64 * 1024;
+
+    /** Time (ms) after which a batch is committed even under load. */
+    public static long LOG_FLUSH_INTERVAL_MS = 200;
+
+    /** Durability of a log commit: fsync per batch if true, otherwise only flush to the OS. */
+    public static boolean LOG_FSYNC;
+
+    /** Whether banned words also match without diacritics ("sproste" for "sprosté"). */
+    public static boolean BANWORDS_FOLD_DIACRITICS = true;
+
+    /** What to do with a message containing a banned word: "block" or "mask". */
+    public static String BANWORDS_ACTION = "block";
+
+    /** Number of room broadcast workers, 0 means one per available core. */
+    public static int ROOM_BROADCAST_WORKERS;
+
+    /** Transport used for client connections: "classic" (thread per connection) or "nio". */
+    public static String TRANSPORT;
+
+    /** Number of NIO reactor threads, 0 means one per available core. */
+    public static int NIO_REACTOR_THREADS;
+
+    /** Kind of threads used for client handlers and workers: "platform" or "virtual". */
+    public static String THREAD_MODE;
+
+    /** Maximum number of messages queued for one client. */
+    public static int OUTBOUND_QUEUE_CAPACITY = 1024;
+
+    /** What happens when a client's outbound queue is full. */
+    public static OutboundQueue.OverflowPolicy OUTBOUND_OVERFLOW_POLICY =
+            OutboundQueue.OverflowPolicy.DROP_OLDEST;
+
+    /** Whether broadcasts are encoded into pooled direct buffers (useful with NIO). */
+    public static boolean BROADCAST_DIRECT_BUFFERS;
+
+    /** Sustained number of messages per second accepted from one client, 0 disables the limit. */
+    public static double RATE_LIMIT_PER_SEC;
+
+    /** Number of messages a client may send at once before its rate limit applies. */
+    public static int RATE_LIMIT_BURST = 10;
+
+    /** What happens to a client's message over its rate limit. */
+    public static RateLimiter.Action RATE_LIMIT_ACTION = RateLimiter.Action.DROP;
+
+    /** Sustained number of messages per second accepted from all clients together, 0 disables the limit. */
+    public static double GLOBAL_RATE_LIMIT_PER_SEC;
+
+    /** Number of messages all clients together may send at once before the global limit applies. */
+    public static int GLOBAL_RATE_LIMIT_BURST = 1000;
+
+    /** What happens to a message over the global rate limit. */
+    public static RateLimiter.Action GLOBAL_RATE_LIMIT_ACTION = RateLimiter.Action.DELAY;
+
+    /**
+     * Maximum number of messages waiting in each broadcast queue. When a queue is full, a client's
+     * chat message is refused (the client is told and its input paused briefly) and announcements
+     * are dropped; only messages relayed from cluster peers wait for room.
+     */
+    public static int BROADCAST_QUEUE_CAPACITY = 10_000;
+
+    /** Latency of one in this many operations is measured, 1 measures all, 0 none; counters are always kept. */
+    public static int METRICS_LATENCY_SAMPLING = 8;
+
+    /** Port of the HTTP endpoint serving /metrics, 0 disables it. */
+    public static int METRICS_HTTP_PORT;
+
+    /** Address the metrics HTTP endpoint listens on; loopback unless configured otherwise. */
+    public static String METRICS_HTTP_BIND = "127.0.0.1";
+
+    /** Whether the metrics are registered as an MBean. */
+    public static boolean METRICS_JMX = true;
+
+    /** Port of the node-to-node bus, 0 runs the server on its own. */
+    public static int CLUSTER_PORT;
+
+    /** Bus addresses ("host:port", comma-separated) of all other nodes of the cluster. */
+    public static String CLUSTER_PEERS = "";
+
+    /** Name of this node, unique in the cluster; empty means "node-" and the bus port. */
+    public static String CLUSTER_NODE_ID = "";
+
+    /** Number of published events kept for peers that are behind or reconnecting. */
+    public static int CLUSTER_BUFFER_EVENTS = 100_000;
+
+    /** Time (ms) between attempts to connect to a peer. */
+    public static long CLUSTER_RECONNECT_MS = 1000;
+
+    /** Text log written by the logger. */
+    public static String LOG_FILE = LoggerWorker.LOG_FILE;
+
+    /** Time (ms) a graceful shutdown may take; connections still open then are closed at once. */
+    public static long SHUTDOWN_TIMEOUT_MS = 10_000;
+
+    /** Window (ms) in which presence announcements beyond the threshold are summarized, 0 disables it. */
+    public static long PRESENCE_WINDOW_MS = 1000;
+
+    /** Presence announcements (joins, leaves, name changes) broadcast individually per window. */
+    public static int PRESENCE_THRESHOLD = 20;
+
+    /** Registry of currently connected clients. */
+    private final ClientRegistry clients = new ClientRegistry();
 
     /** Queue for broadcasting messages to all clients. */
-    private final LinkedBlockingQueue<String> broadcastQueue = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<String> broadcastQueue = new LinkedBlockingQueue<>(BROADCAST_QUEUE_CAPACITY);
+
+    /** Summarizes bursts of joins, leaves and name changes, null before the server started. */
+    private volatile PresenceCoalescer presence;
 
     /** Queue for logging messages. */
-    private final LinkedBlockingQueue<String> logQueue = new LinkedBlockingQueue<>();
+    private final LinkedBlockingQueue<ChatMessage> logQueue = new LinkedBlockingQueue<>();
+
+    /** Chat rooms and their sharded broadcast queues. */
+    private final RoomRegistry rooms = new RoomRegistry(ROOM_BROADCAST_WORKERS, BROADCAST_QUEUE_CAPACITY);
+
+    /** Limit on the messages of all clients together, null if disabled. */
+    private final RateLimiter ingestLimiter = GLOBAL_RATE_LIMIT_PER_SEC > 0
+            ? new RateLimiter(GLOBAL_RATE_LIMIT_PER_SEC, GLOBAL_RATE_LIMIT_BURST)
+            : null;
+
+    /** Filter for banned words, replaced as a whole when the file is reloaded. */
+    private volatile WordFilter wordFilter;
 
-    /** Filter for banned words */
-    private WordFilter wordFilter;
+    /** Watcher disconnecting inactive clients. */
+    private TimeoutWatcher timeoutWatcher;
+
+    /** Watcher reloading the banned words file. */
+    private BanwordsWatcher banwordsWatcher;
+
+    /** Commands clients can use. */
+    private final CommandRegistry commands = ClientHandler.builtInCommands();
+
+    /** Persistent message store, null if the logger writes only the text log. */
+    private MessageStore messageStore;
+
+    /** HTTP endpoint serving the metrics, null if disabled. */
+    private MetricsHttpEndpoint metricsEndpoint;
+
+    /** Bus to the other nodes of the cluster, null if the server runs on its own. */
+    private ClusterBus cluster;
+
+    /** Threads of the broadcast worker, the room broadcast workers and the logger, in stopping order. */
+    private final List<Thread> workers = new ArrayList<>();
+
+    /** Thread of the timeout watcher. */
+    private Thread timeoutThread;
+
+    /** Listening socket of the classic transport, null until opened. */
+    private volatile ServerSocket serverSocket;
+
+    /** NIO transport, null with the classic one. */
+    private volatile NioTransport nioTransport;
+
+    /** Set once new connections are refused. */
+    private volatile boolean draining;
+
+    /** Set once the shutdown began; lines from clients are no longer accepted. */
+    private volatile boolean closing;
+
+    /** Guards against shutting down more than once. */
+    private final AtomicBoolean shutdown = new AtomicBoolean();
 
     /**
      * Application entry point.
+     *
+     * @param args optional path of the configuration file, "config/server.properties" by default
      */
     public static void main(String[] args) {
-        loadConfig();
-        new ChatServer().start();
+        loadConfig(args.length > 0 ? args[0] : "config/server.properties");
+        ChatServer server = new ChatServer();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::shutdown, "ShutdownHook"));
+        server.start();
     }
 
     /**
-     * Loads server configuration from "config/server.properties".
+     * Loads server configuration from a properties file.
+     *
+     * @param path path of the file
      */
-    private static void loadConfig() {
+    private static void loadConfig(String path) {
         Properties props = new Properties();
-        try (FileInputStream fis = new FileInputStream("config/server.properties")) {
+        try (FileInputStream fis = new FileInputStream(path)) {
             props.load(fis);
-
-            PORT = Integer.parseInt(props.getProperty("port", "12345").trim());
-            INACTIVITY_LIMIT_MS =
-                    Long.parseLong(props.getProperty("inactivity_limit_ms", "300000").trim());
-            LOG_MAX_SIZE =
-                    Long.parseLong(props.getProperty("log_max_size", "5000000").trim());
-
         } catch (IOException e) {
             System.out.println("Cannot load config file, using defaults.");
             PORT = 12345;
             INACTIVITY_LIMIT_MS = 5 * 60 * 1000;
             LOG_MAX_SIZE = 5_000_000;
+            TRANSPORT = "classic";
+            NIO_REACTOR_THREADS = 0;
+            THREAD_MODE = "platform";
+            return;
+        }
+        try {
+            applyConfig(props);
+        } catch (IllegalArgumentException e) {
+            // a malformed number or an unknown policy name; no half-applied file
+            System.out.println("Invalid value in config file (" + e.getMessage() + "), using defaults.");
+            applyConfig(new Properties());
         }
     }
 
+    /**
+     * Sets the configuration from properties, using the default of every missing key.
+     *
+     * @param props loaded properties
+     * @throws IllegalArgumentException if a value cannot be parsed
+     */
+    private static void applyConfig(Properties props) {
+        PORT = Integer.parseInt(props.getProperty("port", "12345").trim());
+        INACTIVITY_LIMIT_MS =
+                Long.parseLong(props.getProperty("inactivity_limit_ms", "300000").trim());
+        LOG_MAX_SIZE =
+                Long.parseLong(props.getProperty("log_max_size", "5000000").trim());
+        TIMEOUT_TICK_MS =
+                Long.parseLong(props.getProperty("timeout_tick_ms", "10").trim());
+        HEARTBEAT_INTERVAL_MS =
+                Long.parseLong(props.getProperty("heartbeat_interval_ms", "0").trim());
+        HEARTBEAT_TIMEOUT_MS =
+                Long.parseLong(props.getProperty("heartbeat_timeout_ms", "10000").trim());
+        LOG_TARGET = props.getProperty("log_target", "text").trim().toLowerCase(Locale.ROOT);
+        MESSAGE_STORE_DIR = props.getProperty("message_store_dir", "data/messages").trim();
+        MESSAGE_STORE_SEGMENT_BYTES =
+                Long.parseLong(props.getProperty("message_store_segment_bytes", "67108864").trim());
+        MESSAGE_STORE_MAX_SEGMENTS =
+                Math.max(0, Integer.parseInt(props.getProperty("message_store_max_segments", "16").trim()));
+        PROTOCOL_DETECT_MS =
+                Long.parseLong(props.getProperty("protocol_detect_ms", "100").trim());
+        COMPRESSION_THRESHOLD =
+                Math.max(0, Integer.parseInt(props.getProperty("compression_threshold", "0").trim()));
+        HISTORY_SIZE =
+                Math.max(0, Integer.parseInt(props.getProperty("history_size", "100").trim()));
+        HISTORY_BACKFILL =
+                Math.max(0, Integer.parseInt(props.getProperty("history_backfill", "10").trim()));
+        RECONNECT_GRACE_MS =
+                Long.parseLong(props.getProperty("reconnect_grace_ms", "0").trim());
+        RECONNECT_BUFFER_MESSAGES =
+                Math.max(1, Integer.parseInt(props.getProperty("reconnect_buffer_messages", "256").trim()));
+        LOG_MAX_SEGMENTS =
+                Math.max(1, Integer.parseInt(props.getProperty("log_max_segments", "10").trim()));
+        LOG_COMPRESS_ROTATED =
+                Boolean.parseBoolean(props.getProperty("log_compress_rotated", "true").trim());
+        LOG_FLUSH_BYTES =
+                Long.parseLong(props.getProperty("log_flush_bytes", "65536").trim());
+        LOG_FLUSH_INTERVAL_MS =
+                Long.parseLong(props.getProperty("log_flush_interval_ms", "200").trim());
+        LOG_FSYNC = "fsync".equalsIgnoreCase(props.getProperty("log_durability", "flush").trim());
+        BANWORDS_FOLD_DIACRITICS =
+                Boolean.parseBoolean(props.getProperty("banwords_fold_diacritics", "true").trim());
+        BANWORDS_ACTION = props.getProperty("banwords_action", "block").trim().toLowerCase(Locale.ROOT);
+        ROOM_BROADCAST_WORKERS =
+                Integer.parseInt(props.getProperty("room_broadcast_workers", "0").trim());
+        TRANSPORT = props.getProperty("transport", "classic").trim().toLowerCase(Locale.ROOT);
+        NIO_REACTOR_THREADS =
+                Integer.parseInt(props.getProperty("nio_reactor_threads", "0").trim());
+        THREAD_MODE = props.getProperty("thread_mode", "platform").trim().toLowerCase(Locale.ROOT);
+        OUTBOUND_QUEUE_CAPACITY =
+                Integer.parseInt(props.getProperty("outbound_queue_capacity", "1024").trim());
+        OUTBOUND_OVERFLOW_POLICY = OutboundQueue.OverflowPolicy.parse(
+                props.getProperty("outbound_overflow_policy", "drop_oldest"));
+        BROADCAST_DIRECT_BUFFERS =
+                Boolean.parseBoolean(props.getProperty("broadcast_direct_buffers", "false").trim());
+        BROADCAST_QUEUE_CAPACITY =
+                Math.max(1, Integer.parseInt(props.getProperty("broadcast_queue_capacity", "10000").trim()));
+        METRICS_LATENCY_SAMPLING =
+                Math.max(0, Integer.parseInt(props.getProperty("metrics_latency_sampling", "8").trim()));
+        METRICS_HTTP_PORT =
+                Integer.parseInt(props.getProperty("metrics_http_port", "0").trim());
+        METRICS_HTTP_BIND = props.getProperty("metrics_http_bind", "127.0.0.1").trim();
+        METRICS_JMX =
+                Boolean.parseBoolean(props.getProperty("metrics_jmx", "true").trim());
+        RATE_LIMIT_PER_SEC =
+                Double.parseDouble(props.getProperty("rate_limit_per_sec", "0").trim());
+        RATE_LIMIT_BURST =
+                Math.max(1, Integer.parseInt(props.getProperty("rate_limit_burst", "10").trim()));
+        RATE_LIMIT_ACTION = RateLimiter.Action.parse(props.getProperty("rate_limit_action", "drop"));
+        GLOBAL_RATE_LIMIT_PER_SEC =
+                Double.parseDouble(props.getProperty("global_rate_limit_per_sec", "0").trim());
+        GLOBAL_RATE_LIMIT_BURST =
+                Math.max(1, Integer.parseInt(props.getProperty("global_rate_limit_burst", "1000").trim()));
+        GLOBAL_RATE_LIMIT_ACTION =
+                RateLimiter.Action.parse(props.getProperty("global_rate_limit_action", "delay"));
+        LOG_FILE = props.getProperty("log_file", LoggerWorker.LOG_FILE).trim();
+        CLUSTER_PORT =
+                Integer.parseInt(props.getProperty("cluster_port", "0").trim());
+        CLUSTER_PEERS = props.getProperty("cluster_peers", "").trim();
+        CLUSTER_NODE_ID = props.getProperty("cluster_node_id", "").trim();
+        CLUSTER_BUFFER_EVENTS =
+                Math.max(1, Integer.parseInt(props.getProperty("cluster_buffer_events", "100000").trim()));
+        CLUSTER_RECONNECT_MS =
+                Math.max(10, Long.parseLong(props.getProperty("cluster_reconnect_ms", "1000").trim()));
+        SHUTDOWN_TIMEOUT_MS =
+                Math.max(0, Long.parseLong(props.getProperty("shutdown_timeout_ms", "10000").trim()));
+        PRESENCE_WINDOW_MS =
+                Math.max(0, Long.parseLong(props.getProperty("presence_window_ms", "1000").trim()));
+        PRESENCE_THRESHOLD =
+                Math.max(0, Integer.parseInt(props.getProperty("presence_threshold", "20").trim()));
+    }
+
     /**
      * Starts the chat server.
      */
     public void start() {
-        System.out.println("Chat server started on port " + PORT);
+        System.out.println("Chat server started on port " + PORT + " (" + THREAD_MODE + " threads)");
 
         // Load banned words
         try {
@@ -85,30 +401,384 @@ public class ChatServer {
         }
 
         // Start worker threads
-        new Thread(new BroadcastWorker(clients, broadcastQueue), "BroadcastWorker").start();
-        new Thread(new LoggerWorker(logQueue), "LoggerWorker").start();
-        new Thread(new TimeoutWatcher(clients, broadcastQueue, logQueue), "TimeoutWatcher").start();
+        workers.add(startThread(new BroadcastWorker(clients, broadcastQueue), "BroadcastWorker"));
+        for (int i = 0; i < rooms.getShards().size(); i++) {
+            workers.add(startThread(new RoomBroadcastWorker(rooms, rooms.getShards().get(i)),
+                    "RoomBroadcastWorker-" + i));
+        }
+        if (!"text".equals(LOG_TARGET)) {
+            try {
+                messageStore = new MessageStore(Path.of(MESSAGE_STORE_DIR), MESSAGE_STORE_SEGMENT_BYTES,
+                        MESSAGE_STORE_MAX_SEGMENTS);
+                System.out.println("Message store opened, next sequence number " + messageStore.getNextSeq());
+            } catch (IOException e) {
+                System.err.println("Cannot open message store: " + e.getMessage());
+            }
+        }
+        Path logFile = "store".equals(LOG_TARGET) && messageStore != null ? null : Path.of(LOG_FILE);
+        workers.add(startThread(new LoggerWorker(logQueue, logFile, LOG_MAX_SIZE, messageStore), "LoggerWorker"));
+        timeoutWatcher = new TimeoutWatcher(logQueue);
+        timeoutThread = startThread(timeoutWatcher, "TimeoutWatcher");
+
+        startCluster();
+        presence = new PresenceCoalescer(timeoutWatcher, cluster, broadcastQueue,
+                PRESENCE_WINDOW_MS, PRESENCE_THRESHOLD);
+        startMetrics();
+
+        banwordsWatcher = new BanwordsWatcher(this, Path.of("config/banwords.txt"));
+        startDaemon(banwordsWatcher, "BanwordsWatcher");
+        startDaemon(new AdminConsole(this), "AdminConsole");
 
         // Accept clients
-        try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            while (true) {
-                Socket clientSocket = serverSocket.accept();
+        if ("nio".equals(TRANSPORT)) {
+            acceptNio();
+        } else {
+            acceptClassic();
+        }
+    }
+
+    /**
+     * Opens the bus to the other nodes, if a cluster port is configured.
+     */
+    private void startCluster() {
+        if (CLUSTER_PORT <= 0) {
+            return;
+        }
+        String nodeId = CLUSTER_NODE_ID.isEmpty() ? "node-" + CLUSTER_PORT : CLUSTER_NODE_ID;
+        try {
+            cluster = new ClusterBus(nodeId, CLUSTER_PORT, CLUSTER_BUFFER_EVENTS, clients, rooms, broadcastQueue);
+            cluster.start(ClusterBus.parsePeers(CLUSTER_PEERS));
+            System.out.println("Cluster node " + nodeId + " listening on port " + CLUSTER_PORT
+                    + ", peers: " + (CLUSTER_PEERS.isEmpty() ? "none" : CLUSTER_PEERS));
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Cannot start cluster bus: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Registers the gauges of the server's queues and connections and starts
+     * exporting the metrics over JMX and HTTP, as configured.
+     */
+    private void startMetrics() {
+        Metrics.gauge("connections", "Connected clients, including detached sessions", clients::size);
+        Metrics.gauge("rooms", "Existing rooms", rooms::size);
+        Metrics.gauge("broadcast_queue_depth", "Announcements waiting to be broadcast", broadcastQueue::size);
+        Metrics.gauge("room_queue_depth", "Room messages waiting to be broadcast, all shards", () -> {
+            long depth = 0;
+            for (LinkedBlockingQueue<ChatMessage> shard : rooms.getShards()) {
+                depth += shard.size();
+            }
+            return depth;
+        });
+        Metrics.gauge("log_queue_depth", "Messages and events waiting to be logged", logQueue::size);
+        if (cluster != null) {
+            Metrics.gauge("cluster_peers_connected", "Peers this node is connected to", cluster::getConnectedPeerCount);
+            Metrics.gauge("cluster_remote_users", "Users on other nodes", cluster::getRemoteUserCount);
+        }
 
-                ClientHandler handler =
-                        new ClientHandler(clientSocket, this, clients, broadcastQueue, logQueue);
+        if (METRICS_JMX) {
+            try {
+                MetricsMBean.register();
+            } catch (JMException e) {
+                System.err.println("Cannot register metrics MBean: " + e.getMessage());
+            }
+        }
+        if (METRICS_HTTP_PORT > 0) {
+            try {
+                metricsEndpoint = new MetricsHttpEndpoint(METRICS_HTTP_BIND, METRICS_HTTP_PORT);
+                metricsEndpoint.start();
+                System.out.println("Metrics served on http://" + METRICS_HTTP_BIND + ":" + METRICS_HTTP_PORT
+                        + "/metrics");
+            } catch (IOException e) {
+                System.err.println("Cannot start metrics endpoint: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Accepts clients with blocking sockets, one thread per connection.
+     */
+    private void acceptClassic() {
+        try (ServerSocket listener = new ServerSocket(PORT)) {
+            serverSocket = listener;
+            while (!draining) {
+                Socket clientSocket = listener.accept();
+
+                BlockingClientHandler handler =
+                        new BlockingClientHandler(clientSocket, this, clients, broadcastQueue, logQueue);
 
                 clients.add(handler);
-                new Thread(handler, "ClientHandler-" + clientSocket.getPort()).start();
+                startThread(handler, "ClientHandler-" + clientSocket.getPort());
             }
         } catch (IOException e) {
-            e.printStackTrace();
+            if (!draining) {
+                e.printStackTrace();
+            }
         }
     }
 
+    /**
+     * Accepts clients with the non-blocking selector-based transport.
+     */
+    private void acceptNio() {
+        try {
+            nioTransport = new NioTransport(this, clients, broadcastQueue, logQueue, NIO_REACTOR_THREADS);
+            if (!draining) {
+                nioTransport.serve(PORT);
+            }
+        } catch (IOException e) {
+            if (!draining) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Switches to drain mode: new connections are refused, connected clients
+     * are served as before.
+     */
+    public void drain() {
+        if (draining) {
+            return;
+        }
+        draining = true;
+        try {
+            ServerSocket listener = serverSocket;
+            if (listener != null) {
+                listener.close();
+            }
+        } catch (IOException ignored) {
+        }
+        NioTransport transport = nioTransport;
+        if (transport != null) {
+            transport.stopAccepting();
+        }
+        System.out.println("Draining: new connections are refused, " + clients.size() + " clients connected");
+    }
+
+    /**
+     * Shuts the server down gracefully, within {@link #SHUTDOWN_TIMEOUT_MS}:
+     * <ol>
+     *     <li>refuses new connections and new lines from clients,</li>
+     *     <li>broadcasts everything already queued,</li>
+     *     <li>tells the clients and closes their connections after their queued
+     *     messages; every connection is flushed and closed by its own writer
+     *     thread or reactor, so they close in parallel,</li>
+     *     <li>stops the NIO reactor threads,</li>
+     *     <li>writes and commits the queued log messages and closes the message store.</li>
+     * </ol>
+     * Called by the shutdown hook; does nothing the second time.
+     */
+    public void shutdown() {
+        if (!shutdown.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long deadline = start + SHUTDOWN_TIMEOUT_MS;
+        System.out.println("Shutting down, " + clients.size() + " clients connected");
+        drain();
+        closing = true;
+
+        // Everything accepted so far is queued for its recipients
+        List<LinkedBlockingQueue<ChatMessage>> shards = rooms.getShards();
+        boolean delivered = true;
+        if (!workers.isEmpty()) {
+            delivered &= stopWorker(workers.get(0), broadcastQueue, BroadcastWorker.STOP, deadline);
+            for (int i = 0; i < shards.size(); i++) {
+                delivered &= stopWorker(workers.get(i + 1), shards.get(i), RoomBroadcastWorker.STOP, deadline);
+            }
+        }
+
+        List<ClientHandler> connected = new ArrayList<>(clients.size());
+        for (ClientHandler client : clients) {
+            connected.add(client);
+        }
+        for (ClientHandler client : connected) {
+            client.closeForShutdown("SERVER: Server is shutting down.");
+        }
+        int forced = 0;
+        for (ClientHandler client : connected) {
+            try {
+                while (client.isConnectionOpen() && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(5);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                deadline = 0;
+            }
+            if (client.isConnectionOpen()) {
+                client.closeSocket();
+                forced++;
+            }
+        }
+
+        NioTransport transport = nioTransport;
+        if (transport != null && !transport.stop(deadline)) {
+            System.err.println("NIO reactor threads did not stop in time");
+        }
+        if (cluster != null) {
+            cluster.close();
+        }
+        if (timeoutThread != null) {
+            timeoutThread.interrupt();
+        }
+        boolean logged = workers.isEmpty()
+                || stopWorker(workers.get(workers.size() - 1), logQueue, LoggerWorker.STOP, deadline);
+        if (messageStore != null) {
+            try {
+                messageStore.close();
+            } catch (IOException e) {
+                System.err.println("Cannot close message store: " + e.getMessage());
+            }
+        }
+        if (metricsEndpoint != null) {
+            metricsEndpoint.stop();
+        }
+
+        System.out.printf("Shutdown complete in %d ms: %d clients notified, %d closed at the deadline%s%s%n",
+                System.currentTimeMillis() - start, connected.size(), forced,
+                delivered ? "" : ", broadcasts not finished",
+                logged ? "" : ", " + logQueue.size() + " log messages not written");
+    }
+
+    /**
+     * Queues the stop marker of a worker and waits until the worker has
+     * processed everything before it and ended.
+     *
+     * @return false if the deadline passed first
+     */
+    private static <T> boolean stopWorker(Thread worker, BlockingQueue<T> queue, T stop, long deadline) {
+        try {
+            if (!queue.offer(stop, Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+            worker.join(Math.max(1, deadline - System.currentTimeMillis()));
+            return !worker.isAlive();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Returns true once the server shuts down and no longer accepts lines from clients.
+     */
+    public boolean isClosing() {
+        return closing;
+    }
+
+    /**
+     * Returns true once new connections are refused.
+     */
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Starts a task on a new thread. Depending on {@link #THREAD_MODE} this is
+     * a platform thread or a virtual thread, so that blocking handlers stay
+     * cheap even with a very large number of idle connections.
+     *
+     * @param task task to run
+     * @param name name of the thread
+     * @return the started thread
+     */
+    public Thread startThread(Runnable task, String name) {
+        Thread.Builder builder = "virtual".equals(THREAD_MODE)
+                ? Thread.ofVirtual()
+                : Thread.ofPlatform();
+        return builder.name(name).start(task);
+    }
+
+    /**
+     * Starts a helper task on a daemon platform thread that does not keep the server alive.
+     *
+     * @param task task to run
+     * @param name name of the thread
+     */
+    private void startDaemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     /**
      * Returns the word filter.
      */
     public WordFilter getWordFilter() {
         return wordFilter;
     }
+
+    /**
+     * Replaces the word filter. The new filter must be fully built.
+     *
+     * @param wordFilter new filter
+     */
+    public void setWordFilter(WordFilter wordFilter) {
+        this.wordFilter = wordFilter;
+    }
+
+    /**
+     * Returns the registry of connected clients.
+     */
+    public ClientRegistry getClients() {
+        return clients;
+    }
+
+    /**
+     * Returns the chat rooms.
+     */
+    public RoomRegistry getRooms() {
+        return rooms;
+    }
+
+    /**
+     * Returns the watcher disconnecting inactive clients, null before the server started.
+     */
+    public TimeoutWatcher getTimeoutWatcher() {
+        return timeoutWatcher;
+    }
+
+    /**
+     * Returns the coalescer of join, leave and name change announcements,
+     * null before the server started.
+     */
+    public PresenceCoalescer getPresence() {
+        return presence;
+    }
+
+    /**
+     * Returns the commands clients can use; more can be registered.
+     */
+    public CommandRegistry getCommands() {
+        return commands;
+    }
+
+    /**
+     * Returns the limit on the messages of all clients together, null if it is disabled.
+     */
+    public RateLimiter getIngestLimiter() {
+        return ingestLimiter;
+    }
+
+    /**
+     * Returns the bus to the other nodes, null if the server runs on its own.
+     */
+    public ClusterBus getCluster() {
+        return cluster;
+    }
+
+    /**
+     * Returns the persistent message store, null if it is not enabled.
+     */
+    public MessageStore getMessageStore() {
+        return messageStore;
+    }
+
+    /**
+     * Returns the watcher reloading the banned words file.
+     */
+    public BanwordsWatcher getBanwordsWatcher() {
+        return banwordsWatcher;
+    }
 }
@@ -1,58 +1,196 @@
 package server;
 
-import java.io.*;
+import java.io.IOException;
 import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Base64;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Handles communication with a single chat client.
+ * <p>
+ * When resumption is enabled, a client that asked for it receives a session
+ * token ("/session &lt;token&gt;") once it picked a name. A text client asks by
+ * sending "/session" before its name, so that clients unaware of resumption
+ * never see the token as a chat line; the binary protocol has a frame of its
+ * own for the token, so binary clients always get one.
+ * </p>
+ * <p>
+ * If the connection of a client with a token drops without /quit, the handler
+ * stays registered for {@link ChatServer#RECONNECT_GRACE_MS} and keeps the
+ * messages it misses in a bounded buffer. A new connection sending
+ * "/resume &lt;token&gt;" instead of a name takes over the name and room and gets
+ * the missed messages replayed, without any leave or join announcement.
+ * </p>
+ * <p>
+ * Every line except heartbeat replies counts against the client's own rate
+ * limit and the server-wide one ({@link RateLimiter}); a line over a limit is
+ * dropped, delayed, let through with a warning or gets the client disconnected,
+ * as configured.
+ * </p>
+ * <p>
+ * A client may speak the text protocol (one line per message) or the binary
+ * {@link Frame} protocol; which one is detected from the first bytes it sends.
+ * A binary client may also accept compressed frames; messages of at least
+ * {@link ChatServer#COMPRESSION_THRESHOLD} bytes are then sent compressed.
+ * </p>
+ * <p>
+ * This class holds everything independent of the transport; reading and
+ * writing the connection is done by {@link BlockingClientHandler} or
+ * {@link NioClientHandler}.
+ * </p>
  */
-public class ClientHandler implements Runnable {
+public class ClientHandler {
+
+    /** Source of session tokens. */
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /** Number of lines received from all clients. */
+    private static final LongAdder LINES_RECEIVED =
+            Metrics.counter("lines_received_total", "Lines (or text frames) received from clients");
+
+    /** Number of chat messages accepted for broadcasting. */
+    private static final LongAdder MESSAGES_PUBLISHED =
+            Metrics.counter("messages_published_total", "Chat messages accepted for broadcasting");
+
+    /** Time of checking a message for banned words (and masking it). */
+    private static final LatencyHistogram FILTER_NS =
+            Metrics.histogram("filter_ns", "Time to check a message for banned words (ns)");
+
+    /** Time of handing a message to its broadcast shard. */
+    private static final LatencyHistogram ENQUEUE_NS =
+            Metrics.histogram("enqueue_ns", "Time to queue a message for broadcasting (ns)");
+
+    /** Number of chat messages refused because their broadcast shard queue was full. */
+    private static final LongAdder MESSAGES_REJECTED =
+            Metrics.counter("messages_rejected_total", "Chat messages refused because broadcasting lags behind");
+
+    /** Number of announcements dropped because the broadcast queue was full. */
+    private static final LongAdder ANNOUNCEMENTS_DROPPED =
+            Metrics.counter("announcements_dropped_total", "Announcements dropped, broadcast queue full");
+
+    /** Time (ms) a client's input is not read after its message was refused by a full queue. */
+    private static final long BACKPRESSURE_PAUSE_MS = 100;
+
+    /** Longest allowed user name (chars). */
+    static final int MAX_NAME_LENGTH = 64;
+
+    /** Source of session ids. */
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+
+    /** Session id, unique within the server process. */
+    private final long id = NEXT_ID.incrementAndGet();
 
     /** The socket associated with this client. */
-    private final Socket socket;
+    protected final Socket socket;
 
     /** Reference to chat server (shared services, config). */
-    private final ChatServer server;
+    protected final ChatServer server;
 
-    /** Shared list of all connected clients. */
-    private final List<ClientHandler> clients;
+    /** Registry of all connected clients. */
+    private final ClientRegistry clients;
 
     /** Queue used to broadcast messages to all clients. */
     private final LinkedBlockingQueue<String> broadcastQueue;
 
-    /** Queue used for logging messages. */
-    private final LinkedBlockingQueue<String> logQueue;
+    /** Queue used for logging messages and events. */
+    private final LinkedBlockingQueue<ChatMessage> logQueue;
+
+    /** Messages waiting to be written to the client. */
+    protected final OutboundQueue<EncodedMessage> outbound =
+            new OutboundQueue<>(ChatServer.OUTBOUND_QUEUE_CAPACITY, ChatServer.OUTBOUND_OVERFLOW_POLICY);
+
+    /** Set when the client is disconnected because it does not read fast enough. */
+    protected volatile boolean slowConsumer;
 
-    /** Reader for incoming messages from the client. */
-    private BufferedReader reader;
+    /** Whether the client speaks the binary frame protocol instead of text lines. */
+    protected volatile boolean binary;
 
-    /** Writer for sending messages to the client. */
-    private PrintWriter writer;
+    /** Whether the client accepts compressed frames and compression is enabled. */
+    protected volatile boolean compress;
+
+    /** Set once the protocol is known and the client was greeted; messages sent before are dropped. */
+    private volatile boolean ready;
 
     /** Name of the client. */
     protected String name;
 
-    /** Timestamp of the client's last activity (ms since epoch). */
+    /** Timestamp of the client's last activity ({@link System#nanoTime()}). */
     private volatile long lastActivityTime;
 
+    /** Timestamp of the last line of any kind received from the client ({@link System#nanoTime()}). */
+    private volatile long lastSeenTime;
+
+    /** Set once the client answered a ping; clients that never did are not dropped for missing heartbeats. */
+    private volatile boolean answersPings;
+
+    /** Room the client is currently in, null before it picked a name. */
+    private volatile Room room;
+
+    /** Timers of this client in the timeout watcher, null if not watched. */
+    private volatile TimeoutWatcher.Watch watch;
+
+    /** Guards against disconnecting the client more than once. */
+    private final AtomicBoolean disconnected = new AtomicBoolean();
+
+    /** Whether a text client asked for a session token with "/session" before picking its name. */
+    private volatile boolean wantsSession;
+
+    /** Token for resuming the session, null if resumption is disabled or not wanted, or no name was picked. */
+    private volatile String sessionToken;
+
+    /** Set once the connection dropped and the session waits to be resumed. */
+    private volatile boolean detached;
+
+    /** Messages missed while detached, oldest first. Guarded by this. */
+    private ArrayDeque<EncodedMessage> missed;
+
+    /** Number of missed messages dropped because the buffer was full. Guarded by this. */
+    private long missedDropped;
+
+    /** Client that resumed this session; later messages are passed on to it. Guarded by this. */
+    private ClientHandler successor;
+
+    /** Pending expiry of the detached session. */
+    private volatile TimerWheel.Timeout graceTimeout;
+
+    /** Limit on the messages of this client, null if disabled. */
+    private final RateLimiter limiter = ChatServer.RATE_LIMIT_PER_SEC > 0
+            ? new RateLimiter(ChatServer.RATE_LIMIT_PER_SEC, ChatServer.RATE_LIMIT_BURST)
+            : null;
+
+    /** Set once the client went over a rate limit, until a line is within the limits again. Reading thread only. */
+    private boolean throttled;
+
     /**
      * Constructs a new ClientHandler.
      */
     public ClientHandler(
             Socket socket,
             ChatServer server,
-            List<ClientHandler> clients,
+            ClientRegistry clients,
             LinkedBlockingQueue<String> broadcastQueue,
-            LinkedBlockingQueue<String> logQueue) {
+            LinkedBlockingQueue<ChatMessage> logQueue) {
 
         this.socket = socket;
         this.server = server;
         this.clients = clients;
         this.broadcastQueue = broadcastQueue;
         this.logQueue = logQueue;
-        this.lastActivityTime = System.currentTimeMillis();
+        this.lastActivityTime = System.nanoTime();
+        this.lastSeenTime = lastActivityTime;
+    }
+
+    public long getId() {
+        return id;
     }
 
     public String getName() {
@@ -63,91 +201,562 @@ public class ClientHandler implements Runnable {
         return lastActivityTime;
     }
 
-    @Override
-    public void run() {
-        try {
-            reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            writer = new PrintWriter(socket.getOutputStream(), true);
+    public long getLastSeenTime() {
+        return lastSeenTime;
+    }
+
+    /**
+     * Returns true if the client answered a ping at least once.
+     */
+    public boolean answersPings() {
+        return answersPings;
+    }
 
-            writer.println("Enter your name:");
-            name = reader.readLine();
+    /**
+     * Returns the session token, or null if the session cannot be resumed.
+     */
+    public String getSessionToken() {
+        return sessionToken;
+    }
 
-            broadcastQueue.put(name + " joined the chat.");
-            logQueue.put(name + " connected.");
+    /**
+     * Returns true while the connection is lost and the session waits to be resumed.
+     */
+    public boolean isDetached() {
+        return detached;
+    }
 
-            String message;
-            while ((message = reader.readLine()) != null) {
-                lastActivityTime = System.currentTimeMillis();
+    /**
+     * Returns true once the client has been disconnected.
+     */
+    public boolean isDisconnected() {
+        return disconnected.get();
+    }
 
-                // QUIT
-                if (message.equalsIgnoreCase("/quit")) {
-                    writer.println("/disconnect");
-                    break;
-                }
+    /**
+     * Attaches the timers the timeout watcher keeps for this client.
+     */
+    void setWatch(TimeoutWatcher.Watch watch) {
+        this.watch = watch;
+    }
 
-                // WHO
-                if (message.equals("/who")) {
-                    writer.println("Users online: " + clients.size());
-                    continue;
-                }
+    /**
+     * Processes a binary frame received from the client. Unknown frame types are ignored.
+     *
+     * @param type    frame type
+     * @param payload decoded payload
+     * @return false if the client asked to quit, true otherwise
+     * @throws InterruptedException if interrupted while enqueueing
+     */
+    protected boolean handleFrame(byte type, String payload) throws InterruptedException {
+        return switch (type) {
+            case Frame.TEXT -> handleLine(payload);
+            case Frame.PONG -> handleLine("/pong");
+            default -> true;
+        };
+    }
 
-                // CHANGE NAME
-                if (message.startsWith("/name ")) {
-                    changeName(message.substring(6));
-                    continue;
-                }
+    /**
+     * Called once the connection is ready and its protocol known; answers the
+     * binary handshake and asks the client for its name.
+     */
+    protected void onConnect() {
+        ready = true;
+        if (binary) {
+            sendControl(Frame.HELLO, compress ? "chat/1 deflate" : "chat/1");
+        }
+        TimeoutWatcher timeoutWatcher = server.getTimeoutWatcher();
+        if (timeoutWatcher != null) {
+            timeoutWatcher.register(this);
+        }
+        sendMessage("Enter your name:");
+    }
+
+    /**
+     * Processes a single line received from the client. The first line is
+     * taken as the client's name, every following line is either a command
+     * or a chat message. Shared by the blocking and the NIO transport.
+     *
+     * @param message line received from the client (without line terminator)
+     * @return false if the client asked to quit, true otherwise
+     * @throws InterruptedException if interrupted while enqueueing
+     */
+    protected boolean handleLine(String message) throws InterruptedException {
+        lastSeenTime = System.nanoTime();
+        LINES_RECEIVED.increment();
+
+        // HEARTBEAT REPLY (proves the connection is alive, is not user activity)
+        if (message.equals("/pong")) {
+            answersPings = true;
+            return true;
+        }
+
+        // SHUTDOWN (nothing new is accepted, so that everything accepted can be delivered)
+        if (server.isClosing()) {
+            sendMessage("SERVER: Server is shutting down, message not sent.");
+            return true;
+        }
+
+        // RATE LIMITS
+        RateLimiter.Action action = throttle();
+        if (action == RateLimiter.Action.DROP) {
+            return true;
+        }
+        if (action == RateLimiter.Action.DISCONNECT) {
+            return false;
+        }
+
+        if (name == null) {
+            String requested = message.trim();
+            if (requested.startsWith("/resume ")) {
+                resume(requested.substring(8).trim());
+                return true;
+            }
+            if (requested.equals("/session")) {
+                wantsSession = true;
+                return true;
+            }
+            if (requested.isEmpty() || requested.startsWith("/")) {
+                sendMessage("Enter your name:");
+                return true;
+            }
+            if (requested.length() > MAX_NAME_LENGTH) {
+                sendMessage("SERVER: Name is too long (at most " + MAX_NAME_LENGTH
+                        + " characters). Enter another name:");
+                return true;
+            }
+            if (isRemoteUser(requested) || !clients.claimName(this, requested)) {
+                sendMessage("SERVER: Name " + requested + " is already taken. Enter another name:");
+                return true;
+            }
+            name = requested;
+
+            if (ChatServer.RECONNECT_GRACE_MS > 0 && (binary || wantsSession)) {
+                byte[] token = new byte[18];
+                RANDOM.nextBytes(token);
+                sessionToken = Base64.getUrlEncoder().encodeToString(token);
+                clients.addSession(this, sessionToken);
+                sendControl(Frame.SESSION, sessionToken);
+            }
+            ClusterBus cluster = server.getCluster();
+            if (cluster != null) {
+                cluster.userJoined(name);
+            }
+            PresenceCoalescer presence = server.getPresence();
+            if (presence != null && presence.holdJoined(name)) {
+                // the others see it in a summary, the user right away
+                sendMessage(name + " joined the chat.");
+            } else {
+                announce(name + " joined the chat.");
+            }
+            logQueue.put(ChatMessage.event(name, name + " connected."));
+            room = server.getRooms().join(RoomRegistry.DEFAULT_ROOM, this);
+            sendHistory(ChatServer.HISTORY_BACKFILL);
+            return true;
+        }
+
+        lastActivityTime = System.nanoTime();
+
+        // COMMAND
+        if (message.startsWith("/")) {
+            CommandRegistry.Entry command = server.getCommands().find(message);
+            if (command != null) {
+                return command.command().execute(this, command.arguments(message));
+            }
+        }
+
+        // FILTER MESSAGE (one filter instance for the whole check, it may be reloaded meanwhile)
+        WordFilter filter = server.getWordFilter();
+        long start = Metrics.start();
+        boolean banned = filter.containsBannedWord(message);
+        FILTER_NS.recordSince(start);
+        if (banned) {
+            if (!"mask".equals(ChatServer.BANWORDS_ACTION)) {
+                sendMessage("SERVER: Your message contains a banned word.");
+                logQueue.put(ChatMessage.event(name, "BLOCKED message from " + name + ": " + message));
+                return true;
+            }
+            logQueue.put(ChatMessage.event(name, "MASKED message from " + name + ": " + message));
+            message = filter.mask(message);
+        }
 
+        // NORMAL MESSAGE (to the current room)
+        ChatMessage chatMessage = new ChatMessage(name, room.getName(), message);
+        start = Metrics.start();
+        boolean queued = publish(chatMessage);
+        ENQUEUE_NS.recordSince(start);
+        if (!queued) {
+            // broadcasting lags behind: refuse the line and stop reading for a while
+            sendMessage("SERVER: Server is busy, message not sent.");
+            pauseReading(TimeUnit.MILLISECONDS.toNanos(BACKPRESSURE_PAUSE_MS));
+            return true;
+        }
+        MESSAGES_PUBLISHED.increment();
+        logQueue.put(chatMessage);
+        return true;
+    }
 
-                // BANWORDS COMMAND
-                if (message.equals("/banwords")) {
-                    writer.println("Banned words:");
-                    for (String word : server.getWordFilter().getBannedWords()) {
-                        writer.println(" - " + word);
-                    }
-                    continue;
+    /**
+     * Applies the client's and the server-wide rate limit to a received line.
+     * Only the first line over a limit is logged and reported to the client,
+     * until the client is within the limits again.
+     *
+     * @return action applied to a line over a limit, null if the line is within the limits
+     * @throws InterruptedException if interrupted while delaying or logging
+     */
+    private RateLimiter.Action throttle() throws InterruptedException {
+        long now = System.nanoTime();
+        String limit = "client limit";
+        RateLimiter.Action action = ChatServer.RATE_LIMIT_ACTION;
+        long wait = limiter == null ? 0 : acquire(limiter, action, now);
+        if (wait == 0) {
+            RateLimiter ingest = server.getIngestLimiter();
+            limit = "server limit";
+            action = ChatServer.GLOBAL_RATE_LIMIT_ACTION;
+            wait = ingest == null ? 0 : acquire(ingest, action, now);
+        }
+        if (wait == 0) {
+            throttled = false;
+            return null;
+        }
+
+        boolean first = !throttled;
+        throttled = true;
+        if (first || action == RateLimiter.Action.DISCONNECT) {
+            String who = name != null ? name : "client #" + id;
+            logQueue.put(ChatMessage.event(name,
+                    "THROTTLED " + who + " (" + limit + ", " + action.name().toLowerCase(Locale.ROOT) + ")"));
+        }
+        switch (action) {
+            case DROP -> {
+                if (first) {
+                    sendMessage("SERVER: You are sending messages too fast, messages are dropped.");
                 }
-                // HELP
-                if (message.equalsIgnoreCase("/help")) {
-                    writer.println("===== Available commands =====");
-                    writer.println("/help        - show this help");
-                    writer.println("/who         - show number of online users");
-                    writer.println("/name <name> - change your nickname");
-                    writer.println("/banwords    - show banned words");
-                    writer.println("/quit        - disconnect from chat");
-                    writer.println("==========================");
-                    continue;
+            }
+            case WARN -> {
+                if (first) {
+                    sendMessage("SERVER: You are sending messages too fast.");
                 }
+            }
+            case DELAY -> pauseReading(wait);
+            case DISCONNECT -> {
+                sendMessage("SERVER: Disconnected for sending messages too fast.");
+                sendControl(Frame.DISCONNECT, null);
+            }
+        }
+        return action;
+    }
 
-                // SHOW BANNED WORDS
-                if (message.equalsIgnoreCase("/banwords")) {
-                    writer.println("=== Banned words ===");
+    /**
+     * Takes a token from a limiter; with {@link RateLimiter.Action#DELAY} the
+     * token is borrowed, so the line is accepted after the returned wait.
+     *
+     * @return 0 if the line is within the limit, otherwise the time (ns) until it would be
+     */
+    private static long acquire(RateLimiter limiter, RateLimiter.Action action, long now) {
+        return action == RateLimiter.Action.DELAY ? limiter.reserve(now) : limiter.tryAcquire(now);
+    }
 
-                    if (server.getWordFilter().getBannedWords().isEmpty()) {
-                        writer.println("(no banned words configured)");
-                    } else {
-                        for (String word : server.getWordFilter().getBannedWords()) {
-                            writer.println(" - " + word);
-                        }
-                    }
+    /**
+     * Stops handling the client's input for a while. The blocking transport
+     * simply sleeps; meanwhile TCP flow control slows the sender down.
+     *
+     * @param nanos pause (ns)
+     * @throws InterruptedException if interrupted while sleeping
+     */
+    protected void pauseReading(long nanos) throws InterruptedException {
+        TimeUnit.NANOSECONDS.sleep(nanos);
+    }
 
-                    writer.println("====================");
-                    continue;
+    /**
+     * Creates the table of the built-in commands.
+     *
+     * @return command registry with the built-in commands
+     */
+    public static CommandRegistry builtInCommands() {
+        CommandRegistry commands = new CommandRegistry();
+        commands.register("/help", "/help", "show this help", (client, args) -> {
+            client.sendMessage("===== Available commands =====");
+            for (CommandRegistry.Entry entry : client.server.getCommands().getEntries()) {
+                client.sendMessage(String.format("%-12s - %s", entry.usage(), entry.description()));
+            }
+            client.sendMessage("==========================");
+            return true;
+        });
+        commands.register("/who", "/who", "show number of online users", (client, args) -> {
+            ClusterBus cluster = client.server.getCluster();
+            int remote = cluster == null ? 0 : cluster.getRemoteUserCount();
+            client.sendMessage("Users online: " + (client.clients.size() + remote));
+            return true;
+        });
+        commands.register("/name", "/name <name>", "change your nickname", (client, args) -> {
+            if (args.isEmpty()) {
+                client.sendMessage("SERVER: Usage: /name <name>");
+            } else {
+                client.changeName(args);
+            }
+            return true;
+        });
+        commands.register("/msg", "/msg <user> <text>", "private message", (client, args) -> {
+            client.sendPrivate(args);
+            return true;
+        });
+        commands.register("/join", "/join <room>", "switch to a room", (client, args) -> {
+            client.joinRoom(args);
+            return true;
+        });
+        commands.register("/leave", "/leave", "go back to #" + RoomRegistry.DEFAULT_ROOM, (client, args) -> {
+            client.joinRoom(RoomRegistry.DEFAULT_ROOM);
+            return true;
+        });
+        commands.register("/rooms", "/rooms", "list rooms", (client, args) -> {
+            client.sendMessage("Rooms:");
+            for (Room r : client.server.getRooms().getRooms()) {
+                client.sendMessage(" - #" + r.getName() + " (" + r.size() + ")");
+            }
+            return true;
+        });
+        commands.register("/history", "/history [n]", "show recent messages of the room", (client, args) -> {
+            try {
+                int count = args.isEmpty() ? ChatServer.HISTORY_SIZE : Integer.parseInt(args);
+                if (!client.sendHistory(count)) {
+                    client.sendMessage("SERVER: No messages in #" + client.room.getName() + " yet.");
                 }
-
-                // FILTER MESSAGE
-                if (server.getWordFilter().containsBannedWord(message)) {
-                    writer.println("SERVER: Your message contains a banned word.");
-                    logQueue.put("BLOCKED message from " + name + ": " + message);
-                    continue;
+            } catch (NumberFormatException e) {
+                client.sendMessage("SERVER: Usage: /history [n]");
+            }
+            return true;
+        });
+        commands.register("/banwords", "/banwords", "show banned words", (client, args) -> {
+            client.sendMessage("=== Banned words ===");
+            Set<String> bannedWords = client.server.getWordFilter().getBannedWords();
+            if (bannedWords.isEmpty()) {
+                client.sendMessage("(no banned words configured)");
+            } else {
+                for (String word : bannedWords) {
+                    client.sendMessage(" - " + word);
                 }
+            }
+            client.sendMessage("====================");
+            return true;
+        });
+        commands.register("/quit", "/quit", "disconnect from chat", (client, args) -> {
+            client.sendControl(Frame.DISCONNECT, null);
+            return false;
+        });
+        return commands;
+    }
 
-                // NORMAL MESSAGE
-                broadcastQueue.put(name + ": " + message);
-                logQueue.put(name + ": " + message);
+    /**
+     * Sends a private message directly to one user. The message does not pass
+     * through the broadcast queue; it is put into the recipient's outbound
+     * queue by this client's thread, which keeps the sender's messages in order.
+     *
+     * @param args recipient name and text, separated by a space
+     * @throws InterruptedException if interrupted while logging
+     */
+    public void sendPrivate(String args) throws InterruptedException {
+        int space = args.indexOf(' ');
+        String text = space < 0 ? "" : args.substring(space + 1).trim();
+        if (text.isEmpty()) {
+            sendMessage("SERVER: Usage: /msg <user> <text>");
+            return;
+        }
+        String recipient = args.substring(0, space);
+
+        WordFilter filter = server.getWordFilter();
+        if (filter.containsBannedWord(text)) {
+            if (!"mask".equals(ChatServer.BANWORDS_ACTION)) {
+                sendMessage("SERVER: Your message contains a banned word.");
+                logQueue.put(ChatMessage.event(name,
+                        "BLOCKED private message from " + name + " to " + recipient + ": " + text));
+                return;
             }
-        } catch (IOException | InterruptedException ignored) {
-        } finally {
+            text = filter.mask(text);
+        }
+
+        if (!clients.sendTo(recipient, EncodedMessage.of("[private] " + name + ": " + text))) {
+            sendMessage("SERVER: User " + recipient + " is not online.");
+            return;
+        }
+        sendMessage("[private to " + recipient + "] " + name + ": " + text);
+        logQueue.put(ChatMessage.event(name, "PRIVATE " + name + " -> " + recipient + ": " + text));
+    }
+
+    /**
+     * Takes over a detached session: its name, room and missed messages.
+     *
+     * @param token session token sent by the client
+     * @throws InterruptedException if interrupted while logging
+     */
+    private void resume(String token) throws InterruptedException {
+        ClientHandler previous = clients.findBySession(token);
+        if (previous == null || previous == this || !previous.handOver(this)) {
+            sendMessage("SERVER: Session cannot be resumed. Enter your name:");
+            return;
+        }
+        name = previous.name;
+        sessionToken = token;
+        clients.replace(previous, this);
+
+        Room previousRoom = previous.room;
+        RoomRegistry rooms = server.getRooms();
+        room = rooms.join(previousRoom.getName(), this);
+        rooms.leave(previousRoom, previous);
+
+        logQueue.put(ChatMessage.event(name, name + " resumed the session."));
+    }
+
+    /**
+     * Hands a detached session over to the client resuming it: replays the
+     * missed messages to it and passes on anything that still arrives here.
+     *
+     * @param next client resuming the session
+     * @return false if the session is not detached or has already expired
+     */
+    synchronized boolean handOver(ClientHandler next) {
+        if (!detached || !disconnected.compareAndSet(false, true)) {
+            return false;
+        }
+        TimerWheel.Timeout timeout = graceTimeout;
+        if (timeout != null) {
+            timeout.cancel();
+        }
+
+        next.sendMessage("SERVER: Welcome back, " + name + ". " + missed.size() + " missed messages follow.");
+        if (missedDropped > 0) {
+            next.sendMessage("SERVER: " + missedDropped + " older messages were lost.");
+        }
+        for (EncodedMessage msg : missed) {
+            next.send(msg);
+            msg.release();
+        }
+        missed = null;
+        successor = next;
+        return true;
+    }
+
+    /**
+     * Moves the client from its current room to another one and tells both rooms.
+     *
+     * @param roomName name of the room to join
+     * @throws InterruptedException if interrupted while broadcasting
+     */
+    public void joinRoom(String roomName) throws InterruptedException {
+        if (!RoomRegistry.isValidName(roomName)) {
+            sendMessage("SERVER: Invalid room name.");
+            return;
+        }
+        RoomRegistry rooms = server.getRooms();
+        Room previous = room;
+        if (previous != null) {
+            if (previous.getName().equalsIgnoreCase(roomName)) {
+                sendMessage("SERVER: You are already in #" + previous.getName());
+                return;
+            }
+            rooms.leave(previous, this);
+            publish(ChatMessage.notice(previous.getName(), name + " left the room."));
+        }
+        room = rooms.join(roomName, this);
+        publish(ChatMessage.notice(room.getName(), name + " joined the room."));
+        sendHistory(ChatServer.HISTORY_BACKFILL);
+    }
+
+    /**
+     * Sends the recent messages of the current room, read from memory.
+     *
+     * @param count maximum number of messages
+     * @return false if there was nothing to send
+     */
+    private boolean sendHistory(int count) {
+        if (count <= 0) {
+            return false;
+        }
+        Room current = room;
+        List<ChatMessage> recent = current.getHistory().recent(count);
+        if (recent.isEmpty()) {
+            return false;
+        }
+        sendMessage("=== Last " + recent.size() + " messages in #" + current.getName() + " ===");
+        for (ChatMessage msg : recent) {
+            send(msg.getEncoded());
+        }
+        sendMessage("==========================");
+        return true;
+    }
+
+    /**
+     * Returns the room the client is in, null before it picked a name.
+     */
+    public Room getRoom() {
+        return room;
+    }
+
+    /**
+     * Called when the connection dropped without /quit. A client with a session
+     * token is detached and kept for the reconnect grace period; anyone else is
+     * disconnected right away.
+     */
+    protected void connectionLost() {
+        TimeoutWatcher timeoutWatcher = server.getTimeoutWatcher();
+        if (sessionToken == null || timeoutWatcher == null || disconnected.get()) {
             disconnect();
+            return;
+        }
+        synchronized (this) {
+            if (detached) {
+                return;
+            }
+            missed = new ArrayDeque<>();
+            detached = true;
+        }
+
+        TimeoutWatcher.Watch timers = watch;
+        if (timers != null) {
+            timers.cancel();
+        }
+        // Whatever was not written yet is missed as well
+        EncodedMessage msg;
+        while ((msg = outbound.poll()) != null) {
+            bufferMissed(msg);
+        }
+        try {
+            closeConnection();
+        } catch (IOException ignored) {
+        }
+        logQueue.offer(ChatMessage.event(name,
+                name + " lost connection, session kept for resumption."));
+        graceTimeout = timeoutWatcher.schedule(ChatServer.RECONNECT_GRACE_MS, this::disconnect);
+    }
+
+    /**
+     * Keeps a message for a detached session, or passes it on once the session
+     * was resumed. Takes over the caller's reference.
+     */
+    private synchronized void bufferMissed(EncodedMessage msg) {
+        if (successor != null) {
+            successor.send(msg);
+            msg.release();
+        } else if (missed == null) {
+            msg.release();
+        } else {
+            if (missed.size() >= ChatServer.RECONNECT_BUFFER_MESSAGES) {
+                missed.poll().release();
+                missedDropped++;
+            }
+            missed.add(msg);
+        }
+    }
+
+    /**
+     * Releases the messages buffered for a detached session.
+     */
+    private synchronized void releaseMissed() {
+        if (missed != null) {
+            for (EncodedMessage msg : missed) {
+                msg.release();
+            }
+            missed = null;
         }
     }
 
@@ -155,25 +764,160 @@ public class ClientHandler implements Runnable {
      * Disconnects the client.
      */
     public void disconnect() {
+        if (!disconnected.compareAndSet(false, true)) {
+            return;
+        }
+        TimeoutWatcher.Watch timers = watch;
+        if (timers != null) {
+            timers.cancel();
+        }
         try {
             clients.remove(this);
+            Room current = room;
+            if (current != null) {
+                server.getRooms().leave(current, this);
+            }
             if (name != null) {
-                broadcastQueue.put(name + " left the chat.");
-                logQueue.put(name + " disconnected.");
+                ClusterBus cluster = server.getCluster();
+                if (cluster != null) {
+                    cluster.userLeft(name);
+                }
+                PresenceCoalescer presence = server.getPresence();
+                if (presence == null || !presence.holdLeft(name)) {
+                    announce(name + " left the chat.");
+                }
+                logQueue.put(ChatMessage.event(name, name + " disconnected."));
             }
-            if (socket != null) socket.close();
+            closeConnection();
         } catch (IOException | InterruptedException ignored) {
+        } finally {
+            releaseMissed();
+        }
+    }
+
+    /**
+     * Closes the connection because the server shuts down. The notice and the
+     * messages already queued are still written; there is no leave
+     * announcement, and the client may reconnect to another server.
+     *
+     * @param notice last line sent to the client
+     */
+    void closeForShutdown(String notice) {
+        if (!disconnected.compareAndSet(false, true)) {
+            return;
+        }
+        TimeoutWatcher.Watch timers = watch;
+        if (timers != null) {
+            timers.cancel();
+        }
+        try {
+            clients.remove(this);
+            if (name != null) {
+                ClusterBus cluster = server.getCluster();
+                if (cluster != null) {
+                    cluster.userLeft(name);
+                }
+                logQueue.offer(ChatMessage.event(name, name + " disconnected (server shutdown)."));
+            }
+            if (!detached) {
+                sendMessage(notice);
+            }
+            closeConnection();
+        } catch (IOException ignored) {
+        } finally {
+            releaseMissed();
+        }
+    }
+
+    /**
+     * Returns true while the socket is open.
+     */
+    boolean isConnectionOpen() {
+        return socket != null && !socket.isClosed();
+    }
+
+    /**
+     * Closes the socket right away, whatever is still queued.
+     */
+    void closeSocket() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (IOException ignored) {
         }
     }
 
     /**
-     * Sends a message directly to this client.
+     * Closes the underlying connection. Messages that are already queued are
+     * still written first, unless the client is a slow consumer.
+     *
+     * @throws IOException if closing fails
+     */
+    protected void closeConnection() throws IOException {
+        outbound.close();
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /**
+     * Queues a message for this client. Never blocks; if the client's outbound
+     * queue is full, the configured overflow policy applies.
      */
     public void sendMessage(String msg) {
-        if (writer != null) {
-            writer.println(msg);
+        send(EncodedMessage.of(msg));
+    }
+
+    /**
+     * Queues an already encoded message for this client. The same instance can
+     * be passed to many clients; it is retained until written.
+     *
+     * @param msg encoded message
+     */
+    public void send(EncodedMessage msg) {
+        if (detached) {
+            bufferMissed(msg.retain());
+            return;
+        }
+        if (!ready) {
+            return;
+        }
+        if (binary) {
+            msg = compress ? msg.asCompressedFrame() : msg.asFrame();
+        }
+        if (!outbound.offer(msg.retain())) {
+            msg.release();
+            slowConsumer = true;
+            disconnect();
+        }
+    }
+
+    /**
+     * Sends a control signal: its own frame type in the binary protocol,
+     * a "/..." line in the text protocol.
+     *
+     * @param type    frame type, e.g. {@link Frame#PING}
+     * @param payload payload, may be null
+     */
+    public void sendControl(byte type, String payload) {
+        if (detached) {
+            return;
+        }
+        if (binary) {
+            send(Frame.encode(type, payload));
+        } else {
+            sendMessage(Frame.toLine(type, payload));
         }
     }
+
+    /**
+     * Returns the number of messages dropped because this client read too slowly.
+     */
+    public long getDroppedMessages() {
+        return outbound.getDroppedCount();
+    }
+
     /**
      * Changes the client's name and broadcasts the change.
      *
@@ -181,8 +925,72 @@ public class ClientHandler implements Runnable {
      * @throws InterruptedException if interrupted while broadcasting
      */
     public void changeName(String newName) throws InterruptedException {
-        broadcastQueue.put(name + " is now known as " + newName);
+        newName = newName.trim();
+        if (newName.isEmpty()) {
+            return;
+        }
+        if (newName.length() > MAX_NAME_LENGTH) {
+            sendMessage("SERVER: Name is too long (at most " + MAX_NAME_LENGTH + " characters).");
+            return;
+        }
+        if (isRemoteUser(newName) || !clients.rename(this, name, newName)) {
+            sendMessage("SERVER: Name " + newName + " is already taken.");
+            return;
+        }
+        ClusterBus cluster = server.getCluster();
+        if (cluster != null) {
+            cluster.userRenamed(name, newName);
+        }
+        PresenceCoalescer presence = server.getPresence();
+        if (presence == null || !presence.holdRenamed(name, newName)) {
+            announce(name + " is now known as " + newName);
+        }
         name = newName;
     }
 
+    /**
+     * Queues a line for all clients, on this node and the other nodes of the
+     * cluster. Never waits: this may run on a reactor or the timeout watcher
+     * thread, so a line that does not fit into the full queue is dropped.
+     *
+     * @param text line to broadcast
+     */
+    private void announce(String text) {
+        if (!broadcastQueue.offer(text)) {
+            ANNOUNCEMENTS_DROPPED.increment();
+            return;
+        }
+        ClusterBus cluster = server.getCluster();
+        if (cluster != null) {
+            cluster.announce(text);
+        }
+    }
+
+    /**
+     * Queues a message for its room, on this node and the other nodes of the
+     * cluster. Never waits, for the same reason as {@link #announce(String)}.
+     *
+     * @param message message to broadcast
+     * @return false if the room's shard queue is full and the message was not queued
+     */
+    private boolean publish(ChatMessage message) {
+        if (!server.getRooms().offer(message)) {
+            MESSAGES_REJECTED.increment();
+            return false;
+        }
+        ClusterBus cluster = server.getCluster();
+        if (cluster != null) {
+            cluster.publish(message);
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if a user on another node of the cluster uses the name.
+     */
+    private boolean isRemoteUser(String requested) {
+        ClusterBus cluster = server.getCluster();
+        return cluster != null && cluster.isRemoteUser(requested);
+    }
+
 }
@@ -0,0 +1,179 @@
+package server;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of connected clients with O(1) lookup by session id and by nickname.
+ * <p>
+ * Backed by concurrent hash maps, so connects and disconnects do not copy any
+ * array. Nicknames are unique after normalization (trimmed, case-insensitive).
+ * Iteration is weakly consistent: it never throws and never blocks writers,
+ * which makes it a cheap snapshot for broadcasts.
+ * </p>
+ * <p>
+ * Clients whose connection dropped stay registered while their session can
+ * still be resumed; they buffer what they miss instead of writing it.
+ * </p>
+ */
+public class ClientRegistry implements Iterable<ClientHandler> {
+
+    /** Clients by session id. */
+    private final ConcurrentHashMap<Long, ClientHandler> byId = new ConcurrentHashMap<>();
+
+    /** Named clients by normalized nickname. */
+    private final ConcurrentHashMap<String, ClientHandler> byName = new ConcurrentHashMap<>();
+
+    /** Resumable clients by session token. */
+    private final ConcurrentHashMap<String, ClientHandler> bySession = new ConcurrentHashMap<>();
+
+    /**
+     * Normalizes a nickname for uniqueness checks and lookups.
+     *
+     * @param name nickname
+     * @return normalized nickname
+     */
+    public static String normalize(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Adds a newly connected client.
+     *
+     * @param client client to add
+     */
+    public void add(ClientHandler client) {
+        byId.put(client.getId(), client);
+    }
+
+    /**
+     * Removes a client and releases its nickname.
+     *
+     * @param client client to remove
+     */
+    public void remove(ClientHandler client) {
+        byId.remove(client.getId(), client);
+        String name = client.getName();
+        if (name != null) {
+            byName.remove(normalize(name), client);
+        }
+        String token = client.getSessionToken();
+        if (token != null) {
+            bySession.remove(token, client);
+        }
+    }
+
+    /**
+     * Makes a client resumable under a session token.
+     *
+     * @param client client owning the session
+     * @param token  session token
+     */
+    public void addSession(ClientHandler client, String token) {
+        bySession.put(token, client);
+    }
+
+    /**
+     * Returns the client owning a session token, or null.
+     */
+    public ClientHandler findBySession(String token) {
+        return bySession.get(token);
+    }
+
+    /**
+     * Hands the id slot, nickname and session of a detached client over to the
+     * client that resumed its session.
+     *
+     * @param previous detached client
+     * @param successor client that resumed the session
+     */
+    public void replace(ClientHandler previous, ClientHandler successor) {
+        byId.remove(previous.getId(), previous);
+        byId.put(successor.getId(), successor);
+        byName.replace(normalize(previous.getName()), previous, successor);
+        String token = previous.getSessionToken();
+        if (token != null) {
+            bySession.replace(token, previous, successor);
+        }
+    }
+
+    /**
+     * Reserves a nickname for a client.
+     *
+     * @param client client claiming the name
+     * @param name   nickname
+     * @return false if another client already uses the name
+     */
+    public boolean claimName(ClientHandler client, String name) {
+        ClientHandler owner = byName.putIfAbsent(normalize(name), client);
+        return owner == null || owner == client;
+    }
+
+    /**
+     * Atomically moves a client from one nickname to another. The new name is
+     * reserved before the old one is released, so no other client can grab it
+     * in between.
+     *
+     * @param client  client to rename
+     * @param oldName current nickname, may be null
+     * @param newName new nickname
+     * @return false if another client already uses the new name
+     */
+    public boolean rename(ClientHandler client, String oldName, String newName) {
+        if (!claimName(client, newName)) {
+            return false;
+        }
+        if (oldName != null && !normalize(oldName).equals(normalize(newName))) {
+            byName.remove(normalize(oldName), client);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the client using a nickname, or null.
+     */
+    public ClientHandler findByName(String name) {
+        return byName.get(normalize(name));
+    }
+
+    /**
+     * Returns the client with a session id, or null.
+     */
+    public ClientHandler findById(long id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Delivers a message straight to one client's outbound queue, without going
+     * through the broadcast queue. Messages sent by one thread to the same client
+     * arrive in the order they were sent.
+     *
+     * @param name nickname of the recipient
+     * @param msg  encoded message
+     * @return false if no client uses the name
+     */
+    public boolean sendTo(String name, EncodedMessage msg) {
+        ClientHandler recipient = findByName(name);
+        if (recipient == null || recipient.isDisconnected()) {
+            return false;
+        }
+        recipient.send(msg);
+        return true;
+    }
+
+    /**
+     * Returns the number of connected clients.
+     */
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Returns a weakly consistent iterator over all connected clients.
+     */
+    @Override
+    public Iterator<ClientHandler> iterator() {
+        return byId.values().iterator();
+    }
+}
@@ -0,0 +1,678 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Node-to-node bus joining several chat servers into one chat.
+ * <p>
+ * Every node publishes what its own clients do: room messages, announcements
+ * and joins, leaves and renames. Events are numbered per node and kept in a
+ * bounded ring; for each configured peer a sender thread connects to the peer
+ * and streams the ring to it. On every (re)connect the peer answers with the
+ * last number it has seen from this node, so nothing is sent twice and
+ * events that were in flight when a connection dropped are sent again.
+ * </p>
+ * <p>
+ * A receiving node identifies an event by the sending node, the node's start
+ * time (its epoch) and the number, and applies each event at most once, on
+ * one thread per sending node, in the order it was published; the messages of
+ * one sender therefore arrive in order on every node. Received events are not
+ * forwarded, so every node must list all other nodes as peers. Room messages
+ * go to the local members of the room, announcements to all local clients.
+ * </p>
+ * <p>
+ * The names used on other nodes are known from the join, leave and rename
+ * events and a full list sent on every connect; they count as taken for new
+ * names and are included in the number of online users. Two nodes accepting
+ * the same new name at the same moment is not prevented.
+ * </p>
+ */
+public class ClusterBus implements Closeable {
+
+    /** Message to a room: sender, room and text. */
+    public static final byte ROOM = 1;
+
+    /** Line for all clients: text. */
+    public static final byte ANNOUNCE = 2;
+
+    /** A user picked a name: sender. */
+    public static final byte JOIN = 3;
+
+    /** A user left: sender. */
+    public static final byte LEAVE = 4;
+
+    /** A user changed names: sender (old name) and text (new name). */
+    public static final byte RENAME = 5;
+
+    /** All names used on a node, one per line in text. Sent on connect with number 0. */
+    public static final byte USERS = 6;
+
+    /** First thing a node sends on a new connection. */
+    public static final String MAGIC = "chat-bus/1";
+
+    /** Largest accepted string on the bus (bytes). */
+    private static final int MAX_STRING = 1024 * 1024;
+
+    /** Events received from other nodes and applied. */
+    private static final LongAdder RECEIVED =
+            Metrics.counter("cluster_events_received_total", "Events received from other nodes and applied");
+
+    /** Events received more than once and discarded. */
+    private static final LongAdder DUPLICATES =
+            Metrics.counter("cluster_duplicates_total", "Events received from other nodes more than once");
+
+    /** Events sent to other nodes. */
+    private static final LongAdder SENT =
+            Metrics.counter("cluster_events_sent_total", "Events sent to other nodes");
+
+    /** Events a peer missed because they had left the ring before they could be sent. */
+    private static final LongAdder LOST =
+            Metrics.counter("cluster_events_lost_total", "Events not delivered to a peer that fell too far behind");
+
+    /**
+     * An event on the bus.
+     *
+     * @param type      event type, e.g. {@link #ROOM}
+     * @param seq       number of the event on the sending node, 0 for {@link #USERS}
+     * @param timestamp creation time (ms since epoch)
+     * @param sender    user name, may be null
+     * @param room      room name, may be null
+     * @param text      text, may be null
+     */
+    public record Event(byte type, long seq, long timestamp, String sender, String room, String text) {
+    }
+
+    /**
+     * State of another node as seen by this one.
+     */
+    private static final class Origin {
+
+        /** Start time of the node; a new one means the node restarted and numbers events from 1 again. */
+        long epoch;
+
+        /** Number of the last event applied. */
+        long lastSeq;
+
+        /** Normalized names used on the node. */
+        final Set<String> users = ConcurrentHashMap.newKeySet();
+
+        /** Open connections from the node. */
+        int links;
+    }
+
+    /**
+     * Sender of this node's events to one peer.
+     */
+    private final class Peer implements Runnable {
+
+        /** Address of the peer's bus port, resolved on every connect. */
+        private final InetSocketAddress address;
+
+        /** "host:port" of the peer, for messages. */
+        private final String label;
+
+        /** Whether a connection to the peer is established. */
+        private volatile boolean connected;
+
+        /** Number of the next event to send. */
+        private volatile long nextSeq;
+
+        /** Socket of the current connection, null if none. */
+        private volatile Socket socket;
+
+        Peer(InetSocketAddress address) {
+            this.address = address;
+            this.label = address.getHostString() + ":" + address.getPort();
+        }
+
+        @Override
+        public void run() {
+            while (!closed) {
+                try (Socket s = new Socket()) {
+                    socket = s;
+                    s.connect(new InetSocketAddress(address.getHostString(), address.getPort()),
+                            (int) Math.max(1000, ChatServer.CLUSTER_RECONNECT_MS));
+                    s.setTcpNoDelay(true);
+                    s.setKeepAlive(true);
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+                    out.writeUTF(MAGIC);
+                    out.writeUTF(nodeId);
+                    out.writeLong(epoch);
+                    out.flush();
+                    long seq = in.readLong() + 1;
+
+                    connected = true;
+                    System.out.println("Cluster: connected to " + label);
+                    write(out, new Event(USERS, 0, System.currentTimeMillis(), null, null, localUsers()));
+                    stream(out, seq);
+                } catch (IOException e) {
+                    if (connected) {
+                        System.out.println("Cluster: lost connection to " + label + " (" + e.getMessage() + ")");
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    connected = false;
+                    socket = null;
+                }
+                try {
+                    Thread.sleep(ChatServer.CLUSTER_RECONNECT_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Sends events from the given number on until the bus is closed,
+         * flushing whenever it has caught up.
+         */
+        private void stream(DataOutputStream out, long seq) throws IOException, InterruptedException {
+            nextSeq = seq;
+            while (!closed) {
+                Event event = poll(seq);
+                if (event == null) {
+                    out.flush();
+                    event = await(seq);
+                    if (event == null) {
+                        return;
+                    }
+                }
+                if (event.seq() > seq) {
+                    LOST.add(event.seq() - seq);
+                    System.out.println("Cluster: " + (event.seq() - seq) + " events for " + label
+                            + " were dropped from the buffer");
+                }
+                write(out, event);
+                SENT.increment();
+                seq = event.seq() + 1;
+                nextSeq = seq;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return label + (connected ? " connected, " + Math.max(0, lastPublished() + 1 - nextSeq) + " behind"
+                    : " not connected");
+        }
+    }
+
+    /** Name of this node, unique in the cluster. */
+    private final String nodeId;
+
+    /** Start time of this node, sent with its name. */
+    private final long epoch = System.currentTimeMillis();
+
+    /** Socket accepting connections of other nodes. */
+    private final ServerSocket serverSocket;
+
+    /** Local clients, for the list of names sent on connect. */
+    private final ClientRegistry clients;
+
+    /** Local rooms receiving the room messages of other nodes. */
+    private final RoomRegistry rooms;
+
+    /** Local queue receiving the announcements of other nodes. */
+    private final LinkedBlockingQueue<String> broadcastQueue;
+
+    /** Recently published events by number modulo its length. Guarded by this. */
+    private final Event[] ring;
+
+    /** Number of the next published event. Guarded by this. */
+    private long nextSeq = 1;
+
+    /** Other nodes by name. */
+    private final ConcurrentHashMap<String, Origin> origins = new ConcurrentHashMap<>();
+
+    /** Senders to the configured peers. */
+    private final List<Peer> peers = new CopyOnWriteArrayList<>();
+
+    /** Sender threads and connection threads, interrupted on close. */
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+
+    /** Open connections from other nodes, closed on close. */
+    private final Set<Socket> links = ConcurrentHashMap.newKeySet();
+
+    /** Set once the bus is closed. */
+    private volatile boolean closed;
+
+    /**
+     * Constructs the bus and binds its port.
+     *
+     * @param nodeId         name of this node, unique in the cluster
+     * @param port           port other nodes connect to, 0 picks a free one
+     * @param bufferSize     number of published events kept for peers that are behind or reconnecting
+     * @param clients        local clients
+     * @param rooms          local rooms
+     * @param broadcastQueue local queue of announcements
+     * @throws IOException if the port cannot be bound
+     */
+    public ClusterBus(String nodeId, int port, int bufferSize, ClientRegistry clients, RoomRegistry rooms,
+                      LinkedBlockingQueue<String> broadcastQueue) throws IOException {
+        this.nodeId = nodeId;
+        this.ring = new Event[Math.max(1, bufferSize)];
+        this.clients = clients;
+        this.rooms = rooms;
+        this.broadcastQueue = broadcastQueue;
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    /**
+     * Parses a peer list as used in server.properties: "host:port" entries
+     * separated by commas.
+     *
+     * @param value peer list, may be empty
+     * @return peer addresses
+     */
+    public static List<InetSocketAddress> parsePeers(String value) {
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            if (colon <= 0) {
+                throw new IllegalArgumentException("Peer must be host:port: " + entry);
+            }
+            peers.add(InetSocketAddress.createUnresolved(entry.substring(0, colon),
+                    Integer.parseInt(entry.substring(colon + 1).trim())));
+        }
+        return peers;
+    }
+
+    /**
+     * Starts accepting other nodes and connecting to the peers.
+     *
+     * @param peerAddresses bus addresses of all other nodes
+     */
+    public void start(List<InetSocketAddress> peerAddresses) {
+        threads.add(startThread(this::acceptLoop, "ClusterBus-" + nodeId));
+        for (InetSocketAddress address : peerAddresses) {
+            Peer peer = new Peer(address);
+            peers.add(peer);
+            threads.add(startThread(peer, "ClusterPeer-" + address.getHostString() + ":" + address.getPort()));
+        }
+    }
+
+    /**
+     * Returns the name of this node.
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Returns the port other nodes connect to.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Publishes a room message of a local client.
+     *
+     * @param message message to publish
+     */
+    public void publish(ChatMessage message) {
+        publish(ROOM, message.getTimestamp(), message.getSender(), message.getRoom(), message.getText());
+    }
+
+    /**
+     * Publishes an announcement for all clients.
+     *
+     * @param text announcement
+     */
+    public void announce(String text) {
+        publish(ANNOUNCE, System.currentTimeMillis(), null, null, text);
+    }
+
+    /**
+     * Publishes that a local client picked a name.
+     *
+     * @param name the name
+     */
+    public void userJoined(String name) {
+        publish(JOIN, System.currentTimeMillis(), name, null, null);
+    }
+
+    /**
+     * Publishes that a local client with a name left.
+     *
+     * @param name the name
+     */
+    public void userLeft(String name) {
+        publish(LEAVE, System.currentTimeMillis(), name, null, null);
+    }
+
+    /**
+     * Publishes that a local client changed its name.
+     *
+     * @param oldName previous name
+     * @param newName new name
+     */
+    public void userRenamed(String oldName, String newName) {
+        publish(RENAME, System.currentTimeMillis(), oldName, null, newName);
+    }
+
+    /**
+     * Returns true if a user on another node uses the name.
+     *
+     * @param name name to check
+     */
+    public boolean isRemoteUser(String name) {
+        String normalized = ClientRegistry.normalize(name);
+        for (Origin origin : origins.values()) {
+            if (origin.users.contains(normalized)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the number of users on other nodes.
+     */
+    public int getRemoteUserCount() {
+        int count = 0;
+        for (Origin origin : origins.values()) {
+            count += origin.users.size();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of peers this node is connected to.
+     */
+    public int getConnectedPeerCount() {
+        int count = 0;
+        for (Peer peer : peers) {
+            if (peer.connected) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns one line per peer describing its connection, e.g.
+     * "localhost:7001 connected, 0 behind".
+     */
+    public List<String> describePeers() {
+        List<String> lines = new ArrayList<>();
+        for (Peer peer : peers) {
+            lines.add(peer.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Stops the bus: closes the port and all connections.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        for (Peer peer : peers) {
+            closeQuietly(peer.socket);
+        }
+        for (Socket link : links) {
+            closeQuietly(link);
+        }
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Appends an event to the ring and wakes the peer senders.
+     */
+    private synchronized void publish(byte type, long timestamp, String sender, String room, String text) {
+        long seq = nextSeq++;
+        ring[(int) (seq % ring.length)] = new Event(type, seq, timestamp, sender, room, text);
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of the last published event, 0 if none.
+     */
+    private synchronized long lastPublished() {
+        return nextSeq - 1;
+    }
+
+    /**
+     * Returns the event with the given number, or the oldest one still in the
+     * ring if it was overwritten, or null if it was not published yet.
+     */
+    private synchronized Event poll(long seq) {
+        if (seq >= nextSeq) {
+            return null;
+        }
+        long oldest = Math.max(1, nextSeq - ring.length);
+        return ring[(int) (Math.max(seq, oldest) % ring.length)];
+    }
+
+    /**
+     * Like {@link #poll(long)}, but waits until the event is published.
+     *
+     * @return the event, null if the bus was closed meanwhile
+     */
+    private synchronized Event await(long seq) throws InterruptedException {
+        while (seq >= nextSeq && !closed) {
+            wait();
+        }
+        return closed ? null : poll(seq);
+    }
+
+    /**
+     * Returns the names of the local clients, one per line.
+     */
+    private String localUsers() {
+        StringBuilder names = new StringBuilder();
+        for (ClientHandler client : clients) {
+            String name = client.getName();
+            if (name != null && !client.isDisconnected()) {
+                names.append(name).append('\n');
+            }
+        }
+        return names.toString();
+    }
+
+    /**
+     * Accepts connections of other nodes, one thread each.
+     */
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                threads.add(startThread(() -> receive(socket), "ClusterLink-" + socket.getRemoteSocketAddress()));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Cluster accept error: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Handles a connection of another node: answers its handshake and applies
+     * the events it sends until the connection ends.
+     */
+    private void receive(Socket socket) {
+        Origin origin = null;
+        links.add(socket);
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            if (!MAGIC.equals(in.readUTF())) {
+                return;
+            }
+            String from = in.readUTF();
+            long remoteEpoch = in.readLong();
+            if (from.equals(nodeId)) {
+                System.err.println("Cluster: node " + socket.getRemoteSocketAddress() + " uses this node's id");
+                return;
+            }
+            origin = origins.computeIfAbsent(from, id -> new Origin());
+            synchronized (origin) {
+                if (origin.epoch != remoteEpoch) {
+                    origin.epoch = remoteEpoch;
+                    origin.lastSeq = 0;
+                    origin.users.clear();
+                }
+                origin.links++;
+                out.writeLong(origin.lastSeq);
+                out.flush();
+            }
+
+            while (!closed) {
+                apply(origin, read(in));
+            }
+        } catch (IOException e) {
+            // connection ended, the node reconnects if it is still alive
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            links.remove(socket);
+            if (origin != null) {
+                synchronized (origin) {
+                    if (--origin.links == 0) {
+                        origin.users.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies an event of another node unless it was applied before.
+     *
+     * @param origin state of the sending node
+     * @param event  received event
+     * @throws InterruptedException if interrupted while queueing a message
+     */
+    private void apply(Origin origin, Event event) throws InterruptedException {
+        synchronized (origin) {
+            if (event.type() == USERS) {
+                origin.users.clear();
+                for (String name : event.text().split("\n")) {
+                    if (!name.isEmpty()) {
+                        origin.users.add(ClientRegistry.normalize(name));
+                    }
+                }
+                return;
+            }
+            if (event.seq() <= origin.lastSeq) {
+                DUPLICATES.increment();
+                return;
+            }
+            origin.lastSeq = event.seq();
+            RECEIVED.increment();
+
+            switch (event.type()) {
+                case ROOM -> rooms.publish(new ChatMessage(event.timestamp(), event.sender(), event.room(), event.text()));
+                case ANNOUNCE -> broadcastQueue.put(event.text());
+                case JOIN -> origin.users.add(ClientRegistry.normalize(event.sender()));
+                case LEAVE -> origin.users.remove(ClientRegistry.normalize(event.sender()));
+                case RENAME -> {
+                    origin.users.remove(ClientRegistry.normalize(event.sender()));
+                    origin.users.add(ClientRegistry.normalize(event.text()));
+                }
+                default -> {
+                    // unknown event of a newer node, skipped
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes an event:
+     * type (byte) | seq (long) | timestamp (long) | sender | room | text,
+     * each string as its UTF-8 length (int, -1 for null) and bytes.
+     */
+    public static void write(DataOutputStream out, Event event) throws IOException {
+        out.writeByte(event.type());
+        out.writeLong(event.seq());
+        out.writeLong(event.timestamp());
+        writeString(out, event.sender());
+        writeString(out, event.room());
+        writeString(out, event.text());
+    }
+
+    /**
+     * Reads an event written by {@link #write(DataOutputStream, Event)}.
+     */
+    public static Event read(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        long seq = in.readLong();
+        long timestamp = in.readLong();
+        return new Event(type, seq, timestamp, readString(in), readString(in), readString(in));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > MAX_STRING) {
+            throw new IOException("String too long: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Starts a daemon thread.
+     */
+    private static Thread startThread(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private static void closeQuietly(Socket socket) {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
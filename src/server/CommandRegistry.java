@@ -0,0 +1,150 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Table of chat commands such as "/who" or "/join &lt;room&gt;".
+ * <p>
+ * A line is dispatched on its first token. The lookup picks the few commands
+ * starting with the line's first letter after the slash and compares their
+ * names case-insensitively in place, so a line that is no command is rejected
+ * after one or two chars and finding a command allocates nothing. New
+ * commands are added by registering a handler; /help is generated from the
+ * registered usages.
+ * </p>
+ */
+public class CommandRegistry {
+
+    /**
+     * Handler of one command.
+     */
+    @FunctionalInterface
+    public interface Command {
+
+        /**
+         * Executes the command.
+         *
+         * @param client client that sent the command
+         * @param args   text after the command name, trimmed, empty if none
+         * @return false if the client asked to quit, true otherwise
+         * @throws InterruptedException if interrupted while enqueueing
+         */
+        boolean execute(ClientHandler client, String args) throws InterruptedException;
+    }
+
+    /**
+     * A registered command.
+     *
+     * @param name        command name including the slash, e.g. "/join"
+     * @param usage       usage shown by /help, e.g. "/join &lt;room&gt;"
+     * @param description description shown by /help
+     * @param command     handler
+     */
+    public record Entry(String name, String usage, String description, Command command) {
+
+        /**
+         * Returns the arguments of a line dispatched to this command. A command
+         * whose usage lists no arguments always gets an empty string.
+         *
+         * @param line line starting with the command name
+         * @return text after the name, trimmed, empty if none
+         */
+        public String arguments(String line) {
+            if (usage.indexOf(' ') < 0) {
+                return "";
+            }
+            int start = name.length() + 1;
+            int end = line.length();
+            while (start < end && line.charAt(start) <= ' ') {
+                start++;
+            }
+            while (end > start && line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            // one substring at most, none for a command without arguments
+            return start >= end ? "" : line.substring(start, end);
+        }
+    }
+
+    /** Commands in registration order. */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /** Number of buckets of {@link #buckets}; names starting with a char beyond share the last one. */
+    private static final int BUCKETS = 128;
+
+    /** Commands by the lower-cased first char after the slash, null for chars no command starts with. */
+    private volatile Entry[][] buckets = new Entry[BUCKETS][];
+
+    /**
+     * Registers a command, replacing one with the same name.
+     *
+     * @param name        command name including the slash, e.g. "/join"
+     * @param usage       usage shown by /help
+     * @param description description shown by /help
+     * @param command     handler
+     */
+    public synchronized void register(String name, String usage, String description, Command command) {
+        Entry entry = new Entry(name, usage, description, command);
+        entries.removeIf(e -> e.name().equalsIgnoreCase(name));
+        entries.add(entry);
+
+        Entry[][] rebuilt = new Entry[BUCKETS][];
+        for (Entry e : entries) {
+            if (e.name().length() < 2) {
+                continue;   // a bare "/" is never dispatched
+            }
+            int bucket = bucket(e.name().charAt(1));
+            Entry[] old = rebuilt[bucket];
+            Entry[] grown = old == null ? new Entry[1] : Arrays.copyOf(old, old.length + 1);
+            grown[grown.length - 1] = e;
+            rebuilt[bucket] = grown;
+        }
+        buckets = rebuilt;
+    }
+
+    /**
+     * Finds the command a line starts with.
+     *
+     * @param line line received from a client
+     * @return the command, or null if the first token is not a registered command
+     */
+    public Entry find(String line) {
+        int length = line.length();
+        if (length < 2 || line.charAt(0) != '/') {
+            return null;
+        }
+        Entry[] candidates = buckets[bucket(line.charAt(1))];
+        if (candidates == null) {
+            return null;
+        }
+        for (Entry entry : candidates) {
+            String name = entry.name();
+            int end = name.length();
+            if ((length == end || (length > end && line.charAt(end) == ' '))
+                    && (line.startsWith(name) || line.regionMatches(true, 0, name, 0, end))) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the registered commands in registration order.
+     */
+    public synchronized List<Entry> getEntries() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * Returns the bucket of the commands whose name continues with a char after the slash.
+     */
+    private static int bucket(char c) {
+        if (c < BUCKETS) {
+            return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+        }
+        return Math.min(Character.toLowerCase(c), BUCKETS - 1);
+    }
+}
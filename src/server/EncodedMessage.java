@@ -0,0 +1,273 @@
+package server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A chat line encoded once to UTF-8 bytes (including the line terminator).
+ * <p>
+ * The bytes are immutable and can be shared by any number of recipients;
+ * each writer takes its own read-only view with {@link #buffer()}. Messages
+ * created with {@link #direct(String)} live in pooled direct buffers, which
+ * the NIO transport can write without an extra copy. Those are reference
+ * counted: every holder calls {@link #retain()} and {@link #release()}, and
+ * the buffer goes back to the pool when the last reference is released.
+ * A reference that is never released (e.g. a message dropped from a full
+ * outbound queue) only means the buffer is left to the garbage collector.
+ * </p>
+ * <p>
+ * A line can also be needed as a binary {@link Frame}; {@link #asFrame()}
+ * encodes it once and shares the frame between all binary recipients.
+ * Likewise {@link #asCompressedFrame()} compresses it once for all recipients
+ * that accept compressed frames.
+ * </p>
+ */
+public final class EncodedMessage {
+
+    /** Smallest pooled buffer size. */
+    private static final int MIN_POOLED_SIZE = 256;
+
+    /** Largest pooled buffer size; larger messages get an unpooled buffer. */
+    private static final int MAX_POOLED_SIZE = 64 * 1024;
+
+    /** Maximum number of free buffers kept per size class. */
+    private static final int MAX_POOLED_PER_CLASS = 256;
+
+    /** Free direct buffers, one queue per power-of-two size class. */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final ConcurrentLinkedQueue<ByteBuffer>[] POOL =
+            new ConcurrentLinkedQueue[Integer.numberOfTrailingZeros(MAX_POOLED_SIZE)
+                    - Integer.numberOfTrailingZeros(MIN_POOLED_SIZE) + 1];
+
+    /** Approximate number of free buffers per size class. */
+    private static final AtomicInteger[] POOL_SIZES = new AtomicInteger[POOL.length];
+
+    static {
+        for (int i = 0; i < POOL.length; i++) {
+            POOL[i] = new ConcurrentLinkedQueue<>();
+            POOL_SIZES[i] = new AtomicInteger();
+        }
+    }
+
+    /** Read-only view of the encoded bytes. */
+    private final ByteBuffer data;
+
+    /** Heap bytes, null for direct messages. */
+    private final byte[] bytes;
+
+    /** Pooled buffer to return on the last release, null if not pooled. */
+    private final ByteBuffer pooled;
+
+    /** Number of holders of a pooled message. */
+    private final AtomicInteger refs = new AtomicInteger(1);
+
+    /** Whether the bytes are a binary frame rather than a text line. */
+    private final boolean framed;
+
+    /** The line encoded as a {@link Frame#TEXT} frame, computed lazily. */
+    private volatile EncodedMessage frame;
+
+    /** The frame compressed (or the frame itself if that did not pay off), computed lazily. */
+    private volatile EncodedMessage compressed;
+
+    private EncodedMessage(ByteBuffer data, byte[] bytes, ByteBuffer pooled, boolean framed) {
+        this.data = data;
+        this.bytes = bytes;
+        this.pooled = pooled;
+        this.framed = framed;
+    }
+
+    /**
+     * Encodes a line into a heap buffer.
+     *
+     * @param text line without terminator
+     * @return encoded message
+     */
+    public static EncodedMessage of(String text) {
+        byte[] bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+        return new EncodedMessage(ByteBuffer.wrap(bytes).asReadOnlyBuffer(), bytes, null, false);
+    }
+
+    /**
+     * Wraps an encoded binary frame.
+     *
+     * @param bytes complete frame
+     * @return encoded message
+     */
+    static EncodedMessage frame(byte[] bytes) {
+        return new EncodedMessage(ByteBuffer.wrap(bytes).asReadOnlyBuffer(), bytes, null, true);
+    }
+
+    /**
+     * Encodes a line into a pooled direct buffer.
+     *
+     * @param text line without terminator
+     * @return encoded message holding one reference
+     */
+    public static EncodedMessage direct(String text) {
+        byte[] encoded = (text + "\n").getBytes(StandardCharsets.UTF_8);
+
+        int sizeClass = sizeClass(encoded.length);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = POOL[sizeClass].poll();
+            if (buffer != null) {
+                POOL_SIZES[sizeClass].decrementAndGet();
+            } else {
+                buffer = ByteBuffer.allocateDirect(MIN_POOLED_SIZE << sizeClass);
+            }
+        } else {
+            buffer = ByteBuffer.allocateDirect(encoded.length);
+        }
+
+        buffer.clear();
+        buffer.put(encoded).flip();
+        return new EncodedMessage(buffer.asReadOnlyBuffer(), null, sizeClass >= 0 ? buffer : null, false);
+    }
+
+    /**
+     * Returns this message as a binary frame: itself if it already is one,
+     * otherwise the line as a {@link Frame#TEXT} frame, encoded only once.
+     * The frame is a heap message and needs no release.
+     */
+    public EncodedMessage asFrame() {
+        if (framed) {
+            return this;
+        }
+        EncodedMessage result = frame;
+        if (result == null) {
+            byte[] line = bytes;
+            if (line == null) {
+                line = new byte[length()];
+                buffer().get(line);
+            }
+            result = Frame.encode(Frame.TEXT, line, 0, line.length - 1);
+            frame = result;
+        }
+        return result;
+    }
+
+    /**
+     * Returns this message as a binary frame for a recipient that accepts
+     * compressed frames: compressed if its payload has at least
+     * {@link ChatServer#COMPRESSION_THRESHOLD} bytes and compressing makes it
+     * smaller, otherwise the frame of {@link #asFrame()}. Compressed only once.
+     */
+    public EncodedMessage asCompressedFrame() {
+        EncodedMessage result = compressed;
+        if (result != null) {
+            return result;
+        }
+        EncodedMessage plain = asFrame();
+        int threshold = ChatServer.COMPRESSION_THRESHOLD;
+        if (threshold <= 0 || plain.length() - Frame.HEADER_SIZE < threshold) {
+            return plain;
+        }
+        result = Frame.compress(plain);
+        compressed = result;
+        return result;
+    }
+
+    /**
+     * Returns true if the bytes are a binary frame rather than a text line.
+     */
+    public boolean isFrame() {
+        return framed;
+    }
+
+    /**
+     * Returns a fresh read-only view of the bytes, positioned at the start.
+     */
+    public ByteBuffer buffer() {
+        return data.duplicate();
+    }
+
+    /**
+     * Returns the number of encoded bytes.
+     */
+    public int length() {
+        return data.limit();
+    }
+
+    /**
+     * Writes the bytes to a stream.
+     *
+     * @param out stream to write to
+     * @throws IOException if writing fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (bytes != null) {
+            out.write(bytes);
+            return;
+        }
+        ByteBuffer view = buffer();
+        byte[] chunk = new byte[Math.min(view.remaining(), 8192)];
+        while (view.hasRemaining()) {
+            int n = Math.min(chunk.length, view.remaining());
+            view.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /**
+     * Adds a reference to a pooled message.
+     *
+     * @return this message
+     */
+    public EncodedMessage retain() {
+        if (pooled != null) {
+            refs.incrementAndGet();
+        }
+        return this;
+    }
+
+    /**
+     * Drops a reference; the last release returns a pooled buffer to the pool.
+     */
+    public void release() {
+        if (pooled != null && refs.decrementAndGet() == 0) {
+            int sizeClass = sizeClass(pooled.capacity());
+            if (POOL_SIZES[sizeClass].incrementAndGet() <= MAX_POOLED_PER_CLASS) {
+                POOL[sizeClass].offer(pooled);
+            } else {
+                POOL_SIZES[sizeClass].decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Returns the pool size class for a length, or -1 if it is too large to pool.
+     */
+    private static int sizeClass(int length) {
+        if (length > MAX_POOLED_SIZE) {
+            return -1;
+        }
+        int size = Math.max(MIN_POOLED_SIZE, Integer.highestOneBit(length - 1) << 1);
+        return Integer.numberOfTrailingZeros(size) - Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    }
+
+    /**
+     * Returns the text of the message: the line without its terminator, or the
+     * payload of a frame (decompressed if needed), without the frame header.
+     */
+    @Override
+    public String toString() {
+        ByteBuffer view = buffer();
+        if (!framed) {
+            view.limit(view.limit() - 1);
+            return StandardCharsets.UTF_8.decode(view).toString();
+        }
+        int length = view.getInt(6);
+        view.position(Frame.HEADER_SIZE).limit(Frame.HEADER_SIZE + length);
+        if ((view.get(1) & Frame.COMPRESSED) != 0) {
+            byte[] payload = new byte[length];
+            view.get(payload);
+            return Frame.inflate(payload, 0, length);
+        }
+        return StandardCharsets.UTF_8.decode(view).toString();
+    }
+}
@@ -0,0 +1,269 @@
+package server;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Binary wire protocol, served on the same port as the text protocol.
+ * <p>
+ * A binary client starts by sending {@link #MAGIC}; a text client never sends
+ * a NUL byte, so the first byte tells the protocols apart. The server answers
+ * with a {@link #HELLO} frame and from then on both sides exchange frames:
+ * </p>
+ * <pre>
+ * type (1 byte) | flags (1 byte) | sequence number (int) | payload length (int) | UTF-8 payload
+ * </pre>
+ * <p>
+ * {@link #TEXT} frames carry what a text line would: commands and chat
+ * messages from the client, display lines from the server. Control signals
+ * that the text protocol mixes into the chat stream as "/ping", "/disconnect"
+ * or "/session &lt;token&gt;" get their own frame types. Frames sent by the
+ * server are numbered from one global counter, so a broadcast frame has the
+ * same number for every recipient. All integers are big-endian.
+ * </p>
+ * <p>
+ * A client that accepts compressed frames sends {@link #VERSION_DEFLATE} as
+ * the last byte of the preamble; the server then names "deflate" in its
+ * {@link #HELLO} and may send frames with the {@link #COMPRESSED} flag, whose
+ * payload is raw deflate data with the preset {@link #DICTIONARY}. Every
+ * frame is compressed on its own, so a broadcast frame is compressed once and
+ * the result sent to every such recipient. Either side may compress its
+ * frames once compression was agreed.
+ * </p>
+ */
+public final class Frame {
+
+    /** Preamble sent by a binary client right after connecting (version 1). */
+    public static final byte[] MAGIC = {0, 'C', 'H', 'T', 1};
+
+    /** Last preamble byte of a client that accepts compressed frames. */
+    public static final byte VERSION_DEFLATE = 2;
+
+    /** Size of the frame header. */
+    public static final int HEADER_SIZE = 10;
+
+    /** Largest accepted payload, so that a frame fits into 64 KiB; larger frames disconnect the client. */
+    public static final int MAX_PAYLOAD = 64 * 1024 - HEADER_SIZE;
+
+    /** Command or chat message (client), display line (server). */
+    public static final byte TEXT = 1;
+
+    /** Heartbeat request from the server. */
+    public static final byte PING = 2;
+
+    /** Heartbeat reply from the client. */
+    public static final byte PONG = 3;
+
+    /** The server closes the connection. */
+    public static final byte DISCONNECT = 4;
+
+    /** Session token for resuming, the payload is the token. */
+    public static final byte SESSION = 5;
+
+    /** Handshake reply of the server, the payload names the protocol. */
+    public static final byte HELLO = 6;
+
+    /** Flag of a frame whose payload is compressed. */
+    public static final byte COMPRESSED = 1;
+
+    /**
+     * Preset dictionary of compressed payloads: text that chat lines often
+     * contain, so that even short lines compress. Changing it breaks
+     * compatibility with existing clients.
+     */
+    public static final byte[] DICTIONARY = (" the and to you is it that of in a for this on what are"
+            + " SERVER: Name is already taken. Enter your name: Users online: Usage: /msg /join /rooms /who"
+            + " [private to [private] left the chat. joined the chat. is now known as missed messages follow.")
+            .getBytes(StandardCharsets.UTF_8);
+
+    /** Source of sequence numbers of server frames. */
+    private static final AtomicInteger NEXT_SEQ = new AtomicInteger();
+
+    /** Idle compressors. */
+    private static final ConcurrentLinkedQueue<Deflater> DEFLATERS = new ConcurrentLinkedQueue<>();
+
+    /** Idle decompressors. */
+    private static final ConcurrentLinkedQueue<Inflater> INFLATERS = new ConcurrentLinkedQueue<>();
+
+    /** Payload bytes passed to the compressor. */
+    private static final LongAdder COMPRESSION_IN =
+            Metrics.counter("compression_input_bytes_total", "Frame payload bytes passed to the compressor");
+
+    /** Payload bytes sent instead, compressed or, if compressing did not pay off, as they were. */
+    private static final LongAdder COMPRESSION_OUT =
+            Metrics.counter("compression_output_bytes_total", "Frame payload bytes the compressor produced or kept");
+
+    /** CPU time spent compressing. */
+    private static final LongAdder COMPRESSION_NS =
+            Metrics.counter("compression_ns_total", "Time spent compressing frame payloads (ns)");
+
+    /** Compressed payload bytes received. */
+    private static final LongAdder DECOMPRESSION_IN =
+            Metrics.counter("decompression_input_bytes_total", "Compressed frame payload bytes received");
+
+    /** CPU time spent decompressing. */
+    private static final LongAdder DECOMPRESSION_NS =
+            Metrics.counter("decompression_ns_total", "Time spent decompressing frame payloads (ns)");
+
+    static {
+        Metrics.gauge("compression_saved_bytes", "Frame payload bytes saved by compression",
+                () -> COMPRESSION_IN.sum() - COMPRESSION_OUT.sum());
+    }
+
+    private Frame() {
+    }
+
+    /**
+     * Encodes a frame with the next server sequence number.
+     *
+     * @param type    frame type
+     * @param payload payload text, may be null
+     * @return encoded frame
+     */
+    public static EncodedMessage encode(byte type, String payload) {
+        byte[] text = payload == null ? new byte[0] : payload.getBytes(StandardCharsets.UTF_8);
+        return encode(type, text, 0, text.length);
+    }
+
+    /**
+     * Encodes a frame with the next server sequence number.
+     *
+     * @param type   frame type
+     * @param bytes  array holding the UTF-8 payload
+     * @param offset start of the payload in the array
+     * @param length payload length
+     * @return encoded frame
+     */
+    static EncodedMessage encode(byte type, byte[] bytes, int offset, int length) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_SIZE + length);
+        frame.put(type).put((byte) 0).putInt(NEXT_SEQ.incrementAndGet()).putInt(length);
+        frame.put(bytes, offset, length);
+        return EncodedMessage.frame(frame.array());
+    }
+
+    /**
+     * Compresses a frame for recipients that accept compressed frames. The
+     * result keeps the type and the sequence number of the frame.
+     *
+     * @param frame encoded frame, not compressed
+     * @return the compressed frame, or the frame itself if compressing does not make it smaller
+     */
+    static EncodedMessage compress(EncodedMessage frame) {
+        ByteBuffer plain = frame.buffer();
+        int length = plain.getInt(6);
+        byte[] payload = new byte[length];
+        plain.get(HEADER_SIZE, payload);
+
+        byte[] compressed = deflate(payload, 0, length);
+        if (compressed == null) {
+            return frame;
+        }
+        ByteBuffer result = ByteBuffer.allocate(HEADER_SIZE + compressed.length);
+        result.put(plain.get(0)).put(COMPRESSED).putInt(plain.getInt(2)).putInt(compressed.length);
+        result.put(compressed);
+        return EncodedMessage.frame(result.array());
+    }
+
+    /**
+     * Compresses a payload with the preset dictionary.
+     *
+     * @param bytes  array holding the payload
+     * @param offset start of the payload in the array
+     * @param length payload length
+     * @return raw deflate data, or null if it would not be smaller than the payload
+     */
+    public static byte[] deflate(byte[] bytes, int offset, int length) {
+        long start = System.nanoTime();
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        }
+        byte[] out = new byte[length];
+        int size = 0;
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(bytes, offset, length);
+            deflater.finish();
+            while (!deflater.finished() && size < out.length) {
+                size += deflater.deflate(out, size, out.length - size);
+            }
+            if (!deflater.finished()) {
+                size = length;
+            }
+        } finally {
+            deflater.reset();
+            DEFLATERS.offer(deflater);
+        }
+        COMPRESSION_IN.add(length);
+        COMPRESSION_OUT.add(Math.min(size, length));
+        COMPRESSION_NS.add(System.nanoTime() - start);
+        return size < length ? Arrays.copyOf(out, size) : null;
+    }
+
+    /**
+     * Decompresses a payload compressed by {@link #deflate(byte[], int, int)}.
+     *
+     * @param bytes  array holding the compressed payload
+     * @param offset start of the payload in the array
+     * @param length compressed length
+     * @return the payload text, or null if the data is invalid or would exceed {@link #MAX_PAYLOAD}
+     */
+    public static String inflate(byte[] bytes, int offset, int length) {
+        long start = System.nanoTime();
+        Inflater inflater = INFLATERS.poll();
+        if (inflater == null) {
+            inflater = new Inflater(true);
+        }
+        try {
+            inflater.setDictionary(DICTIONARY);
+            inflater.setInput(bytes, offset, length);
+            byte[] out = new byte[Math.min(MAX_PAYLOAD, Math.max(256, length * 4))];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == out.length) {
+                    if (out.length == MAX_PAYLOAD) {
+                        return null;
+                    }
+                    out = Arrays.copyOf(out, Math.min(MAX_PAYLOAD, out.length * 2));
+                }
+                int n = inflater.inflate(out, size, out.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    return null;
+                }
+                size += n;
+            }
+            return new String(out, 0, size, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            return null;
+        } finally {
+            inflater.reset();
+            INFLATERS.offer(inflater);
+            DECOMPRESSION_IN.add(length);
+            DECOMPRESSION_NS.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the text protocol form of a control frame, e.g. "/ping".
+     *
+     * @param type    frame type
+     * @param payload payload text, may be null
+     * @return line sent to text clients
+     */
+    public static String toLine(byte type, String payload) {
+        return switch (type) {
+            case PING -> "/ping";
+            case PONG -> "/pong";
+            case DISCONNECT -> "/disconnect";
+            case SESSION -> "/session " + payload;
+            default -> payload;
+        };
+    }
+}
@@ -0,0 +1,152 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies (or other non-negative values) with a bounded relative error.
+ * <p>
+ * Buckets are laid out like in HdrHistogram: values below 16 have a bucket each,
+ * every higher power of two is split into 16 equally wide buckets. A recorded
+ * value therefore lands in a bucket at most 1/16 (6.25 %) wider than itself,
+ * over the whole range of {@code long}. Recording is one array increment and
+ * never allocates; any number of threads may record concurrently. Percentiles
+ * are computed from a snapshot of the counts and report the upper bound of
+ * their bucket.
+ * </p>
+ */
+public class LatencyHistogram {
+
+    /** Sub-buckets per power of two, as a number of bits. */
+    private static final int SUB_BITS = 4;
+
+    /** Sub-buckets per power of two. */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /** Number of buckets covering all non-negative longs. */
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+    /** Number of values per bucket. */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** Sum of all recorded values. */
+    private final LongAdder sum = new LongAdder();
+
+    /** Largest recorded value. */
+    private volatile long max;
+
+    /**
+     * Records a value; negative values are recorded as 0.
+     *
+     * @param value value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.getAndIncrement(bucket(value));
+        sum.add(value);
+        if (value > max) {
+            updateMax(value);
+        }
+    }
+
+    /**
+     * Records the time elapsed since a start time taken with {@link Metrics#start()}.
+     * Does nothing if the operation was not sampled.
+     *
+     * @param start start time (System.nanoTime), 0 if not sampled
+     */
+    public void recordSince(long start) {
+        if (start != 0) {
+            record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the sum of the recorded values.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the largest recorded value, 0 if none.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Returns a value that the given fraction of the recorded values do not exceed.
+     *
+     * @param quantile fraction between 0 and 1, e.g. 0.99
+     * @return upper bound of the bucket holding the quantile, 0 if nothing was recorded
+     */
+    public long getPercentile(double quantile) {
+        long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            count += snapshot[i];
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(quantile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Returns the bucket of a non-negative value.
+     */
+    static int bucket(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_COUNT - 1);
+        return (shift + 1) * SUB_COUNT + sub;
+    }
+
+    /**
+     * Returns the largest value that falls into a bucket.
+     */
+    static long upperBound(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int shift = bucket / SUB_COUNT - 1;
+        long sub = bucket % SUB_COUNT;
+        long lower = (SUB_COUNT + sub) << shift;
+        return lower + (1L << shift) - 1;
+    }
+
+    /**
+     * Raises {@link #max} to a value unless another thread raised it further.
+     */
+    private synchronized void updateMax(long value) {
+        if (value > max) {
+            max = value;
+        }
+    }
+}
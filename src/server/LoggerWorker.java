@@ -1,65 +1,353 @@
 package server;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Worker thread responsible for logging chat messages to a file.
  * <p>
- * Messages are taken from a shared queue and appended to "logs/chat.log" with a timestamp.
+ * Messages are taken from a shared queue in batches and appended to "logs/chat.log"
+ * with their creation time through one long-lived file channel. Each batch is committed
+ * (flushed, or flushed and fsynced) once the queue runs empty or a size/time
+ * threshold is reached. When the file would grow beyond {@link ChatServer#LOG_MAX_SIZE}
+ * it is rotated into numbered, optionally gzip-compressed segments.
  * If the logs directory does not exist, it is created automatically.
  * </p>
+ * <p>
+ * Optionally the messages are also (or only) appended to a {@link MessageStore},
+ * committed together with the text log.
+ * </p>
+ * <p>
+ * The worker stops when it takes {@link #STOP}: everything queued is written
+ * and committed first.
+ * </p>
  */
 public class LoggerWorker implements Runnable {
 
     /** Queue from which log messages are consumed. */
-    private final LinkedBlockingQueue<String> logQueue;
+    private final LinkedBlockingQueue<ChatMessage> logQueue;
+
+    /** Queued to stop the worker; recognized by identity. */
+    public static final ChatMessage STOP = new ChatMessage(null, null, "");
 
     /** Path to the log file. */
-    private static final String LOG_FILE = "logs/chat.log";
+    static final String LOG_FILE = "logs/chat.log";
+
+    /** Maximum number of messages taken from the queue at once. */
+    private static final int MAX_BATCH = 1024;
+
+    /** Number of messages written to the log or the store. */
+    private static final LongAdder LOGGED =
+            Metrics.counter("log_messages_total", "Messages and events written by the logger");
+
+    /** Time of one commit (flush or fsync). */
+    private static final LatencyHistogram COMMIT_NS =
+            Metrics.histogram("log_commit_ns", "Time to commit a batch of log and store records (ns)");
+
+    /** Formatter for the timestamp prefix. */
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /** Log file written by this worker, null if only the message store is written. */
+    private final Path logFile;
+
+    /** Message store written by this worker, null if none. */
+    private final MessageStore store;
+
+    /** Size at which the log file is rotated, 0 or less disables rotation. */
+    private final long maxSize;
+
+    /** Buffer collecting encoded lines until they are written to the channel. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    /** Reused builder for one log line. */
+    private final StringBuilder line = new StringBuilder(256);
+
+    /** Channel of the current log file. */
+    private FileChannel channel;
+
+    /** Current size of the log file including buffered bytes. */
+    private long size;
+
+    /** Bytes written since the last commit. */
+    private long uncommittedBytes;
+
+    /** Time of the last commit (ms since epoch). */
+    private long lastCommit;
+
+    /** Second of the cached timestamp. */
+    private long cachedSecond = -1;
+
+    /** Formatted timestamp of {@link #cachedSecond}. */
+    private String cachedTimestamp;
 
     /**
      * Constructs a LoggerWorker with the given log queue.
      *
      * @param logQueue the queue holding messages to log
      */
-    public LoggerWorker(LinkedBlockingQueue<String> logQueue) {
+    public LoggerWorker(LinkedBlockingQueue<ChatMessage> logQueue) {
+        this(logQueue, Path.of(LOG_FILE), ChatServer.LOG_MAX_SIZE);
+    }
+
+    /**
+     * Constructs a LoggerWorker writing to the given file.
+     *
+     * @param logQueue the queue holding messages to log
+     * @param logFile  file to append to
+     * @param maxSize  size at which the file is rotated, 0 disables rotation
+     */
+    public LoggerWorker(LinkedBlockingQueue<ChatMessage> logQueue, Path logFile, long maxSize) {
+        this(logQueue, logFile, maxSize, null);
+    }
+
+    /**
+     * Constructs a LoggerWorker writing to a text file, a message store, or both.
+     *
+     * @param logQueue the queue holding messages to log
+     * @param logFile  file to append to, null to write only the store
+     * @param maxSize  size at which the file is rotated, 0 disables rotation
+     * @param store    message store to append to, null to write only the file
+     */
+    public LoggerWorker(LinkedBlockingQueue<ChatMessage> logQueue, Path logFile, long maxSize,
+                        MessageStore store) {
         this.logQueue = logQueue;
+        this.logFile = logFile;
+        this.maxSize = maxSize;
+        this.store = store;
         // Ensure the logs directory exists
-        new File("logs").mkdirs();
+        if (logFile != null) {
+            try {
+                Path dir = logFile.toAbsolutePath().getParent();
+                Files.createDirectories(dir);
+            } catch (IOException e) {
+                System.err.println("Logger error: " + e.getMessage());
+            }
+        }
     }
 
     /**
      * Main loop for consuming messages from the log queue and writing them to the file.
+     * Waits for the first message, then drains whatever else is queued and writes it
+     * as one batch.
      */
     @Override
     public void run() {
+        List<ChatMessage> batch = new ArrayList<>(MAX_BATCH);
+        boolean stopped = false;
         try {
-            while (true) {
-                // Wait for a message to log
-                String msg = logQueue.take();
-                appendToLog(msg);
+            while (!stopped) {
+                // Wait for a message to log, then take the rest of the burst
+                batch.add(logQueue.take());
+                logQueue.drainTo(batch, MAX_BATCH - 1);
+
+                for (ChatMessage msg : batch) {
+                    if (msg == STOP) {
+                        stopped = true;
+                        continue;
+                    }
+                    if (logFile != null) {
+                        appendToLog(msg);
+                    }
+                    if (store != null) {
+                        appendToStore(msg);
+                    }
+                }
+                LOGGED.add(stopped ? batch.size() - 1 : batch.size());
+                batch.clear();
+
+                if (logQueue.isEmpty()
+                        || uncommittedBytes >= ChatServer.LOG_FLUSH_BYTES
+                        || System.currentTimeMillis() - lastCommit >= ChatServer.LOG_FLUSH_INTERVAL_MS) {
+                    long start = Metrics.start();
+                    commit();
+                    COMMIT_NS.recordSince(start);
+                }
             }
         } catch (InterruptedException ignored) {
             // Thread interrupted, exit gracefully
+        } finally {
+            commit();
+            closeChannel();
+        }
+    }
+
+    /**
+     * Appends a message to the log buffer, prefixed with its creation time.
+     *
+     * @param msg the message to append
+     */
+    private void appendToLog(ChatMessage msg) {
+        line.setLength(0);
+        line.append('[').append(timestamp(msg.getTimestamp())).append("] ").append(msg.getLine())
+                .append(System.lineSeparator());
+        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+
+        try {
+            if (channel == null) {
+                openChannel();
+            }
+            if (maxSize > 0 && size > 0 && size + bytes.length > maxSize) {
+                rotate();
+            }
+            if (bytes.length > buffer.remaining()) {
+                writeBuffer();
+            }
+            if (bytes.length > buffer.capacity()) {
+                channel.write(ByteBuffer.wrap(bytes));
+            } else {
+                buffer.put(bytes);
+            }
+            size += bytes.length;
+            uncommittedBytes += bytes.length;
+        } catch (IOException e) {
+            System.err.println("Logger error: " + e.getMessage());
+            closeChannel();
         }
     }
 
     /**
-     * Appends a message to the log file with a timestamp.
+     * Appends a message to the message store.
      *
      * @param msg the message to append
      */
-    private void appendToLog(String msg) {
-        try (FileWriter fw = new FileWriter(LOG_FILE, true)) {
-            String timeStamp = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date());
-            fw.write("[" + timeStamp + "] " + msg + System.lineSeparator());
+    private void appendToStore(ChatMessage msg) {
+        try {
+            long before = store.getUncommittedBytes();
+            store.append(msg);
+            uncommittedBytes += store.getUncommittedBytes() - before;
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Message store error: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes buffered lines to the file and flushes them to the OS,
+     * additionally forcing them to disk in fsync durability mode.
+     * Buffered store records are committed as well.
+     */
+    private void commit() {
+        lastCommit = System.currentTimeMillis();
+        uncommittedBytes = 0;
+        if (store != null) {
+            try {
+                store.commit();
+            } catch (IOException e) {
+                System.err.println("Message store error: " + e.getMessage());
+            }
+        }
+        if (channel == null) {
+            return;
+        }
+        try {
+            writeBuffer();
+            if (ChatServer.LOG_FSYNC) {
+                channel.force(false);
+            }
         } catch (IOException e) {
             System.err.println("Logger error: " + e.getMessage());
+            closeChannel();
+        }
+    }
+
+    /**
+     * Rotates the log: chat.log becomes chat.log.1(.gz), older segments shift up
+     * by one and the oldest is deleted once {@link ChatServer#LOG_MAX_SEGMENTS} is reached.
+     */
+    private void rotate() throws IOException {
+        writeBuffer();
+        closeChannel();
+
+        String suffix = ChatServer.LOG_COMPRESS_ROTATED ? ".gz" : "";
+        Files.deleteIfExists(segment(ChatServer.LOG_MAX_SEGMENTS, suffix));
+        for (int i = ChatServer.LOG_MAX_SEGMENTS - 1; i >= 1; i--) {
+            Path from = segment(i, suffix);
+            if (Files.exists(from)) {
+                Files.move(from, segment(i + 1, suffix), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        if (ChatServer.LOG_COMPRESS_ROTATED) {
+            try (InputStream in = Files.newInputStream(logFile);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(segment(1, suffix)))) {
+                in.transferTo(out);
+            }
+            Files.delete(logFile);
+        } else {
+            Files.move(logFile, segment(1, suffix), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        openChannel();
+    }
+
+    /**
+     * Returns the path of a rotated segment.
+     */
+    private Path segment(int index, String suffix) {
+        return logFile.resolveSibling(logFile.getFileName() + "." + index + suffix);
+    }
+
+    /**
+     * Writes the buffered bytes to the channel.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Opens the log file for appending.
+     */
+    private void openChannel() throws IOException {
+        channel = FileChannel.open(logFile,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    /**
+     * Closes the log file; buffered bytes that were not written are discarded.
+     */
+    private void closeChannel() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns a formatted time, formatting again only when the second changes.
+     *
+     * @param time time (ms since epoch)
+     */
+    private String timestamp(long time) {
+        long second = Math.floorDiv(time, 1000);
+        if (second != cachedSecond) {
+            cachedSecond = second;
+            cachedTimestamp = TIMESTAMP.format(Instant.ofEpochMilli(time));
         }
+        return cachedTimestamp;
     }
 }
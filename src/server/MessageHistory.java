@@ -0,0 +1,95 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Fixed-size ring of the most recent messages of a room.
+ * <p>
+ * Written by one thread only (the broadcast worker of the room's shard) and
+ * read by any number of client threads without locking, so reading history
+ * never delays a broadcast. Every slot carries the sequence number of its
+ * message; the writer invalidates the slot before replacing the message and a
+ * reader keeps a message only if the slot held the expected sequence number
+ * both before and after reading it. Appending allocates nothing.
+ * </p>
+ */
+public class MessageHistory {
+
+    /** Message of every slot. */
+    private final AtomicReferenceArray<ChatMessage> messages;
+
+    /** Sequence number of the message in every slot, -1 while it is replaced. */
+    private final AtomicLongArray sequences;
+
+    /** Number of slots. */
+    private final int capacity;
+
+    /** Number of messages appended so far, i.e. the sequence number of the next one. */
+    private volatile long written;
+
+    /**
+     * Constructs an empty history.
+     *
+     * @param capacity number of messages kept, 0 keeps none
+     */
+    public MessageHistory(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.messages = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, -1);
+        }
+    }
+
+    /**
+     * Appends a message, overwriting the oldest one when full.
+     * Must always be called by the same thread.
+     *
+     * @param message message to append
+     */
+    public void add(ChatMessage message) {
+        if (capacity == 0) {
+            return;
+        }
+        long seq = written;
+        int slot = (int) (seq % capacity);
+        sequences.set(slot, -1);
+        messages.set(slot, message);
+        sequences.set(slot, seq);
+        written = seq + 1;
+    }
+
+    /**
+     * Returns up to the given number of most recent messages, oldest first.
+     * Messages overwritten while reading are left out.
+     *
+     * @param count maximum number of messages
+     * @return recent messages
+     */
+    public List<ChatMessage> recent(int count) {
+        long end = written;
+        long start = Math.max(0, end - Math.min(count, capacity));
+        List<ChatMessage> result = new ArrayList<>((int) (end - start));
+        for (long seq = start; seq < end; seq++) {
+            int slot = (int) (seq % capacity);
+            if (sequences.get(slot) != seq) {
+                continue;
+            }
+            ChatMessage message = messages.get(slot);
+            if (sequences.get(slot) == seq) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of messages that can be kept.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,706 @@
+package server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Persistent, append-only store of chat messages and events.
+ * <p>
+ * Records are appended to segment files ("00000000000000000000.dat", named by
+ * the sequence number of their first record) which are rolled over at a
+ * configured size. Every record gets a sequence number and a timestamp; the
+ * timestamps are made non-decreasing so that they can be searched. Every
+ * {@value #INDEX_INTERVAL}th record of a segment is listed in a sparse index
+ * (kept in memory and in a ".idx" file next to the segment), which maps
+ * sequence numbers and timestamps to file offsets. A query binary-searches
+ * the index and scans at most a few records of a memory-mapped segment from
+ * there, so lookups by sequence number or time cost the same for a thousand
+ * or millions of records.
+ * </p>
+ * <p>
+ * Appends are made by one thread only (the logger); they are buffered and
+ * become visible to queries on {@link #commit()}. Queries can run from any
+ * thread and never block the writer. On open, a record cut off by a crash is
+ * truncated and the index is completed from the segment.
+ * </p>
+ * <p>
+ * Retention is by segment count: once more than the configured number of
+ * segments exist, the oldest are deleted as a whole when a segment is rolled
+ * over (or when the store is opened). Their records are gone for queries;
+ * a query that is reading a deleted segment at that moment finishes it.
+ * </p>
+ * <p>
+ * Record layout (big-endian): record length (int, without this field),
+ * sequence number (long), timestamp (long), sender, room (each a short
+ * byte length, -1 for null, and UTF-8 bytes), text (int byte length and
+ * UTF-8 bytes). Sender and room are therefore limited to
+ * {@value #MAX_NAME_BYTES} bytes; a message with a longer one is refused.
+ * </p>
+ */
+public class MessageStore implements Closeable {
+
+    /**
+     * A message read from the store.
+     *
+     * @param seq     sequence number of the record
+     * @param message the message, with the stored timestamp
+     */
+    public record StoredMessage(long seq, ChatMessage message) {
+    }
+
+    /** Number of records per index entry. */
+    private static final int INDEX_INTERVAL = 32;
+
+    /** Size of one index entry: sequence number, timestamp, offset. */
+    private static final int INDEX_ENTRY_BYTES = 20;
+
+    /** Longest sender or room name (UTF-8 bytes) a record can hold. */
+    static final int MAX_NAME_BYTES = Short.MAX_VALUE;
+
+    /** Extension of segment files. */
+    private static final String DATA_SUFFIX = ".dat";
+
+    /** Extension of index files. */
+    private static final String INDEX_SUFFIX = ".idx";
+
+    /** Directory holding the segments. */
+    private final Path dir;
+
+    /** Size at which a segment is rolled over. */
+    private final long segmentBytes;
+
+    /** Number of segments kept, 0 keeps all of them. */
+    private final int maxSegments;
+
+    /** Segments by sequence number of their first record. */
+    private final ConcurrentSkipListMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    /** Records appended but not yet written to the active segment. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    /** Index entries of the active segment that are not committed yet. */
+    private final List<long[]> pendingIndex = new ArrayList<>();
+
+    /** Segment receiving appends. */
+    private Segment active;
+
+    /** Size of the active segment including buffered records. */
+    private long appendOffset;
+
+    /** Sequence number of the next appended record. */
+    private long nextSeq;
+
+    /** Timestamp of the last appended record. */
+    private long lastTimestamp;
+
+    /** Bytes of the records appended since the last commit. */
+    private long uncommittedBytes;
+
+    /** Sequence number of the first record not visible to queries. */
+    private volatile long committedSeq;
+
+    /**
+     * Opens a store keeping all segments, creating the directory if needed.
+     *
+     * @param dir          directory holding the segments
+     * @param segmentBytes size at which a segment is rolled over
+     * @throws IOException if the store cannot be opened
+     */
+    public MessageStore(Path dir, long segmentBytes) throws IOException {
+        this(dir, segmentBytes, 0);
+    }
+
+    /**
+     * Opens a store, creating the directory if needed.
+     *
+     * @param dir          directory holding the segments
+     * @param segmentBytes size at which a segment is rolled over
+     * @param maxSegments  number of segments kept, 0 keeps all of them
+     * @throws IOException if the store cannot be opened
+     */
+    public MessageStore(Path dir, long segmentBytes, int maxSegments) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = Math.max(1024, segmentBytes);
+        this.maxSegments = Math.max(0, maxSegments);
+        Files.createDirectories(dir);
+
+        List<Long> firstSeqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + DATA_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                firstSeqs.add(Long.parseLong(name.substring(0, name.length() - DATA_SUFFIX.length())));
+            }
+        }
+        firstSeqs.sort(null);
+
+        for (long firstSeq : firstSeqs) {
+            Segment segment = new Segment(firstSeq);
+            segment.recover();
+            segments.put(firstSeq, segment);
+            nextSeq = segment.firstSeq + segment.records;
+            if (segment.lastTimestamp > 0) {
+                lastTimestamp = segment.lastTimestamp;
+            }
+        }
+
+        if (segments.isEmpty()) {
+            segments.put(0L, new Segment(0));
+        }
+        active = segments.lastEntry().getValue();
+        active.openForAppend();
+        appendOffset = active.size;
+        committedSeq = nextSeq;
+        deleteExpired();
+    }
+
+    /**
+     * Appends a message. Must always be called by the same thread; the record
+     * becomes visible to queries with the next {@link #commit()}.
+     *
+     * @param message message to append
+     * @return sequence number of the record
+     * @throws IOException if writing fails
+     * @throws IllegalArgumentException if the sender or room is longer than {@value #MAX_NAME_BYTES} bytes
+     */
+    public long append(ChatMessage message) throws IOException {
+        byte[] sender = encode(message.getSender());
+        byte[] room = encode(message.getRoom());
+        if (length(sender) > MAX_NAME_BYTES || length(room) > MAX_NAME_BYTES) {
+            throw new IllegalArgumentException("Sender or room of a stored message longer than "
+                    + MAX_NAME_BYTES + " bytes");
+        }
+        byte[] text = message.getText().getBytes(StandardCharsets.UTF_8);
+        int length = 8 + 8 + 2 + length(sender) + 2 + length(room) + 4 + text.length;
+
+        if (appendOffset > 0 && appendOffset + 4 + length > segmentBytes) {
+            roll();
+        }
+
+        long seq = nextSeq;
+        long timestamp = Math.max(message.getTimestamp(), lastTimestamp);
+        if ((seq - active.firstSeq) % INDEX_INTERVAL == 0) {
+            pendingIndex.add(new long[] {seq, timestamp, appendOffset});
+        }
+
+        if (4 + length > buffer.remaining()) {
+            writeBuffer();
+        }
+        ByteBuffer record = 4 + length <= buffer.capacity() ? buffer : ByteBuffer.allocate(4 + length);
+        record.putInt(length).putLong(seq).putLong(timestamp);
+        put(record, sender);
+        put(record, room);
+        record.putInt(text.length).put(text);
+        if (record != buffer) {
+            record.flip();
+            active.write(record);
+        }
+
+        appendOffset += 4 + length;
+        uncommittedBytes += 4 + length;
+        lastTimestamp = timestamp;
+        nextSeq = seq + 1;
+        return seq;
+    }
+
+    /**
+     * Writes the appended records to the segment and makes them visible to queries.
+     *
+     * @throws IOException if writing fails
+     */
+    public void commit() throws IOException {
+        writeBuffer();
+        if (ChatServer.LOG_FSYNC) {
+            active.force();
+        }
+        for (long[] entry : pendingIndex) {
+            active.addIndexEntry(entry[0], entry[1], entry[2], true);
+        }
+        pendingIndex.clear();
+        active.publish(appendOffset, nextSeq - active.firstSeq, lastTimestamp);
+        committedSeq = nextSeq;
+        uncommittedBytes = 0;
+    }
+
+    /**
+     * Returns the record with a sequence number, or null if there is none.
+     *
+     * @param seq sequence number
+     * @return the record, or null
+     * @throws IOException if reading fails
+     */
+    public StoredMessage get(long seq) throws IOException {
+        if (seq < 0 || seq >= committedSeq) {
+            return null;
+        }
+        Map.Entry<Long, Segment> entry = segments.floorEntry(seq);
+        if (entry == null) {
+            return null;
+        }
+        Segment segment = entry.getValue();
+        Index index = segment.index;
+        ByteBuffer data = segment.map();
+
+        int i = search(index, 0, seq);
+        data.position(i < 0 ? 0 : (int) index.entries[i * 3 + 2]);
+        while (data.remaining() >= 4) {
+            int start = data.position();
+            long recordSeq = data.getLong(start + 4);
+            if (recordSeq == seq) {
+                return read(data);
+            }
+            if (recordSeq > seq) {
+                return null;
+            }
+            data.position(start + 4 + data.getInt(start));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the records with a timestamp in a range, oldest first.
+     *
+     * @param from  earliest timestamp (inclusive)
+     * @param to    latest timestamp (inclusive)
+     * @param limit maximum number of records
+     * @return matching records
+     * @throws IOException if reading fails
+     */
+    public List<StoredMessage> findByTime(long from, long to, int limit) throws IOException {
+        return find(from, to, null, limit);
+    }
+
+    /**
+     * Returns the records of one user with a timestamp in a range, oldest first.
+     * The cost grows with the number of records in the range, not in the store.
+     *
+     * @param sender name of the user (case-insensitive)
+     * @param from   earliest timestamp (inclusive)
+     * @param to     latest timestamp (inclusive)
+     * @param limit  maximum number of records
+     * @return matching records
+     * @throws IOException if reading fails
+     */
+    public List<StoredMessage> findBySender(String sender, long from, long to, int limit) throws IOException {
+        return find(from, to, sender, limit);
+    }
+
+    /**
+     * Returns the sequence number the next record will get.
+     */
+    public long getNextSeq() {
+        return committedSeq;
+    }
+
+    /**
+     * Returns the size of the records appended since the last commit. Must be
+     * called by the appending thread.
+     */
+    public long getUncommittedBytes() {
+        return uncommittedBytes;
+    }
+
+    /**
+     * Returns the number of segment files.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Commits pending records and closes all files.
+     */
+    @Override
+    public void close() throws IOException {
+        commit();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+    }
+
+    /**
+     * Scans the segments overlapping a time range.
+     */
+    private List<StoredMessage> find(long from, long to, String sender, int limit) throws IOException {
+        List<StoredMessage> result = new ArrayList<>();
+        for (Segment segment : segments.values()) {
+            Index index = segment.index;
+            if (index.count == 0 || index.entries[1] > to) {
+                break;
+            }
+            if (segment.lastTimestamp < from) {
+                continue;
+            }
+            ByteBuffer data = segment.map();
+
+            // Last indexed record before the range; timestamps never decrease. The entry may point
+            // past the committed records if a commit is under way, then none of them is in the range.
+            int i = search(index, 1, from - 1);
+            data.position(i < 0 ? 0 : (int) Math.min(index.entries[i * 3 + 2], data.limit()));
+            while (data.remaining() >= 4) {
+                int start = data.position();
+                long timestamp = data.getLong(start + 12);
+                if (timestamp > to) {
+                    return result;
+                }
+                if (timestamp < from || (sender != null && !sender.equalsIgnoreCase(readSender(data)))) {
+                    data.position(start + 4 + data.getInt(start));
+                    continue;
+                }
+                result.add(read(data));
+                if (result.size() >= limit) {
+                    return result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the last index entry whose field (0 = sequence number, 1 = timestamp)
+     * is at most the key, or -1.
+     */
+    private static int search(Index index, int field, long key) {
+        long[] entries = index.entries;
+        int low = 0;
+        int high = index.count - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (entries[mid * 3 + field] <= key) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the record at the buffer's position and moves past it.
+     */
+    private static StoredMessage read(ByteBuffer data) {
+        int start = data.position();
+        int length = data.getInt();
+        long seq = data.getLong();
+        long timestamp = data.getLong();
+        String sender = readString(data, data.getShort());
+        String room = readString(data, data.getShort());
+        String text = readString(data, data.getInt());
+        data.position(start + 4 + length);
+        return new StoredMessage(seq, new ChatMessage(timestamp, sender, room, text));
+    }
+
+    /**
+     * Reads the sender of the record at the buffer's position without moving.
+     */
+    private static String readSender(ByteBuffer data) {
+        ByteBuffer view = data.duplicate();
+        view.position(data.position() + 20);
+        return readString(view, view.getShort());
+    }
+
+    private static String readString(ByteBuffer data, int length) {
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int length(byte[] value) {
+        return value == null ? 0 : value.length;
+    }
+
+    private static void put(ByteBuffer record, byte[] value) {
+        if (value == null) {
+            record.putShort((short) -1);
+        } else {
+            record.putShort((short) value.length).put(value);
+        }
+    }
+
+    /**
+     * Writes the buffered records to the active segment.
+     */
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        active.write(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Seals the active segment and starts a new one.
+     */
+    private void roll() throws IOException {
+        commit();
+        active.closeForAppend();
+        active = new Segment(nextSeq);
+        active.openForAppend();
+        segments.put(active.firstSeq, active);
+        appendOffset = 0;
+        deleteExpired();
+    }
+
+    /**
+     * Deletes the oldest segments beyond the retention limit; never the active one.
+     */
+    private void deleteExpired() throws IOException {
+        while (maxSegments > 0 && segments.size() > maxSegments) {
+            Segment oldest = segments.pollFirstEntry().getValue();
+            oldest.delete();
+        }
+    }
+
+    /**
+     * Published state of a sparse index. The array is only appended to: entries
+     * below {@code count} never change, so readers can use a snapshot while the
+     * writer adds entries beyond it or publishes a grown copy.
+     *
+     * @param entries index entries (sequence number, timestamp, offset)
+     * @param count   number of valid entries
+     */
+    private record Index(long[] entries, int count) {
+    }
+
+    /**
+     * One segment file with its sparse index.
+     */
+    private final class Segment {
+
+        /** Sequence number of the first record. */
+        private final long firstSeq;
+
+        /** Segment file. */
+        private final Path dataFile;
+
+        /** Index file. */
+        private final Path indexFile;
+
+        /** Published index entries; replaced as a whole, so array and count always match. */
+        private volatile Index index = new Index(new long[3 * 64], 0);
+
+        /** Size of the committed records. */
+        private volatile long size;
+
+        /** Number of committed records. */
+        private volatile long records;
+
+        /** Timestamp of the last committed record, 0 if empty. */
+        private volatile long lastTimestamp;
+
+        /** Channel for appending, null when sealed. */
+        private FileChannel dataChannel;
+
+        /** Channel for appending index entries, null when sealed. */
+        private FileChannel indexChannel;
+
+        /** Channel for mapping the segment. Guarded by this. */
+        private FileChannel readChannel;
+
+        /** Mapping of the segment. Guarded by this. */
+        private MappedByteBuffer mapped;
+
+        /** Set once the segment was deleted by retention. Guarded by this. */
+        private boolean deleted;
+
+        private Segment(long firstSeq) {
+            this.firstSeq = firstSeq;
+            String name = String.format("%020d", firstSeq);
+            this.dataFile = dir.resolve(name + DATA_SUFFIX);
+            this.indexFile = dir.resolve(name + INDEX_SUFFIX);
+        }
+
+        /**
+         * Loads an existing segment: reads the index file, then scans the
+         * records after the last index entry, truncating a partial record.
+         */
+        private void recover() throws IOException {
+            long fileSize = Files.size(dataFile);
+            if (Files.exists(indexFile)) {
+                ByteBuffer entries = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+                while (entries.remaining() >= INDEX_ENTRY_BYTES) {
+                    long seq = entries.getLong();
+                    long timestamp = entries.getLong();
+                    int offset = entries.getInt();
+                    if (offset >= fileSize) {
+                        break;
+                    }
+                    addIndexEntry(seq, timestamp, offset, false);
+                }
+            }
+
+            long offset = 0;
+            long seq = firstSeq;
+            if (index.count > 0) {
+                offset = index.entries[(index.count - 1) * 3 + 2];
+                seq = index.entries[(index.count - 1) * 3];
+            }
+            try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+                ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+                while (offset + 4 <= fileSize) {
+                    int length = data.getInt((int) offset);
+                    if (length < 24 || offset + 4 + length > fileSize) {
+                        break;
+                    }
+                    long recordSeq = data.getLong((int) offset + 4);
+                    long timestamp = data.getLong((int) offset + 12);
+                    if ((recordSeq - firstSeq) % INDEX_INTERVAL == 0
+                            && (index.count == 0 || recordSeq > index.entries[(index.count - 1) * 3])) {
+                        addIndexEntry(recordSeq, timestamp, offset, false);
+                    }
+                    lastTimestamp = timestamp;
+                    seq = recordSeq + 1;
+                    offset += 4 + length;
+                }
+            }
+
+            int count = index.count;
+            while (count > 0 && index.entries[(count - 1) * 3 + 2] >= offset) {
+                count--;
+            }
+            index = new Index(index.entries, count);
+            size = offset;
+            records = seq - firstSeq;
+            if (offset < fileSize) {
+                try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.WRITE)) {
+                    channel.truncate(offset);
+                }
+            }
+            rewriteIndexFile();
+        }
+
+        /**
+         * Replaces the index file with the entries in memory.
+         */
+        private void rewriteIndexFile() throws IOException {
+            long[] current = index.entries;
+            ByteBuffer entries = ByteBuffer.allocate(index.count * INDEX_ENTRY_BYTES);
+            for (int i = 0; i < index.count; i++) {
+                entries.putLong(current[i * 3]).putLong(current[i * 3 + 1]).putInt((int) current[i * 3 + 2]);
+            }
+            entries.flip();
+            try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (entries.hasRemaining()) {
+                    channel.write(entries);
+                }
+            }
+        }
+
+        private void openForAppend() throws IOException {
+            dataChannel = FileChannel.open(dataFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            indexChannel = FileChannel.open(indexFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        }
+
+        private void closeForAppend() throws IOException {
+            dataChannel.close();
+            indexChannel.close();
+            dataChannel = null;
+            indexChannel = null;
+        }
+
+        private void write(ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                dataChannel.write(bytes);
+            }
+        }
+
+        private void force() throws IOException {
+            dataChannel.force(false);
+        }
+
+        /**
+         * Adds an index entry; published to readers before the records it points to.
+         */
+        private void addIndexEntry(long seq, long timestamp, long offset, boolean persist) throws IOException {
+            long[] entries = index.entries;
+            int count = index.count;
+            if ((count + 1) * 3 > entries.length) {
+                long[] larger = new long[entries.length * 2];
+                System.arraycopy(entries, 0, larger, 0, count * 3);
+                entries = larger;
+            }
+            entries[count * 3] = seq;
+            entries[count * 3 + 1] = timestamp;
+            entries[count * 3 + 2] = offset;
+            index = new Index(entries, count + 1);
+
+            if (persist) {
+                ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY_BYTES);
+                entry.putLong(seq).putLong(timestamp).putInt((int) offset).flip();
+                while (entry.hasRemaining()) {
+                    indexChannel.write(entry);
+                }
+            }
+        }
+
+        /**
+         * Makes committed records visible to readers.
+         */
+        private void publish(long newSize, long newRecords, long newLastTimestamp) {
+            lastTimestamp = newLastTimestamp;
+            records = newRecords;
+            size = newSize;
+        }
+
+        /**
+         * Returns a view of the committed records, remapping the file when it grew.
+         */
+        private synchronized ByteBuffer map() throws IOException {
+            if (deleted) {
+                return ByteBuffer.allocate(0);
+            }
+            long committed = size;
+            if (mapped == null || mapped.capacity() < committed) {
+                if (readChannel == null) {
+                    readChannel = FileChannel.open(dataFile, StandardOpenOption.READ);
+                }
+                mapped = readChannel.map(FileChannel.MapMode.READ_ONLY, 0, committed);
+            }
+            ByteBuffer view = mapped.duplicate();
+            view.limit((int) committed);
+            return view;
+        }
+
+        private synchronized void close() throws IOException {
+            if (dataChannel != null) {
+                closeForAppend();
+            }
+            if (readChannel != null) {
+                readChannel.close();
+                readChannel = null;
+            }
+            mapped = null;
+        }
+
+        /**
+         * Closes the segment and deletes its files. Views handed out before stay readable.
+         */
+        private synchronized void delete() throws IOException {
+            close();
+            deleted = true;
+            Files.deleteIfExists(dataFile);
+            Files.deleteIfExists(indexFile);
+        }
+    }
+}
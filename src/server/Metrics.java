@@ -0,0 +1,123 @@
+package server;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Registry of the server's metrics: counters, gauges and latency histograms.
+ * <p>
+ * Hot paths keep their metrics in static fields and update them without
+ * locking or allocating; counters are {@link LongAdder}s, latencies go to
+ * {@link LatencyHistogram}s. Gauges read a value (e.g. a queue size) only when
+ * the metrics are exported. Every metric has a name such as
+ * "broadcast_fanout_ns" and a one-line description. The registry is exported
+ * by {@link MetricsHttpEndpoint} and {@link MetricsMBean}.
+ * </p>
+ * <p>
+ * Reading the clock is the main cost of the instrumentation, so latencies are
+ * sampled: {@link #start()} returns 0 for all but one in
+ * {@link ChatServer#METRICS_LATENCY_SAMPLING} operations and histograms ignore
+ * those. With sampling set to 0 no latencies are measured, which is how the
+ * cost of the instrumentation itself is measured.
+ * </p>
+ */
+public final class Metrics {
+
+    /**
+     * A registered metric.
+     *
+     * @param name        metric name
+     * @param description one-line description
+     * @param value       the counter, gauge or histogram
+     */
+    public record Metric(String name, String description, Object value) {
+    }
+
+    /** Metrics by name. */
+    private static final Map<String, Metric> METRICS = new ConcurrentSkipListMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter of a name, registering it on first use.
+     *
+     * @param name        metric name
+     * @param description one-line description
+     * @return the counter
+     */
+    public static LongAdder counter(String name, String description) {
+        return (LongAdder) METRICS.computeIfAbsent(name,
+                n -> new Metric(n, description, new LongAdder())).value();
+    }
+
+    /**
+     * Returns the histogram of a name, registering it on first use.
+     *
+     * @param name        metric name
+     * @param description one-line description
+     * @return the histogram
+     */
+    public static LatencyHistogram histogram(String name, String description) {
+        return (LatencyHistogram) METRICS.computeIfAbsent(name,
+                n -> new Metric(n, description, new LatencyHistogram())).value();
+    }
+
+    /**
+     * Registers a gauge, replacing an earlier one of the same name.
+     *
+     * @param name        metric name
+     * @param description one-line description
+     * @param gauge       supplier of the current value
+     */
+    public static void gauge(String name, String description, LongSupplier gauge) {
+        METRICS.put(name, new Metric(name, description, gauge));
+    }
+
+    /**
+     * Returns the start time of a latency measurement, if this operation is sampled.
+     *
+     * @return System.nanoTime, or 0 if the latency of this operation is not measured
+     */
+    public static long start() {
+        int sampling = ChatServer.METRICS_LATENCY_SAMPLING;
+        if (sampling <= 0 || sampling > 1 && ThreadLocalRandom.current().nextInt(sampling) != 0) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Returns all metrics sorted by name.
+     */
+    public static Iterable<Metric> getMetrics() {
+        return METRICS.values();
+    }
+
+    /**
+     * Returns a metric by name, or null if there is none.
+     */
+    public static Metric get(String name) {
+        return METRICS.get(name);
+    }
+
+    /**
+     * Returns the current value of a counter or gauge, the count of a histogram.
+     *
+     * @param metric metric to read
+     * @return its value
+     */
+    public static long valueOf(Metric metric) {
+        Object value = metric.value();
+        if (value instanceof LongAdder counter) {
+            return counter.sum();
+        }
+        if (value instanceof LongSupplier gauge) {
+            return gauge.getAsLong();
+        }
+        return ((LatencyHistogram) value).getCount();
+    }
+}
@@ -0,0 +1,102 @@
+package server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Serves the {@link Metrics} as plain text on "GET /metrics", using the JDK's
+ * built-in HTTP server.
+ * <p>
+ * The output follows the Prometheus text format: counters and gauges are one
+ * line each, histograms are summaries with the 50th, 99th and 99.9th percentile,
+ * their sum, count and maximum. Requests are served on one thread of their own,
+ * so scraping never runs on a client or worker thread.
+ * </p>
+ */
+public class MetricsHttpEndpoint {
+
+    /** Percentiles reported for every histogram. */
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /** Underlying HTTP server. */
+    private final HttpServer http;
+
+    /**
+     * Creates the endpoint.
+     *
+     * @param host address to listen on, e.g. "127.0.0.1" for local scrapers only
+     *             or "0.0.0.0" for all interfaces
+     * @param port port to listen on
+     * @throws IOException if the port cannot be bound
+     */
+    public MetricsHttpEndpoint(String host, int port) throws IOException {
+        http = HttpServer.create(new InetSocketAddress(host, port), 0);
+        http.createContext("/metrics", this::handle);
+    }
+
+    /**
+     * Starts serving requests.
+     */
+    public void start() {
+        http.start();
+    }
+
+    /**
+     * Stops serving requests.
+     */
+    public void stop() {
+        http.stop(0);
+    }
+
+    /**
+     * Answers one request with the current metrics.
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = render().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * Renders all metrics in the Prometheus text format.
+     *
+     * @return the text served on /metrics
+     */
+    public static String render() {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Metrics.Metric metric : Metrics.getMetrics()) {
+            String name = metric.name();
+            sb.append("# HELP ").append(name).append(' ').append(metric.description()).append('\n');
+            if (metric.value() instanceof LatencyHistogram histogram) {
+                sb.append("# TYPE ").append(name).append(" summary\n");
+                for (double q : QUANTILES) {
+                    sb.append(name).append("{quantile=\"").append(q).append("\"} ")
+                            .append(histogram.getPercentile(q)).append('\n');
+                }
+                sb.append(name).append("_sum ").append(histogram.getSum()).append('\n');
+                sb.append(name).append("_count ").append(histogram.getCount()).append('\n');
+                sb.append(name).append("_max ").append(histogram.getMax()).append('\n');
+            } else {
+                String type = metric.value() instanceof LongAdder ? "counter" : "gauge";
+                sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+                sb.append(name).append(' ').append(Metrics.valueOf(metric)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,117 @@
+package server;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exposes the {@link Metrics} as read-only attributes of the MBean
+ * "server:type=Metrics", e.g. for jconsole or VisualVM.
+ * <p>
+ * Counters and gauges are one attribute each. A histogram named "x" becomes
+ * the attributes "x_count", "x_p50", "x_p99", "x_p999" and "x_max". The
+ * attribute list is built on every request, so metrics registered later show up.
+ * </p>
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    /** Name the MBean is registered under. */
+    public static final String OBJECT_NAME = "server:type=Metrics";
+
+    /** Attribute suffixes of a histogram. */
+    private static final String[] HISTOGRAM_SUFFIXES = {"_count", "_p50", "_p99", "_p999", "_max"};
+
+    /**
+     * Registers the MBean with the platform MBean server.
+     *
+     * @throws JMException if the MBean cannot be registered
+     */
+    public static void register() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(), name);
+        }
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Metrics.Metric metric = Metrics.get(attribute);
+        if (metric != null && !(metric.value() instanceof LatencyHistogram)) {
+            return Metrics.valueOf(metric);
+        }
+        for (String suffix : HISTOGRAM_SUFFIXES) {
+            if (attribute.endsWith(suffix)) {
+                metric = Metrics.get(attribute.substring(0, attribute.length() - suffix.length()));
+                if (metric != null && metric.value() instanceof LatencyHistogram histogram) {
+                    return switch (suffix) {
+                        case "_count" -> histogram.getCount();
+                        case "_p50" -> histogram.getPercentile(0.5);
+                        case "_p99" -> histogram.getPercentile(0.99);
+                        case "_p999" -> histogram.getPercentile(0.999);
+                        default -> histogram.getMax();
+                    };
+                }
+            }
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException ignored) {
+                // left out, as the interface allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only");
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) {
+        throw new UnsupportedOperationException("Metrics have no operations");
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (Metrics.Metric metric : Metrics.getMetrics()) {
+            if (metric.value() instanceof LatencyHistogram) {
+                for (String suffix : HISTOGRAM_SUFFIXES) {
+                    attributes.add(attribute(metric.name() + suffix, metric.description()));
+                }
+            } else {
+                attributes.add(attribute(metric.name(), metric.description()));
+            }
+        }
+        return new MBeanInfo(getClass().getName(), "Chat server metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    /**
+     * Describes a read-only long attribute.
+     */
+    private static MBeanAttributeInfo attribute(String name, String description) {
+        return new MBeanAttributeInfo(name, "long", description, true, false, false);
+    }
+}
@@ -0,0 +1,391 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Client connection served by a {@link NioReactor}.
+ * <p>
+ * Incoming bytes are split into lines (or binary frames) directly on a
+ * {@link ByteBuffer} and passed to {@link ClientHandler#handleLine(String)}, so
+ * the command handling is the same as for the blocking transport. Outgoing
+ * messages go to the bounded outbound queue inherited from {@link ClientHandler}
+ * and are written by the reactor thread when the channel is writable.
+ * </p>
+ */
+public class NioClientHandler extends ClientHandler {
+
+    /** Initial size of the read buffer. */
+    private static final int INITIAL_READ_BUFFER = 1024;
+
+    /** Longest accepted line; longer lines disconnect the client. */
+    private static final int MAX_LINE_LENGTH = 64 * 1024;
+
+    /** Channel of this connection. */
+    private final SocketChannel channel;
+
+    /** Reactor serving this connection. */
+    private final NioReactor reactor;
+
+    /** Maximum number of messages written with one gathering write. */
+    private static final int GATHER_SIZE = 16;
+
+    /** Buffers of the messages currently being written. Reactor thread only. */
+    private final ByteBuffer[] gather = new ByteBuffer[GATHER_SIZE];
+
+    /** Messages currently being written, parallel to {@link #gather}. */
+    private final EncodedMessage[] inFlight = new EncodedMessage[GATHER_SIZE];
+
+    /** Index of the first not fully written buffer in {@link #gather}. */
+    private int gatherStart;
+
+    /** Number of filled slots in {@link #gather}. */
+    private int gatherCount;
+
+    /** Set while a flush request is queued at the reactor, avoids redundant wakeups. */
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /** Buffer collecting incoming bytes until a full line is available. */
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_READ_BUFFER);
+
+    /** Selection key, set once the reactor registered the channel. */
+    private SelectionKey key;
+
+    /** Set when the connection should be closed after pending output is written. */
+    private volatile boolean closeRequested;
+
+    /** Set while reading is paused by a rate limit. Reactor thread only. */
+    private boolean paused;
+
+    /** Protocol not decided yet. */
+    private static final int UNDECIDED = 0;
+
+    /** Text lines. */
+    private static final int TEXT = 1;
+
+    /** Binary frames. */
+    private static final int BINARY = 2;
+
+    /** Protocol of the connection; decided by the first bytes or by the detection timeout. Reactor thread only. */
+    private int protocol = UNDECIDED;
+
+    /**
+     * Constructs a new NioClientHandler.
+     */
+    public NioClientHandler(
+            SocketChannel channel,
+            NioReactor reactor,
+            ChatServer server,
+            ClientRegistry clients,
+            LinkedBlockingQueue<String> broadcastQueue,
+            LinkedBlockingQueue<ChatMessage> logQueue) {
+
+        super(channel.socket(), server, clients, broadcastQueue, logQueue);
+        this.channel = channel;
+        this.reactor = reactor;
+    }
+
+    /**
+     * Registers the channel with the reactor's selector. Called on the reactor thread.
+     *
+     * @param selector selector of the reactor
+     */
+    void register(Selector selector) {
+        try {
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+            TimeoutWatcher watcher = server.getTimeoutWatcher();
+            if (ChatServer.PROTOCOL_DETECT_MS <= 0 || watcher == null) {
+                protocol = TEXT;
+                onConnect();
+            } else {
+                // the timeout only hands over to the reactor, which owns the detection
+                watcher.schedule(ChatServer.PROTOCOL_DETECT_MS, () -> reactor.requestDetectionTimeout(this));
+            }
+        } catch (ClosedChannelException e) {
+            disconnect();
+        }
+    }
+
+    /**
+     * Greets a client that sent no binary preamble in time in text. Called on the reactor thread.
+     */
+    void detectionTimedOut() {
+        if (protocol == UNDECIDED && key.isValid()) {
+            protocol = TEXT;
+            onConnect();
+        }
+    }
+
+    /**
+     * Reads available bytes and handles every complete line. Called on the reactor thread.
+     */
+    void onReadable() {
+        int read;
+        try {
+            read = channel.read(readBuffer);
+        } catch (IOException e) {
+            read = -1;
+        }
+        if (read < 0) {
+            connectionLost();
+            return;
+        }
+
+        readBuffer.flip();
+        try {
+            if (protocol == UNDECIDED && !detectProtocol()) {
+                readBuffer.compact();
+                return;
+            }
+            if (binary) {
+                handleFrames();
+            } else {
+                String line;
+                while (!closeRequested && !paused && (line = nextLine()) != null) {
+                    if (!handleLine(line)) {
+                        disconnect();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            disconnect();
+        }
+        readBuffer.compact();
+
+        if (!paused && !readBuffer.hasRemaining()) {
+            if (readBuffer.capacity() >= MAX_LINE_LENGTH) {
+                sendMessage("SERVER: Line too long.");
+                disconnect();
+                return;
+            }
+            ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+            readBuffer.flip();
+            larger.put(readBuffer);
+            readBuffer = larger;
+        }
+    }
+
+    /**
+     * Stops reading from the channel; the lines still buffered are handled
+     * once the pause is over. Called on the reactor thread, which must not sleep.
+     *
+     * @param nanos pause (ns)
+     */
+    @Override
+    protected void pauseReading(long nanos) {
+        TimeoutWatcher watcher = server.getTimeoutWatcher();
+        if (watcher == null || key == null || !key.isValid()) {
+            return;
+        }
+        paused = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+        watcher.schedule(Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos)), () -> reactor.requestResume(this));
+    }
+
+    /**
+     * Ends a pause started by {@link #pauseReading(long)} and handles the
+     * buffered input. Called on the reactor thread.
+     */
+    void resumeReading() {
+        if (!paused || !key.isValid()) {
+            return;
+        }
+        paused = false;
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        onReadable();
+    }
+
+    /**
+     * Decides the protocol from the first bytes in the read buffer (in read mode)
+     * and greets the client.
+     *
+     * @return false if more bytes are needed to decide
+     */
+    private boolean detectProtocol() {
+        int start = readBuffer.position();
+        int available = Math.min(readBuffer.remaining(), Frame.MAGIC.length);
+        for (int i = 0; i < available; i++) {
+            byte b = readBuffer.get(start + i);
+            boolean version = i == Frame.MAGIC.length - 1;
+            if (b != Frame.MAGIC[i] && !(version && b == Frame.VERSION_DEFLATE)) {
+                protocol = TEXT;
+                onConnect();
+                return true;
+            }
+        }
+        if (available < Frame.MAGIC.length) {
+            return false;
+        }
+        protocol = BINARY;
+        compress = readBuffer.get(start + Frame.MAGIC.length - 1) == Frame.VERSION_DEFLATE
+                && ChatServer.COMPRESSION_THRESHOLD > 0;
+        readBuffer.position(start + Frame.MAGIC.length);
+        binary = true;
+        onConnect();
+        return true;
+    }
+
+    /**
+     * Handles every complete frame in the read buffer (in read mode). A compressed
+     * frame from a client that did not negotiate deflate disconnects it.
+     */
+    private void handleFrames() throws InterruptedException {
+        while (!closeRequested && !paused && readBuffer.remaining() >= Frame.HEADER_SIZE) {
+            int start = readBuffer.position();
+            byte type = readBuffer.get(start);
+            byte flags = readBuffer.get(start + 1);
+            int length = readBuffer.getInt(start + 6);
+            if (length < 0 || length > Frame.MAX_PAYLOAD) {
+                disconnect();
+                return;
+            }
+            if (readBuffer.remaining() < Frame.HEADER_SIZE + length) {
+                return;
+            }
+            ByteBuffer payload = readBuffer.duplicate();
+            payload.position(start + Frame.HEADER_SIZE).limit(start + Frame.HEADER_SIZE + length);
+            readBuffer.position(start + Frame.HEADER_SIZE + length);
+            boolean compressed = (flags & Frame.COMPRESSED) != 0;
+            if (compressed && !compress) {
+                // deflate was not negotiated: a protocol violation, not something to inflate
+                disconnect();
+                return;
+            }
+            String text = compressed
+                    ? Frame.inflate(readBuffer.array(), start + Frame.HEADER_SIZE, length)
+                    : StandardCharsets.UTF_8.decode(payload).toString();
+            if (text == null || !handleFrame(type, text)) {
+                disconnect();
+            }
+        }
+    }
+
+    /**
+     * Extracts the next complete line from the read buffer (in read mode).
+     *
+     * @return decoded line without terminator, or null if no full line is buffered
+     */
+    private String nextLine() {
+        int start = readBuffer.position();
+        int limit = readBuffer.limit();
+
+        for (int i = start; i < limit; i++) {
+            if (readBuffer.get(i) == '\n') {
+                int end = i;
+                if (end > start && readBuffer.get(end - 1) == '\r') {
+                    end--;
+                }
+                ByteBuffer lineBytes = readBuffer.duplicate();
+                lineBytes.position(start).limit(end);
+                readBuffer.position(i + 1);
+                return StandardCharsets.UTF_8.decode(lineBytes).toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes as much queued output as the channel accepts, several messages
+     * per system call. Called on the reactor thread.
+     */
+    void flush() {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) {
+            return;
+        }
+        try {
+            while (true) {
+                if (gatherStart == gatherCount) {
+                    gatherStart = 0;
+                    gatherCount = 0;
+                    EncodedMessage msg;
+                    while (gatherCount < GATHER_SIZE && (msg = outbound.poll()) != null) {
+                        gather[gatherCount] = msg.buffer();
+                        inFlight[gatherCount] = msg;
+                        gatherCount++;
+                    }
+                    if (gatherCount == 0) {
+                        break;
+                    }
+                }
+
+                channel.write(gather, gatherStart, gatherCount - gatherStart);
+
+                while (gatherStart < gatherCount && !gather[gatherStart].hasRemaining()) {
+                    inFlight[gatherStart].release();
+                    gather[gatherStart] = null;
+                    inFlight[gatherStart] = null;
+                    gatherStart++;
+                }
+                if (gatherStart < gatherCount) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+
+            if (closeRequested) {
+                channel.close();
+            }
+        } catch (IOException e) {
+            closeRequested = true;
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            connectionLost();
+        }
+    }
+
+    /**
+     * Queues a message for this client; the reactor writes it asynchronously.
+     */
+    @Override
+    public void send(EncodedMessage msg) {
+        if (isDetached()) {
+            super.send(msg);
+            return;
+        }
+        if (closeRequested) {
+            return;
+        }
+        super.send(msg);
+        scheduleFlush();
+    }
+
+    /**
+     * Closes the channel once all queued output has been written,
+     * or immediately if the client is a slow consumer.
+     */
+    @Override
+    protected void closeConnection() {
+        closeRequested = true;
+        outbound.close();
+        if (slowConsumer) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            return;
+        }
+        reactor.requestWrite(this);
+    }
+
+    /**
+     * Asks the reactor to flush, unless a flush is already pending.
+     */
+    private void scheduleFlush() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            reactor.requestWrite(this);
+        }
+    }
+}
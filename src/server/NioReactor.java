@@ -0,0 +1,168 @@
+package server;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Event loop serving a set of {@link NioClientHandler} connections on one selector.
+ * <p>
+ * All channel I/O happens on the reactor thread. Other threads only enqueue
+ * registrations and write requests and wake the selector up.
+ * </p>
+ */
+public class NioReactor implements Runnable {
+
+    /** Selector multiplexing the connections of this reactor. */
+    private final Selector selector;
+
+    /** Newly accepted connections waiting to be registered. */
+    private final ConcurrentLinkedQueue<NioClientHandler> pendingRegistrations =
+            new ConcurrentLinkedQueue<>();
+
+    /** Connections that have new outgoing data or want to be closed. */
+    private final ConcurrentLinkedQueue<NioClientHandler> pendingWrites =
+            new ConcurrentLinkedQueue<>();
+
+    /** Connections whose rate limit pause is over. */
+    private final ConcurrentLinkedQueue<NioClientHandler> pendingResumes =
+            new ConcurrentLinkedQueue<>();
+
+    /** Connections whose protocol detection timed out. */
+    private final ConcurrentLinkedQueue<NioClientHandler> pendingDetections =
+            new ConcurrentLinkedQueue<>();
+
+    /** Set once the reactor should close its connections and end. */
+    private volatile boolean stopped;
+
+    /**
+     * Constructs a reactor with its own selector.
+     *
+     * @throws IOException if the selector cannot be opened
+     */
+    public NioReactor() throws IOException {
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Hands a new connection to this reactor.
+     *
+     * @param handler connection to register
+     */
+    public void register(NioClientHandler handler) {
+        pendingRegistrations.add(handler);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the reactor to flush the pending output of a connection.
+     *
+     * @param handler connection with pending output
+     */
+    public void requestWrite(NioClientHandler handler) {
+        pendingWrites.add(handler);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the reactor to continue reading from a paused connection.
+     *
+     * @param handler paused connection
+     */
+    public void requestResume(NioClientHandler handler) {
+        pendingResumes.add(handler);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the reactor to end the protocol detection of a connection that
+     * sent nothing in time, so that it is greeted in text.
+     *
+     * @param handler connection whose detection timed out
+     */
+    public void requestDetectionTimeout(NioClientHandler handler) {
+        pendingDetections.add(handler);
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the reactor to close its remaining connections and its selector and end.
+     */
+    public void stop() {
+        stopped = true;
+        selector.wakeup();
+    }
+
+    /**
+     * Main event loop: registers new connections, flushes requested writes,
+     * resumes paused connections, ends timed out protocol detections and dispatches ready keys to their handlers.
+     * Ends after {@link #stop()}, closing whatever is still open.
+     */
+    @Override
+    public void run() {
+        while (!stopped) {
+            try {
+                selector.select();
+
+                NioClientHandler handler;
+                while ((handler = pendingRegistrations.poll()) != null) {
+                    handler.register(selector);
+                }
+                while ((handler = pendingWrites.poll()) != null) {
+                    handler.flush();
+                }
+                while ((handler = pendingResumes.poll()) != null) {
+                    try {
+                        handler.resumeReading();
+                    } catch (CancelledKeyException ignored) {
+                        // connection closed while paused
+                    }
+                }
+                while ((handler = pendingDetections.poll()) != null) {
+                    handler.detectionTimedOut();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    NioClientHandler client = (NioClientHandler) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            client.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            client.flush();
+                        }
+                    } catch (CancelledKeyException ignored) {
+                        // connection closed while being processed
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Reactor error: " + e.getMessage());
+            }
+        }
+        close();
+    }
+
+    /**
+     * Closes every channel still registered and the selector. Reactor thread only.
+     */
+    private void close() {
+        try {
+            for (SelectionKey key : selector.keys()) {
+                try {
+                    key.channel().close();
+                } catch (IOException ignored) {
+                }
+            }
+            selector.close();
+        } catch (IOException e) {
+            System.err.println("Cannot close reactor selector: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Non-blocking transport built on {@link java.nio.channels.Selector}.
+ * <p>
+ * Connections are accepted on the calling thread and handed round-robin to a
+ * small pool of {@link NioReactor} threads, each of which multiplexes many
+ * clients on one selector instead of using one thread per connection.
+ * </p>
+ */
+public class NioTransport {
+
+    /** Reference to chat server (shared services, config). */
+    private final ChatServer server;
+
+    /** Registry of all connected clients. */
+    private final ClientRegistry clients;
+
+    /** Queue used to broadcast messages to all clients. */
+    private final LinkedBlockingQueue<String> broadcastQueue;
+
+    /** Queue used for logging messages. */
+    private final LinkedBlockingQueue<ChatMessage> logQueue;
+
+    /** Reactors serving the accepted connections. */
+    private final NioReactor[] reactors;
+
+    /** Threads running the reactors, null until started. */
+    private final Thread[] reactorThreads;
+
+    /** Index of the reactor that gets the next connection. */
+    private int next;
+
+    /** Listening channel, null until {@link #serve(int)} opened it. */
+    private volatile ServerSocketChannel serverChannel;
+
+    /** Set once no more connections are accepted. */
+    private volatile boolean stopped;
+
+    /**
+     * Constructs the transport and opens the reactor selectors.
+     *
+     * @param server         chat server
+     * @param clients        registry of connected clients
+     * @param broadcastQueue queue for broadcasting messages
+     * @param logQueue       queue for logging messages
+     * @param reactorCount   number of reactor threads, 0 means one per core
+     * @throws IOException if a selector cannot be opened
+     */
+    public NioTransport(ChatServer server, ClientRegistry clients,
+                        LinkedBlockingQueue<String> broadcastQueue,
+                        LinkedBlockingQueue<ChatMessage> logQueue,
+                        int reactorCount) throws IOException {
+        this.server = server;
+        this.clients = clients;
+        this.broadcastQueue = broadcastQueue;
+        this.logQueue = logQueue;
+
+        if (reactorCount <= 0) {
+            reactorCount = Runtime.getRuntime().availableProcessors();
+        }
+        reactors = new NioReactor[reactorCount];
+        reactorThreads = new Thread[reactorCount];
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new NioReactor();
+        }
+    }
+
+    /**
+     * Starts the reactor threads and accepts connections on the given port.
+     * This method blocks until {@link #stopAccepting()} or {@link #stop(long)} is
+     * called or the server socket fails.
+     *
+     * @param port port to listen on
+     * @throws IOException if the server socket cannot be opened
+     */
+    public void serve(int port) throws IOException {
+        // Reactors spin on their selector for the whole server lifetime,
+        // so they always run on platform threads regardless of THREAD_MODE
+        for (int i = 0; i < reactors.length; i++) {
+            reactorThreads[i] = new Thread(reactors[i], "NioReactor-" + i);
+            reactorThreads[i].start();
+        }
+        System.out.println("NIO transport running with " + reactors.length + " reactor threads");
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(port));
+            serverChannel = listener;
+
+            while (!stopped) {
+                SocketChannel channel = listener.accept();
+                channel.configureBlocking(false);
+
+                NioReactor reactor = reactors[next];
+                next = (next + 1) % reactors.length;
+
+                NioClientHandler handler = new NioClientHandler(
+                        channel, reactor, server, clients, broadcastQueue, logQueue);
+
+                clients.add(handler);
+                reactor.register(handler);
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the listening channel; the
+     * accepted connections are served on.
+     */
+    public void stopAccepting() {
+        stopped = true;
+        ServerSocketChannel listener = serverChannel;
+        if (listener != null) {
+            try {
+                listener.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Stops accepting connections, closes the connections still open and ends
+     * the reactor threads.
+     *
+     * @param deadline time (ms since epoch) until which to wait for the reactor threads
+     * @return false if a reactor thread was still running at the deadline
+     */
+    public boolean stop(long deadline) {
+        stopAccepting();
+        for (NioReactor reactor : reactors) {
+            reactor.stop();
+        }
+        boolean stoppedAll = true;
+        for (Thread thread : reactorThreads) {
+            if (thread == null) {
+                continue;
+            }
+            try {
+                thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            stoppedAll &= !thread.isAlive();
+        }
+        return stoppedAll;
+    }
+}
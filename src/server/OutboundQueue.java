@@ -0,0 +1,195 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of messages waiting to be written to one client.
+ * <p>
+ * Producers (broadcast workers, other clients) never block on it: when the
+ * queue is full the configured {@link OverflowPolicy} decides whether the
+ * oldest or the newest message is dropped, or whether the slow consumer
+ * should be disconnected.
+ * </p>
+ *
+ * @param <T> type of the queued messages
+ */
+public class OutboundQueue<T> {
+
+    /**
+     * What to do when a message is offered to a full queue.
+     */
+    public enum OverflowPolicy {
+        /** Drop the oldest queued message to make room. */
+        DROP_OLDEST,
+        /** Drop the offered message. */
+        DROP_NEWEST,
+        /** Refuse the message and ask for the client to be disconnected. */
+        DISCONNECT;
+
+        /**
+         * Parses a policy name as used in server.properties, e.g. "drop_oldest".
+         *
+         * @param value policy name
+         * @return parsed policy
+         * @throws IllegalArgumentException if there is no such policy
+         */
+        public static OverflowPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** Messages dropped by all outbound queues together. */
+    private static final LongAdder TOTAL_DROPPED =
+            Metrics.counter("outbound_dropped_total", "Messages dropped because a client read too slowly");
+
+    /** Queued messages. */
+    private final ArrayDeque<T> items;
+
+    /** Maximum number of queued messages. */
+    private final int capacity;
+
+    /** Policy applied when the queue is full. */
+    private final OverflowPolicy policy;
+
+    /** Lock guarding the queue. */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /** Signalled when a message is added or the queue is closed. */
+    private final Condition notEmpty = lock.newCondition();
+
+    /** Messages dropped by this queue. */
+    private final AtomicLong dropped = new AtomicLong();
+
+    /** Set once no more messages are accepted. */
+    private boolean closed;
+
+    /**
+     * Constructs an empty queue.
+     *
+     * @param capacity maximum number of queued messages
+     * @param policy   policy applied when the queue is full
+     */
+    public OutboundQueue(int capacity, OverflowPolicy policy) {
+        this.capacity = Math.max(1, capacity);
+        this.policy = policy;
+        this.items = new ArrayDeque<>(Math.min(this.capacity, 64));
+    }
+
+    /**
+     * Adds a message without blocking.
+     *
+     * @param item message to add
+     * @return false if the queue is full and the policy is {@link OverflowPolicy#DISCONNECT}
+     */
+    public boolean offer(T item) {
+        lock.lock();
+        try {
+            if (closed) {
+                return true;
+            }
+            if (items.size() >= capacity) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        items.pollFirst();
+                        countDrop();
+                        break;
+                    case DROP_NEWEST:
+                        countDrop();
+                        return true;
+                    case DISCONNECT:
+                        countDrop();
+                        return false;
+                }
+            }
+            items.addLast(item);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits for the next message.
+     *
+     * @return next message, or null once the queue is closed and empty
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public T take() throws InterruptedException {
+        lock.lock();
+        try {
+            while (items.isEmpty()) {
+                if (closed) {
+                    return null;
+                }
+                notEmpty.await();
+            }
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the next message without waiting.
+     *
+     * @return next message, or null if the queue is empty
+     */
+    public T poll() {
+        lock.lock();
+        try {
+            return items.pollFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns true if no message is queued.
+     */
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return items.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops accepting messages. Already queued messages can still be taken.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of messages dropped by this queue.
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Returns the number of messages dropped by all outbound queues.
+     */
+    public static long getTotalDropped() {
+        return TOTAL_DROPPED.sum();
+    }
+
+    private void countDrop() {
+        dropped.incrementAndGet();
+        TOTAL_DROPPED.increment();
+    }
+}
@@ -0,0 +1,269 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces presence announcements (joins, leaves and name changes), so that
+ * a burst of them costs a few broadcasts instead of one per event.
+ * <p>
+ * In every window the first {@code threshold} events are announced as they
+ * happen, one line each. Further events of the same window are held back and
+ * announced together when the window ends, one summary line per kind of event
+ * ("42 users joined the chat: a, b, c, d, e and 37 more."). While events keep
+ * coming, every following window is summarized as a whole.
+ * </p>
+ * <p>
+ * The held-back events are collapsed per user to their net effect: a user who
+ * leaves and comes back (or the other way round) cancels out, so a mass
+ * reconnect announces nothing at all; a rename and its reverse cancel out as
+ * well, and a user who joins and then renames is announced as joined under the
+ * final name. Users are listed in the order they first appeared, and the
+ * summary lines come in the order their first user appeared.
+ * </p>
+ * <p>
+ * Only presence goes through here; chat messages use the room queues and are
+ * never held back. The server creates the coalescer when it starts, together
+ * with the {@link TimeoutWatcher} running the window timers.
+ * </p>
+ */
+public class PresenceCoalescer {
+
+    /** Number of presence events held back for a summary. */
+    private static final LongAdder HELD_BACK =
+            Metrics.counter("presence_events_coalesced_total", "Join, leave and rename events announced in a summary");
+
+    /** Number of summary lines broadcast. */
+    private static final LongAdder SUMMARIES =
+            Metrics.counter("presence_summaries_total", "Summary lines replacing several presence announcements");
+
+    /** Number of summary lines dropped because the broadcast queue was full. */
+    private static final LongAdder SUMMARIES_DROPPED =
+            Metrics.counter("presence_summaries_dropped_total", "Summary lines dropped, broadcast queue full");
+
+    /** Most names listed in one summary line. */
+    static final int SUMMARY_NAMES = 5;
+
+    /** Watcher running the window timers. */
+    private final TimeoutWatcher watcher;
+
+    /** Bus the summaries are published on, null if the server runs on its own. */
+    private final ClusterBus cluster;
+
+    /** Queue for broadcasting the summaries to all clients. */
+    private final LinkedBlockingQueue<String> broadcastQueue;
+
+    /** Length (ms) of a window, 0 disables coalescing. */
+    private final long windowMs;
+
+    /** Events announced individually per window. */
+    private final int threshold;
+
+    /** Net change of every user with held-back events, in the order the users first appeared. Guarded by this. */
+    private final List<Change> changes = new ArrayList<>();
+
+    /** Entries of {@link #changes} by the user's current name. Guarded by this. */
+    private final Map<String, Change> byName = new HashMap<>();
+
+    /** End of the current window. Guarded by this. */
+    private long windowEnd;
+
+    /** Events announced individually in the current window. Guarded by this. */
+    private int announced;
+
+    /** Whether a flush of the held-back events is scheduled. Guarded by this. */
+    private boolean flushScheduled;
+
+    /**
+     * Constructs a PresenceCoalescer.
+     *
+     * @param watcher        watcher running the window timers
+     * @param cluster        bus the summaries are published on, null without a cluster
+     * @param broadcastQueue queue for broadcasting the summaries
+     * @param windowMs       length (ms) of a window, 0 to announce every event on its own
+     * @param threshold      events announced individually per window
+     */
+    public PresenceCoalescer(TimeoutWatcher watcher, ClusterBus cluster,
+                             LinkedBlockingQueue<String> broadcastQueue, long windowMs, int threshold) {
+        this.watcher = watcher;
+        this.cluster = cluster;
+        this.broadcastQueue = broadcastQueue;
+        this.windowMs = windowMs;
+        this.threshold = Math.max(0, threshold);
+    }
+
+    /**
+     * Reports that a user joined.
+     *
+     * @param name name of the user
+     * @return true if the event is held back for a summary, false if the caller announces it now
+     */
+    public synchronized boolean holdJoined(String name) {
+        if (!holdBack()) {
+            return false;
+        }
+        Change change = byName.get(name);
+        if (change == null) {
+            change = track(new Change(name, false));
+        }
+        change.present = true;
+        return true;
+    }
+
+    /**
+     * Reports that a user left.
+     *
+     * @param name name of the user
+     * @return true if the event is held back for a summary, false if the caller announces it now
+     */
+    public synchronized boolean holdLeft(String name) {
+        if (!holdBack()) {
+            return false;
+        }
+        Change change = byName.get(name);
+        if (change == null) {
+            change = track(new Change(name, true));
+        }
+        change.present = false;
+        return true;
+    }
+
+    /**
+     * Reports that a user changed the name.
+     *
+     * @param oldName previous name
+     * @param newName new name
+     * @return true if the event is held back for a summary, false if the caller announces it now
+     */
+    public synchronized boolean holdRenamed(String oldName, String newName) {
+        if (!holdBack()) {
+            return false;
+        }
+        Change change = byName.remove(oldName);
+        if (change == null) {
+            change = new Change(oldName, true);
+            changes.add(change);
+        }
+        change.name = newName;
+        byName.put(newName, change);
+        return true;
+    }
+
+    /**
+     * Starts tracking the net change of a user.
+     */
+    private Change track(Change change) {
+        changes.add(change);
+        byName.put(change.name, change);
+        return change;
+    }
+
+    /**
+     * Decides whether the current event is held back and schedules the flush
+     * of the window if it is the first one held back.
+     */
+    private boolean holdBack() {
+        if (windowMs <= 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (!flushScheduled) {
+            if (now >= windowEnd) {
+                windowEnd = now + windowMs;
+                announced = 0;
+            }
+            if (announced < threshold) {
+                announced++;
+                return false;
+            }
+            flushScheduled = true;
+            watcher.schedule(Math.max(1, windowEnd - now), this::flush);
+        }
+        HELD_BACK.increment();
+        return true;
+    }
+
+    /**
+     * Broadcasts the summaries of the held-back events and starts a window in
+     * which every event is held back. Called on the timeout watcher thread.
+     */
+    void flush() {
+        List<String> lines = new ArrayList<>(3);
+        synchronized (this) {
+            // names per kind of event, kinds in the order they first occur
+            Map<String, List<String>> kinds = new LinkedHashMap<>();
+            for (Change change : changes) {
+                if (!change.wasPresent && change.present) {
+                    kinds.computeIfAbsent("joined the chat", k -> new ArrayList<>()).add(change.name);
+                } else if (change.wasPresent && !change.present) {
+                    kinds.computeIfAbsent("left the chat", k -> new ArrayList<>()).add(change.startName);
+                } else if (change.wasPresent && !change.startName.equals(change.name)) {
+                    kinds.computeIfAbsent("changed their names", k -> new ArrayList<>())
+                            .add(change.startName + " to " + change.name);
+                }
+            }
+            kinds.forEach((what, names) -> lines.add(summarize(names, what)));
+            changes.clear();
+            byName.clear();
+            flushScheduled = false;
+            windowEnd = System.currentTimeMillis() + windowMs;
+            announced = threshold;
+        }
+        // never wait here: this is the timer thread of every client
+        for (String line : lines) {
+            if (!broadcastQueue.offer(line)) {
+                SUMMARIES_DROPPED.increment();
+                continue;
+            }
+            if (cluster != null) {
+                cluster.announce(line);
+            }
+            SUMMARIES.increment();
+        }
+    }
+
+    /**
+     * Returns the summary line of one kind of event.
+     */
+    private static String summarize(List<String> names, String what) {
+        StringBuilder listed = new StringBuilder();
+        int count = names.size();
+        for (int i = 0; i < Math.min(count, SUMMARY_NAMES); i++) {
+            listed.append(i == 0 ? "" : ", ").append(names.get(i));
+        }
+        if (count > SUMMARY_NAMES) {
+            listed.append(" and ").append(count - SUMMARY_NAMES).append(" more");
+        }
+        return count + (count == 1 ? " user " : " users ") + what + ": " + listed + ".";
+    }
+
+    /**
+     * Net presence change of one user within the held-back events.
+     */
+    private static final class Change {
+
+        /** Name before the first held-back event. */
+        final String startName;
+
+        /** Whether the user was in the chat before the first held-back event. */
+        final boolean wasPresent;
+
+        /** Name after the last held-back event. */
+        String name;
+
+        /** Whether the user is in the chat after the last held-back event. */
+        boolean present;
+
+        Change(String startName, boolean wasPresent) {
+            this.startName = startName;
+            this.wasPresent = wasPresent;
+            this.name = startName;
+            this.present = wasPresent;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package server;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free token bucket limiting how many messages are accepted per second.
+ * <p>
+ * The bucket is kept as a single timestamp, the time at which it would be
+ * full again (generic cell rate algorithm): taking a token moves it one
+ * interval into the future, and a token is available as long as it is not
+ * more than the burst ahead of now. Checking and taking a token is one
+ * compare-and-set, so a limiter can be shared by all client threads.
+ * </p>
+ */
+public class RateLimiter {
+
+    /**
+     * What happens to a message over the limit.
+     */
+    public enum Action {
+        /** Discard the message and tell the sender once. */
+        DROP,
+        /** Accept the message but stop reading from the sender until it is within the limit again. */
+        DELAY,
+        /** Accept the message and tell the sender once. */
+        WARN,
+        /** Disconnect the sender. */
+        DISCONNECT;
+
+        /**
+         * Parses an action name as used in server.properties, e.g. "drop".
+         *
+         * @param value action name
+         * @return parsed action
+         * @throws IllegalArgumentException if there is no such action
+         */
+        public static Action parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    /** Messages over the limit of any limiter. */
+    private static final LongAdder TOTAL_THROTTLED =
+            Metrics.counter("messages_throttled_total", "Messages over a client or the server-wide rate limit");
+
+    /** Time (ns) one token takes to refill. */
+    private final long intervalNanos;
+
+    /** How far (ns) the bucket may run ahead of now, i.e. the burst. */
+    private final long toleranceNanos;
+
+    /** Time (System.nanoTime) at which the bucket is full again. */
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE);
+
+    /** Messages over the limit of this limiter. */
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * Constructs a limiter with a full bucket.
+     *
+     * @param perSecond sustained number of messages per second, must be positive
+     * @param burst     number of messages accepted at once from a full bucket, at least 1
+     */
+    public RateLimiter(double perSecond, int burst) {
+        this.intervalNanos = Math.max(1, (long) (1_000_000_000L / perSecond));
+        this.toleranceNanos = intervalNanos * Math.max(1, burst);
+    }
+
+    /**
+     * Takes a token if one is available.
+     *
+     * @param now current time (System.nanoTime)
+     * @return 0 if a token was taken, otherwise the time (ns) until one is available
+     */
+    public long tryAcquire(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            long excess = next - now - toleranceNanos;
+            if (excess > 0) {
+                throttled.increment();
+                TOTAL_THROTTLED.increment();
+                return excess;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Takes a token even if none is available, borrowing it from the future.
+     *
+     * @param now current time (System.nanoTime)
+     * @return 0 if a token was available, otherwise the time (ns) the caller
+     *         should wait to stay within the limit
+     */
+    public long reserve(long now) {
+        while (true) {
+            long current = fullAt.get();
+            long next = Math.max(current, now) + intervalNanos;
+            if (fullAt.compareAndSet(current, next)) {
+                long excess = next - now - toleranceNanos;
+                if (excess <= 0) {
+                    return 0;
+                }
+                throttled.increment();
+                TOTAL_THROTTLED.increment();
+                return excess;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of messages that were over the limit of this limiter.
+     */
+    public long getThrottledCount() {
+        return throttled.sum();
+    }
+
+    /**
+     * Returns the number of messages that were over the limit of any limiter.
+     */
+    public static long getTotalThrottled() {
+        return TOTAL_THROTTLED.sum();
+    }
+}
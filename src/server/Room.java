@@ -0,0 +1,62 @@
+package server;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A named chat room and its members.
+ * <p>
+ * Members are kept in a concurrent set, so joining or leaving does not copy
+ * the member list and broadcasts can iterate it while it changes.
+ * </p>
+ */
+public class Room {
+
+    /** Name of the room. */
+    private final String name;
+
+    /** Clients currently in the room. */
+    private final Set<ClientHandler> members = ConcurrentHashMap.newKeySet();
+
+    /** Recent messages of the room. */
+    private final MessageHistory history = new MessageHistory(ChatServer.HISTORY_SIZE);
+
+    /**
+     * Constructs an empty room.
+     *
+     * @param name name of the room
+     */
+    public Room(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns a live, weakly consistent view of the members.
+     */
+    public Set<ClientHandler> getMembers() {
+        return members;
+    }
+
+    /**
+     * Returns the recent messages of the room.
+     */
+    public MessageHistory getHistory() {
+        return history;
+    }
+
+    public int size() {
+        return members.size();
+    }
+
+    void add(ClientHandler client) {
+        members.add(client);
+    }
+
+    void remove(ClientHandler client) {
+        members.remove(client);
+    }
+}
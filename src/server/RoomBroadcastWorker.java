@@ -0,0 +1,103 @@
+package server;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Worker thread broadcasting the messages of one shard of rooms.
+ * Each message is encoded once and queued for every member of its room.
+ * Chat messages (not server notices) are also kept in the room's history;
+ * this worker is the only writer of the histories of its rooms.
+ * The worker stops when it takes {@link #STOP}, after everything queued before it.
+ */
+public class RoomBroadcastWorker implements Runnable {
+
+    /** Time a message waited from its creation until a worker took it. */
+    private static final LatencyHistogram QUEUE_WAIT_NS =
+            Metrics.histogram("broadcast_queue_wait_ns", "Time from message creation until broadcast starts (ns)");
+
+    /** Time of queueing one message for all members of its room. */
+    private static final LatencyHistogram FANOUT_NS =
+            Metrics.histogram("broadcast_fanout_ns", "Time to queue a message for every member of its room (ns)");
+
+    /** Time from creation until the message is queued for every recipient. */
+    private static final LatencyHistogram DELIVERY_NS =
+            Metrics.histogram("message_delivery_ns", "Time from message creation until queued for every recipient (ns)");
+
+    /** Number of room messages broadcast. */
+    private static final LongAdder BROADCASTS =
+            Metrics.counter("room_broadcasts_total", "Room messages broadcast");
+
+    /** Number of messages queued for a recipient. */
+    private static final LongAdder DELIVERIES =
+            Metrics.counter("room_deliveries_total", "Room messages queued for a recipient");
+
+    /** Queued to stop the worker; recognized by identity. */
+    public static final ChatMessage STOP = new ChatMessage(null, null, "");
+
+    /** Registry used to look up the target rooms. */
+    private final RoomRegistry rooms;
+
+    /** Queue of the shard served by this worker. */
+    private final LinkedBlockingQueue<ChatMessage> shardQueue;
+
+    /**
+     * Constructs a RoomBroadcastWorker.
+     *
+     * @param rooms      room registry
+     * @param shardQueue queue of the shard served by this worker
+     */
+    public RoomBroadcastWorker(RoomRegistry rooms, LinkedBlockingQueue<ChatMessage> shardQueue) {
+        this.rooms = rooms;
+        this.shardQueue = shardQueue;
+    }
+
+    /**
+     * Continuously takes messages of this shard and sends them to the members of their room.
+     */
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                ChatMessage msg = shardQueue.take();
+                if (msg == STOP) {
+                    return;
+                }
+                long created = msg.getCreatedNanos();
+                long start = created != 0 ? System.nanoTime() : Metrics.start();
+                if (created != 0) {
+                    QUEUE_WAIT_NS.record(start - created);
+                }
+
+                Room room = rooms.get(msg.getRoom());
+                if (room == null) {
+                    continue;
+                }
+                if (msg.getSender() != null) {
+                    room.getHistory().add(msg);
+                }
+                EncodedMessage encoded = ChatServer.BROADCAST_DIRECT_BUFFERS
+                        ? EncodedMessage.direct(msg.getLine())
+                        : msg.getEncoded();
+                int recipients = 0;
+                for (ClientHandler client : room.getMembers()) {
+                    client.send(encoded);
+                    recipients++;
+                }
+                encoded.release();
+
+                BROADCASTS.increment();
+                DELIVERIES.add(recipients);
+                if (start != 0) {
+                    long end = System.nanoTime();
+                    FANOUT_NS.record(end - start);
+                    if (created != 0) {
+                        DELIVERY_NS.record(end - created);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            // Thread was interrupted; exit gracefully
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package server;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Registry of chat rooms and router of room messages.
+ * <p>
+ * Rooms are created on first join and removed when the last member leaves
+ * (except the default room). Messages are routed to one of several broadcast
+ * shards by room name, so fan-out of different rooms runs in parallel while
+ * the messages of one room stay in order.
+ * </p>
+ */
+public class RoomRegistry {
+
+    /** Room every client is in after joining the chat. */
+    public static final String DEFAULT_ROOM = "lobby";
+
+    /** Longest allowed room name. */
+    private static final int MAX_NAME_LENGTH = 32;
+
+    /** Rooms by name. */
+    private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+
+    /** One queue per broadcast shard. */
+    private final List<LinkedBlockingQueue<ChatMessage>> shards = new ArrayList<>();
+
+    /**
+     * Constructs the registry with the default room and unbounded shard queues.
+     *
+     * @param shardCount number of broadcast shards, 0 means one per available core
+     */
+    public RoomRegistry(int shardCount) {
+        this(shardCount, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Constructs the registry with the default room.
+     *
+     * @param shardCount    number of broadcast shards, 0 means one per available core
+     * @param queueCapacity maximum number of messages waiting in one shard queue
+     */
+    public RoomRegistry(int shardCount, int queueCapacity) {
+        if (shardCount <= 0) {
+            shardCount = Runtime.getRuntime().availableProcessors();
+        }
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(new LinkedBlockingQueue<>(queueCapacity));
+        }
+        rooms.put(DEFAULT_ROOM, new Room(DEFAULT_ROOM));
+    }
+
+    /**
+     * Returns true if the name can be used for a room.
+     *
+     * @param name room name
+     */
+    public static boolean isValidName(String name) {
+        if (name.isEmpty() || name.length() > MAX_NAME_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a client to a room, creating the room if needed. Room names are
+     * case-insensitive, independent of the default locale.
+     *
+     * @param name   room name
+     * @param client client to add
+     * @return the room
+     */
+    public Room join(String name, ClientHandler client) {
+        return rooms.compute(name.toLowerCase(Locale.ROOT), (key, room) -> {
+            if (room == null) {
+                room = new Room(key);
+            }
+            room.add(client);
+            return room;
+        });
+    }
+
+    /**
+     * Removes a client from a room and drops the room once it is empty.
+     *
+     * @param room   room to leave
+     * @param client client to remove
+     */
+    public void leave(Room room, ClientHandler client) {
+        rooms.computeIfPresent(room.getName(), (key, current) -> {
+            current.remove(client);
+            return current.size() == 0 && !DEFAULT_ROOM.equals(key) ? null : current;
+        });
+    }
+
+    /**
+     * Returns a room by name, or null if it does not exist.
+     */
+    public Room get(String name) {
+        return rooms.get(name);
+    }
+
+    /**
+     * Returns the number of rooms.
+     */
+    public int size() {
+        return rooms.size();
+    }
+
+    /**
+     * Returns a snapshot of all rooms.
+     */
+    public List<Room> getRooms() {
+        return new ArrayList<>(rooms.values());
+    }
+
+    /**
+     * Queues a message for broadcasting to its room. Blocks while the shard
+     * queue is full, which slows the sender down to the broadcast rate; only
+     * for threads that may wait, such as the readers of the cluster bus.
+     *
+     * @param message message to broadcast
+     * @throws InterruptedException if interrupted while enqueueing
+     */
+    public void publish(ChatMessage message) throws InterruptedException {
+        shard(message).put(message);
+    }
+
+    /**
+     * Queues a message for broadcasting to its room without waiting.
+     *
+     * @param message message to broadcast
+     * @return false if the shard queue is full and the message was not queued
+     */
+    public boolean offer(ChatMessage message) {
+        return shard(message).offer(message);
+    }
+
+    /**
+     * Returns the queue of the shard broadcasting the message's room.
+     */
+    private LinkedBlockingQueue<ChatMessage> shard(ChatMessage message) {
+        return shards.get(Math.floorMod(message.getRoom().hashCode(), shards.size()));
+    }
+
+    /**
+     * Returns the queues of all broadcast shards.
+     */
+    public List<LinkedBlockingQueue<ChatMessage>> getShards() {
+        return shards;
+    }
+}
@@ -1,65 +1,200 @@
 package server;
 
-import java.util.List;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Worker thread that monitors client inactivity and disconnects clients
  * who have been idle for longer than the configured inactivity limit.
+ * <p>
+ * Every client has its own deadline in a {@link TimerWheel}, so a client is
+ * checked when its deadline passes instead of in a periodic scan of all
+ * clients. Activity updates only write a timestamp in the client; when the
+ * deadline fires and the client was active meanwhile, it is simply rescheduled.
+ * </p>
+ * <p>
+ * If a heartbeat interval is configured, a client that sent nothing at all for
+ * that long receives "/ping" and must answer (any line, normally "/pong") within
+ * the heartbeat timeout, otherwise its connection is considered dead and closed.
+ * This tells idle-but-alive clients apart from dead TCP connections. A dead
+ * connection is treated like a dropped one, so a client with a session token
+ * can still resume it within the reconnect grace period. Only clients that
+ * answered a ping before are held to the timeout; a client that leaves its
+ * first ping unanswered is taken to predate the heartbeat and is not pinged
+ * again.
+ * </p>
  */
 public class TimeoutWatcher implements Runnable {
 
-    /** List of currently connected clients. */
-    private final List<ClientHandler> clients;
+    /**
+     * Timers of one client.
+     */
+    static final class Watch {
+
+        /** Watched client. */
+        private final ClientHandler client;
+
+        /** Pending inactivity check. */
+        private volatile TimerWheel.Timeout inactivity;
+
+        /** Pending heartbeat check. */
+        private volatile TimerWheel.Timeout heartbeat;
+
+        /** Whether a ping was sent and not answered yet. */
+        private boolean pingSent;
 
-    /** Queue for broadcasting messages to all clients. */
-    private final LinkedBlockingQueue<String> broadcastQueue;
+        /** Time the last unanswered ping was sent ({@link System#nanoTime()}). */
+        private long pingSentAt;
+
+        private Watch(ClientHandler client) {
+            this.client = client;
+        }
+
+        /**
+         * Cancels all timers of the client.
+         */
+        void cancel() {
+            TimerWheel.Timeout timeout = inactivity;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+            timeout = heartbeat;
+            if (timeout != null) {
+                timeout.cancel();
+            }
+        }
+    }
 
     /** Queue for logging messages. */
-    private final LinkedBlockingQueue<String> logQueue;
+    private final LinkedBlockingQueue<ChatMessage> logQueue;
 
-    /** Interval (ms) at which client activity is checked. */
-    private static final long CHECK_INTERVAL = 10_000; // 10 seconds
+    /** Wheel holding the deadlines of all clients. */
+    private final TimerWheel wheel;
 
     /**
      * Constructs a TimeoutWatcher.
      *
-     * @param clients        list of connected clients
-     * @param broadcastQueue queue for broadcasting messages
-     * @param logQueue       queue for logging messages
+     * @param logQueue queue for logging messages
      */
-    public TimeoutWatcher(List<ClientHandler> clients, LinkedBlockingQueue<String> broadcastQueue,
-                          LinkedBlockingQueue<String> logQueue) {
-        this.clients = clients;
-        this.broadcastQueue = broadcastQueue;
+    public TimeoutWatcher(LinkedBlockingQueue<ChatMessage> logQueue) {
         this.logQueue = logQueue;
+        this.wheel = new TimerWheel(ChatServer.TIMEOUT_TICK_MS, 4096, System.nanoTime());
+    }
+
+    /**
+     * Starts watching a client.
+     *
+     * @param client client to watch
+     */
+    public void register(ClientHandler client) {
+        Watch watch = new Watch(client);
+        client.setWatch(watch);
+
+        scheduleInactivity(watch);
+        if (ChatServer.HEARTBEAT_INTERVAL_MS > 0) {
+            watch.heartbeat = wheel.schedule(
+                    client.getLastSeenTime() + nanos(ChatServer.HEARTBEAT_INTERVAL_MS),
+                    () -> checkHeartbeat(watch));
+        }
+    }
+
+    /**
+     * Schedules a one-off task on the watcher thread.
+     *
+     * @param delayMs delay from now (ms)
+     * @param task    task to run
+     * @return handle for cancelling the task
+     */
+    public TimerWheel.Timeout schedule(long delayMs, Runnable task) {
+        return wheel.schedule(System.nanoTime() + nanos(delayMs), task);
     }
 
     /**
-     * Continuously checks all clients for inactivity and disconnects
-     * those who exceed the inactivity limit.
+     * Advances the timer wheel once per tick.
      */
     @Override
     public void run() {
-        while (true) {
-            try {
-                long now = System.currentTimeMillis();
+        try {
+            while (true) {
+                wheel.advance(System.nanoTime());
+                Thread.sleep(wheel.getTickMs());
+            }
+        } catch (InterruptedException ignored) {
+            // Thread interrupted, exit gracefully
+        }
+    }
 
-                for (ClientHandler c : clients) {
-                    if (now - c.getLastActivityTime() > ChatServer.INACTIVITY_LIMIT_MS) {
+    /**
+     * Schedules the next inactivity check at the client's current deadline.
+     */
+    private void scheduleInactivity(Watch watch) {
+        long deadline = watch.client.getLastActivityTime() + nanos(ChatServer.INACTIVITY_LIMIT_MS);
+        watch.inactivity = wheel.schedule(deadline, () -> checkInactivity(watch));
+    }
 
-                        // pošli mu zprávu jako /quit
-                        c.sendMessage("You were disconnected due to inactivity.");
+    /**
+     * Disconnects the client if it was inactive until its deadline,
+     * otherwise moves the deadline.
+     */
+    private void checkInactivity(Watch watch) {
+        ClientHandler c = watch.client;
+        if (c.isDisconnected()) {
+            return;
+        }
+        if (System.nanoTime() - c.getLastActivityTime() >= nanos(ChatServer.INACTIVITY_LIMIT_MS)) {
 
-                        // odpojí ho stejně jako /quit
-                        c.disconnect();
-                    }
-                }
+            // pošli mu zprávu jako /quit
+            c.sendMessage("You were disconnected due to inactivity.");
 
-                Thread.sleep(CHECK_INTERVAL);
+            // odpojí ho stejně jako /quit
+            c.disconnect();
+            return;
+        }
+        scheduleInactivity(watch);
+    }
+
+    /**
+     * Sends a ping to a silent client, or closes the connection if a previous
+     * ping was not answered in time.
+     */
+    private void checkHeartbeat(Watch watch) {
+        ClientHandler c = watch.client;
+        if (c.isDisconnected()) {
+            return;
+        }
+        long now = System.nanoTime();
+        long lastSeen = c.getLastSeenTime();
 
-            } catch (Exception ignored) {}
+        if (watch.pingSent && lastSeen - watch.pingSentAt < 0) {
+            if (!c.answersPings()) {
+                // a client without heartbeat support: stop pinging it, the inactivity limit still applies
+                return;
+            }
+            logQueue.offer(ChatMessage.event(c.getName(),
+                    "Connection of " + c.getName() + " is dead (no heartbeat reply)."));
+            // a half-open connection is a network failure, not a quit: the session may be resumed
+            c.connectionLost();
+            c.closeSocket();
+            return;
         }
+
+        long next;
+        if (now - lastSeen >= nanos(ChatServer.HEARTBEAT_INTERVAL_MS)) {
+            c.sendControl(Frame.PING, null);
+            watch.pingSent = true;
+            watch.pingSentAt = now;
+            next = now + nanos(ChatServer.HEARTBEAT_TIMEOUT_MS);
+        } else {
+            watch.pingSent = false;
+            next = lastSeen + nanos(ChatServer.HEARTBEAT_INTERVAL_MS);
+        }
+        watch.heartbeat = wheel.schedule(next, () -> checkHeartbeat(watch));
     }
 
+    /**
+     * Converts a configured duration (ms) to the wheel's clock.
+     */
+    private static long nanos(long ms) {
+        return TimeUnit.MILLISECONDS.toNanos(ms);
+    }
 }
@@ -0,0 +1,181 @@
+package server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashed timing wheel for many cheap timeouts.
+ * <p>
+ * Time is divided into ticks and every timeout is put into the bucket of the
+ * tick it expires in; timeouts further away than one revolution carry a
+ * number of remaining rounds. Advancing the wheel only visits the buckets of
+ * the elapsed ticks, so the cost per expired timeout is O(1) regardless of how
+ * many timeouts are pending. Timeouts can be scheduled and cancelled from any
+ * thread; {@link #advance(long)} must always be called by the same thread.
+ * </p>
+ * <p>
+ * All times are {@link System#nanoTime()} values, so the wheel neither jumps
+ * nor stalls when the wall clock is set. They are only ever subtracted from
+ * each other, never compared directly, which keeps them correct across a
+ * numeric overflow of the clock.
+ * </p>
+ */
+public class TimerWheel {
+
+    /**
+     * A scheduled task.
+     */
+    public static final class Timeout {
+
+        /** Expiry time ({@link System#nanoTime()}). */
+        private final long deadline;
+
+        /** Task run on expiry. */
+        private final Runnable task;
+
+        /** Full revolutions left before expiry. */
+        private long rounds;
+
+        /** Next timeout in the same bucket. */
+        private Timeout next;
+
+        /** Set when the timeout should not run any more. */
+        private volatile boolean cancelled;
+
+        private Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Prevents the task from running. The entry is removed lazily.
+         */
+        public void cancel() {
+            cancelled = true;
+        }
+
+        /**
+         * Returns the expiry time ({@link System#nanoTime()}).
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+    }
+
+    /** Duration of one tick (ms). */
+    private final long tickMs;
+
+    /** Duration of one tick (ns). */
+    private final long tickNanos;
+
+    /** Heads of the bucket lists. */
+    private final Timeout[] buckets;
+
+    /** Mask for mapping a tick to its bucket. */
+    private final int mask;
+
+    /** Time of tick 0 ({@link System#nanoTime()}). */
+    private final long startTime;
+
+    /** Timeouts scheduled since the last advance. */
+    private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<>();
+
+    /** Next tick to process. */
+    private long currentTick;
+
+    /**
+     * Constructs a wheel.
+     *
+     * @param tickMs     duration of one tick (ms)
+     * @param wheelSize  number of buckets, rounded up to a power of two
+     * @param startTime  current time ({@link System#nanoTime()})
+     */
+    public TimerWheel(long tickMs, int wheelSize, long startTime) {
+        this.tickMs = Math.max(1, tickMs);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(this.tickMs);
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.buckets = new Timeout[size];
+        this.mask = size - 1;
+        this.startTime = startTime;
+    }
+
+    /**
+     * Schedules a task. Thread-safe.
+     *
+     * @param deadline expiry time ({@link System#nanoTime()})
+     * @param task     task to run on the advancing thread
+     * @return handle for cancelling the task
+     */
+    public Timeout schedule(long deadline, Runnable task) {
+        Timeout timeout = new Timeout(deadline, task);
+        pending.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Runs every task whose tick has elapsed up to the given time.
+     *
+     * @param now current time ({@link System#nanoTime()})
+     */
+    public void advance(long now) {
+        long lastTick = (now - startTime) / tickNanos;
+        while (currentTick <= lastTick) {
+            transferPending();
+            expire(currentTick);
+            currentTick++;
+        }
+    }
+
+    /**
+     * Returns the duration of one tick (ms).
+     */
+    public long getTickMs() {
+        return tickMs;
+    }
+
+    /**
+     * Moves newly scheduled timeouts into their buckets.
+     */
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            long tick = Math.max(currentTick, (timeout.deadline - startTime + tickNanos - 1) / tickNanos);
+            timeout.rounds = (tick - currentTick) / buckets.length;
+            int index = (int) (tick & mask);
+            timeout.next = buckets[index];
+            buckets[index] = timeout;
+        }
+    }
+
+    /**
+     * Runs the due timeouts of one tick's bucket and keeps the others.
+     */
+    private void expire(long tick) {
+        int index = (int) (tick & mask);
+        Timeout timeout = buckets[index];
+        buckets[index] = null;
+
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            timeout.next = null;
+
+            if (timeout.cancelled) {
+                // drop it
+            } else if (timeout.rounds > 0) {
+                timeout.rounds--;
+                timeout.next = buckets[index];
+                buckets[index] = timeout;
+            } else {
+                try {
+                    timeout.task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("Timer task failed: " + e.getMessage());
+                }
+            }
+            timeout = next;
+        }
+    }
+}
@@ -5,49 +5,292 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 
+/**
+ * Filter for banned words.
+ * <p>
+ * All banned words are compiled into one Aho-Corasick automaton, so a message is
+ * scanned once no matter how many words are banned. Messages and words are case
+ * folded character by character, optionally also removing diacritics
+ * ("sprosté" matches "sproste"). Because folding maps one char to one char, match
+ * positions refer directly to the original message, which allows masking.
+ * </p>
+ */
 public class WordFilter {
 
-    private final Set<String> bannedWords = ConcurrentHashMap.newKeySet();
+    /**
+     * A banned word found in a message.
+     *
+     * @param start index of the first matched char in the message
+     * @param end   index after the last matched char
+     * @param word  banned word as listed in the file
+     */
+    public record Match(int start, int end, String word) {
+    }
+
+    /** Lower-case mapping for every char. */
+    private static final char[] LOWER = new char[Character.MAX_VALUE + 1];
+
+    /** Lower-case mapping without diacritics for every char. */
+    private static final char[] LOWER_PLAIN = new char[Character.MAX_VALUE + 1];
+
+    static {
+        for (int c = 0; c <= Character.MAX_VALUE; c++) {
+            char lower = Character.toLowerCase((char) c);
+            LOWER[c] = lower;
+            LOWER_PLAIN[c] = lower;
+            if (lower >= 0x80 && !Character.isSurrogate(lower)) {
+                String decomposed = Normalizer.normalize(String.valueOf(lower), Normalizer.Form.NFD);
+                if (decomposed.length() > 1
+                        && decomposed.codePoints().skip(1).allMatch(
+                                cp -> Character.getType(cp) == Character.NON_SPACING_MARK)) {
+                    LOWER_PLAIN[c] = decomposed.charAt(0);
+                }
+            }
+        }
+    }
+
+    /** Banned words as listed in the file (lower case). */
+    private final Set<String> bannedWords;
+
+    /** Folding table used for words and messages. */
+    private final char[] fold;
+
+    /** Sorted transition chars of every automaton state. */
+    private char[][] transitionChars;
+
+    /** Target states, parallel to {@link #transitionChars}. */
+    private int[][] transitionTargets;
+
+    /** Failure link of every state. */
+    private int[] failure;
+
+    /** Index of the word ending in a state, or -1. */
+    private int[] wordAt;
+
+    /** Nearest state on the failure chain that ends a word, or -1. */
+    private int[] outputLink;
+
+    /** Banned words indexed by {@link #wordAt}. */
+    private String[] words;
+
+    /** Folded length of each word in {@link #words}. */
+    private int[] wordLengths;
 
     public WordFilter(Path filePath) throws IOException {
-        loadFromFile(filePath);
+        this(filePath, ChatServer.BANWORDS_FOLD_DIACRITICS);
+    }
+
+    public WordFilter(Path filePath, boolean foldDiacritics) throws IOException {
+        this(loadFromFile(filePath), foldDiacritics);
+    }
+
+    public WordFilter(Set<String> words, boolean foldDiacritics) {
+        this.fold = foldDiacritics ? LOWER_PLAIN : LOWER;
+        Set<String> lower = new LinkedHashSet<>();
+        for (String word : words) {
+            lower.add(lowerCase(word.trim()));
+        }
+        lower.remove("");
+        this.bannedWords = Collections.unmodifiableSet(lower);
+        build();
     }
 
-    private void loadFromFile(Path path) throws IOException {
+    /**
+     * Lower-cases a word char by char with the same table as messages, so the
+     * result neither depends on the default locale nor changes the length.
+     */
+    private static String lowerCase(String word) {
+        char[] chars = word.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = LOWER[chars[i]];
+        }
+        return new String(chars);
+    }
+
+    private static Set<String> loadFromFile(Path path) throws IOException {
         if (!Files.exists(path)) {
             throw new IOException("Soubor banwords neexistuje: " + path);
         }
 
+        Set<String> words = new LinkedHashSet<>();
         try (BufferedReader reader = Files.newBufferedReader(path)) {
             String line;
             while ((line = reader.readLine()) != null) {
-                line = line.trim().toLowerCase();
+                line = line.trim();
 
                 if (line.isEmpty() || line.startsWith("#")) {
                     continue;
                 }
 
-                bannedWords.add(line);
+                words.add(line);
             }
         }
+        return words;
     }
 
-    public boolean containsBannedWord(String message) {
-        String lower = message.toLowerCase();
+    /**
+     * Compiles the banned words into the automaton.
+     */
+    private void build() {
+        // Trie
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<Integer> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(-1);
+
+        words = bannedWords.toArray(new String[0]);
+        wordLengths = new int[words.length];
+        for (int w = 0; w < words.length; w++) {
+            String word = words[w];
+            wordLengths[w] = word.length();
+            int state = 0;
+            for (int i = 0; i < word.length(); i++) {
+                char c = fold[word.charAt(i)];
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.add(new TreeMap<>());
+                    ends.add(-1);
+                    trie.get(state).put(c, next);
+                }
+                state = next;
+            }
+            if (ends.get(state) < 0) {
+                ends.set(state, w);
+            }
+        }
+
+        int states = trie.size();
+        transitionChars = new char[states][];
+        transitionTargets = new int[states][];
+        wordAt = new int[states];
+        for (int s = 0; s < states; s++) {
+            Map<Character, Integer> edges = trie.get(s);
+            transitionChars[s] = new char[edges.size()];
+            transitionTargets[s] = new int[edges.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> edge : edges.entrySet()) {
+                transitionChars[s][i] = edge.getKey();
+                transitionTargets[s][i] = edge.getValue();
+                i++;
+            }
+            wordAt[s] = ends.get(s);
+        }
+
+        // Failure and output links, breadth first
+        failure = new int[states];
+        outputLink = new int[states];
+        Arrays.fill(outputLink, -1);
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int child : transitionTargets[0]) {
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int i = 0; i < transitionChars[s].length; i++) {
+                char c = transitionChars[s][i];
+                int child = transitionTargets[s][i];
 
-        for (String word : bannedWords) {
-            if (lower.contains(word)) {
+                int f = failure[s];
+                while (f != 0 && next(f, c) < 0) {
+                    f = failure[f];
+                }
+                int target = next(f, c);
+                failure[child] = target >= 0 ? target : 0;
+                outputLink[child] = wordAt[failure[child]] >= 0
+                        ? failure[child]
+                        : outputLink[failure[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Returns the goto target of a state, or -1 if there is no edge.
+     */
+    private int next(int state, char c) {
+        int i = Arrays.binarySearch(transitionChars[state], c);
+        return i >= 0 ? transitionTargets[state][i] : -1;
+    }
+
+    /**
+     * Advances the automaton by one (folded) char.
+     */
+    private int step(int state, char c) {
+        while (true) {
+            int target = next(state, c);
+            if (target >= 0) {
+                return target;
+            }
+            if (state == 0) {
+                return 0;
+            }
+            state = failure[state];
+        }
+    }
+
+    public boolean containsBannedWord(String message) {
+        int state = 0;
+        for (int i = 0; i < message.length(); i++) {
+            state = step(state, fold[message.charAt(i)]);
+            if (wordAt[state] >= 0 || outputLink[state] >= 0) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Finds all occurrences of banned words, including overlapping ones.
+     *
+     * @param message message to scan
+     * @return matches ordered by their end position
+     */
+    public List<Match> findMatches(String message) {
+        List<Match> matches = new ArrayList<>();
+        int state = 0;
+        for (int i = 0; i < message.length(); i++) {
+            state = step(state, fold[message.charAt(i)]);
+            int s = wordAt[state] >= 0 ? state : outputLink[state];
+            while (s >= 0) {
+                int w = wordAt[s];
+                matches.add(new Match(i + 1 - wordLengths[w], i + 1, words[w]));
+                s = outputLink[s];
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * Replaces every banned word in the message with asterisks.
+     *
+     * @param message message to mask
+     * @return masked message, or the message itself if nothing matched
+     */
+    public String mask(String message) {
+        List<Match> matches = findMatches(message);
+        if (matches.isEmpty()) {
+            return message;
+        }
+        char[] chars = message.toCharArray();
+        for (Match match : matches) {
+            Arrays.fill(chars, match.start(), match.end(), '*');
+        }
+        return new String(chars);
+    }
+
     public Set<String> getBannedWords() {
         return bannedWords;
     }
 }
-